@@ -22,13 +22,14 @@ package eu.interedition.collatex;
 import eu.interedition.collatex.dekker.Match;
 import eu.interedition.collatex.needlemanwunsch.NeedlemanWunschAlgorithm;
 import eu.interedition.collatex.needlemanwunsch.NeedlemanWunschScorer;
+import eu.interedition.collatex.util.Cancellation;
+import eu.interedition.collatex.util.Phrase;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VertexMatch;
 
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
@@ -41,6 +42,14 @@ public interface CollationAlgorithm {
 
     void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses);
 
+    /**
+     * Collates the given witnesses unless the given token is cancelled, in which case the collation is abandoned
+     * with a {@link java.util.concurrent.CancellationException}, leaving the variant graph in an undefined state.
+     */
+    default void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses, Cancellation cancellation) {
+        cancellation.run(() -> collate(against, witnesses));
+    }
+
     abstract class Base implements CollationAlgorithm {
         protected final Logger LOG = Logger.getLogger(getClass().getName());
         protected Map<Token, VariantGraph.Vertex> witnessTokenVertices;
@@ -53,6 +62,7 @@ public interface CollationAlgorithm {
         @Override
         public void collate(VariantGraph against, List<? extends Iterable<Token>> witnesses) {
             for (Iterable<Token> witness : witnesses) {
+                Cancellation.current().check();
                 if (LOG.isLoggable(Level.FINE)) {
                     LOG.log(Level.FINE, "heap space: {0}/{1}", new Object[]{
                             Runtime.getRuntime().totalMemory(),
@@ -93,20 +103,40 @@ public interface CollationAlgorithm {
             into.connect(last, into.getEnd(), witnessSet);
         }
 
-        protected void mergeTranspositions(VariantGraph into, Iterable<SortedSet<VertexMatch.WithToken>> transpositions) {
-            for (SortedSet<VertexMatch.WithToken> transposedPhrase : transpositions) {
+        protected void mergeTranspositions(VariantGraph into, Token[] tokens, Iterable<Phrase> transpositions) {
+            for (Phrase transposedPhrase : transpositions) {
                 if (LOG.isLoggable(Level.FINE)) {
                     LOG.log(Level.FINE, "Transposition: {0}", transposedPhrase);
                 }
                 final Set<VariantGraph.Vertex> transposed = new HashSet<>();
-                for (VertexMatch.WithToken match : transposedPhrase) {
-                    transposed.add(witnessTokenVertices.get(match.token));
-                    transposed.add(match.vertex);
+                for (int mc = 0; mc < transposedPhrase.length; mc++) {
+                    transposed.add(witnessTokenVertices.get(tokens[transposedPhrase.token + mc]));
+                    transposed.add(transposedPhrase.vertex(mc));
                 }
                 into.transpose(transposed);
             }
         }
 
+        /**
+         * @deprecated phrase matches are represented as {@link Phrase phrases}; use
+         * {@link #mergeTranspositions(VariantGraph, Token[], Iterable)}
+         */
+        @Deprecated
+        protected void mergeTranspositions(VariantGraph into, Iterable<SortedSet<VertexMatch.WithToken>> transpositions) {
+            for (SortedSet<VertexMatch.WithToken> transposedPhrase : transpositions) {
+                final Token[] tokens = new Token[transposedPhrase.size()];
+                final VariantGraph.Vertex[] vertices = new VariantGraph.Vertex[tokens.length];
+                int mc = 0;
+                for (VertexMatch.WithToken match : transposedPhrase) {
+                    tokens[mc] = match.token;
+                    vertices[mc++] = match.vertex;
+                }
+                mergeTranspositions(into, tokens, Collections.singletonList(
+                    new Phrase(vertices, 0, transposedPhrase.first().vertexRank, 0, tokens.length)
+                ));
+            }
+        }
+
         protected void mergeTranspositions(VariantGraph into, List<List<Match>> transpositions) {
             for (List<Match> transposedPhrase : transpositions) {
                 if (LOG.isLoggable(Level.FINE)) {
@@ -121,34 +151,36 @@ public interface CollationAlgorithm {
             }
         }
 
-        protected void merge(VariantGraph graph, VariantGraph.Vertex[][] vertices, Token[] tokens, SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches) {
-            @SuppressWarnings("unchecked") final SortedSet<VertexMatch.WithTokenIndex>[] matchesVertexOrder = matches.toArray(new SortedSet[matches.size()]);
-            final SortedSet<VertexMatch.WithTokenIndex>[] matchesTokenOrder = Arrays.copyOf(matchesVertexOrder, matchesVertexOrder.length);
+        protected void merge(VariantGraph graph, VariantGraph.Vertex[][] vertices, Token[] tokens, SortedSet<Phrase> matches) {
+            final Phrase[] matchesVertexOrder = matches.toArray(new Phrase[matches.size()]);
+            final Phrase[] matchesTokenOrder = Arrays.copyOf(matchesVertexOrder, matchesVertexOrder.length);
 
-            Arrays.sort(matchesTokenOrder, Comparator.comparing(m -> m.first().token));
+            Arrays.sort(matchesTokenOrder, Comparator.comparingInt(m -> m.token));
 
-            final Set<SortedSet<VertexMatch.WithTokenIndex>> alignedMatches = NeedlemanWunschAlgorithm.align(
+            final Set<Phrase> alignedMatches = NeedlemanWunschAlgorithm.align(
                     matchesVertexOrder,
                     matchesTokenOrder,
                     new MatchPhraseAlignmentScorer(Math.max(tokens.length, vertices.length))
             ).keySet();
 
-            final Map<Token, VariantGraph.Vertex> alignments = matches.stream()
-                    .filter(alignedMatches::contains)
-                    .flatMap(Set::stream)
-                    .collect(Collectors.toMap(m -> tokens[m.token], m -> m.vertex));
-
-            final List<SortedSet<VertexMatch.WithToken>> transpositions = matches.stream()
-                    .filter(m -> !alignedMatches.contains(m))
-                    .map(t -> t.stream().map(m -> new VertexMatch.WithToken(m.vertex, m.vertexRank, tokens[m.token])).collect(Collectors.toCollection(TreeSet::new)))
-                    .collect(Collectors.toList());
+            final Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
+            final List<Phrase> transpositions = new ArrayList<>();
+            for (Phrase phrase : matchesVertexOrder) {
+                if (alignedMatches.contains(phrase)) {
+                    for (int mc = 0; mc < phrase.length; mc++) {
+                        alignments.put(tokens[phrase.token + mc], phrase.vertex(mc));
+                    }
+                } else {
+                    transpositions.add(phrase);
+                }
+            }
 
             merge(graph, Arrays.asList(tokens), alignments);
-            mergeTranspositions(graph, transpositions);
+            mergeTranspositions(graph, tokens, transpositions);
         }
     }
 
-    class MatchPhraseAlignmentScorer implements NeedlemanWunschScorer<SortedSet<VertexMatch.WithTokenIndex>, SortedSet<VertexMatch.WithTokenIndex>> {
+    class MatchPhraseAlignmentScorer implements NeedlemanWunschScorer<Phrase, Phrase> {
 
         private final int maxWitnessLength;
 
@@ -157,7 +189,7 @@ public interface CollationAlgorithm {
         }
 
         @Override
-        public float score(SortedSet<VertexMatch.WithTokenIndex> a, SortedSet<VertexMatch.WithTokenIndex> b) {
+        public float score(Phrase a, Phrase b) {
             return (a.equals(b) ? 1 : -maxWitnessLength);
         }
 
@@ -19,6 +19,7 @@
 
 package eu.interedition.collatex;
 
+import eu.interedition.collatex.util.Cancellation;
 import eu.interedition.collatex.util.VariantGraphTraversal;
 
 import java.util.ArrayDeque;
@@ -162,8 +163,12 @@ public class VariantGraph {
     public static final Function<VariantGraph, VariantGraph> JOIN = graph -> {
         final Set<Vertex> processed = new HashSet<>();
         final Deque<Vertex> queue = new ArrayDeque<>(graph.start.outgoing.keySet());
+        final Cancellation cancellation = Cancellation.current();
 
-        while (!queue.isEmpty()) {
+        for (int iteration = 1; !queue.isEmpty(); iteration++) {
+            if ((iteration & 0x3ff) == 0) {
+                cancellation.check();
+            }
             final Vertex vertex = queue.pop();
             final Set<Set<Vertex>> transpositions = new HashSet<>(vertex.transpositions());
             if (vertex.outgoing.size() == 1) {
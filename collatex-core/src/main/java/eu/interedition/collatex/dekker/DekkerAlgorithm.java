@@ -29,6 +29,7 @@ import eu.interedition.collatex.dekker.island.IslandConflictResolver;
 import eu.interedition.collatex.dekker.token_index.TokenIndex;
 import eu.interedition.collatex.dekker.token_index.TokenIndexToMatches;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.util.Cancellation;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
@@ -81,6 +82,7 @@ public class DekkerAlgorithm extends CollationAlgorithm.Base implements Inspecta
         boolean firstWitness = true;
 
         for (Iterable<Token> tokens : witnesses) {
+            Cancellation.current().check();
             final Witness witness = StreamUtil.stream(tokens)
                     .findFirst()
                     .map(Token::getWitness)
@@ -113,6 +115,7 @@ public class DekkerAlgorithm extends CollationAlgorithm.Base implements Inspecta
             // Phase 2b: do the actual alignment
             IslandConflictResolver resolver = new IslandConflictResolver(new IslandCollection(allPossibleIslands));
             preferredIslands = resolver.createNonConflictingVersion().getIslands();
+            Cancellation.current().check();
 
             // we need to convert the islands into Map<Token, Vertex> for further processing
             Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
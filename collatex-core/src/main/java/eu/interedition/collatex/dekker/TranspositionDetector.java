@@ -20,15 +20,25 @@ package eu.interedition.collatex.dekker;
 
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.util.FenwickTree;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
 import java.util.*;
 
 /**
+ * Detects transposed phrase matches greedily: as long as the remaining phrase matches are not in the same order in the
+ * witness and in the graph, the one most distant from its place in graph order is transposed, possibly along with
+ * the phrase match taking that place.
+ * <p>
+ * Each pass scans the remaining p phrase matches once to compute their distances, so detecting t transpositions takes
+ * O(p &middot; t) time; only locating the linked phrase match and removing transposed ones uses the order-statistic
+ * trees, in O(log p). The distances cannot be maintained across passes in a single tree, as transposing a phrase
+ * match shifts those following it in witness order and those following it in graph order, which are no contiguous
+ * range in either order.
+ *
  * @author Ronald Haentjens Dekker
  */
 public class TranspositionDetector {
-    private Map<List<Match>, Integer> phraseMatchToIndex;
 
     public List<List<Match>> detect(final List<List<Match>> phraseMatches, VariantGraph base) {
         // if there are no phrase matches it is not possible
@@ -45,111 +55,97 @@ public class TranspositionDetector {
      */
         final VariantGraphRanking ranking = rankTheGraph(phraseMatches, base);
 
-        Comparator<List<Match>> comp = (pm1, pm2) -> {
-            int rank1 = ranking.apply(pm1.get(0).vertex);
-            int rank2 = ranking.apply(pm2.get(0).vertex);
-            int difference = rank1 - rank2;
-            if (difference != 0) {
-                return difference;
-            }
-            int index1 = phraseMatches.indexOf(pm1);
-            int index2 = phraseMatches.indexOf(pm2);
-            return index1 - index2;
-        };
-
-        List<List<Match>> phraseMatchesGraphOrder = new ArrayList<>(phraseMatches);
-        phraseMatchesGraphOrder.sort(comp);
-
-        // Map 1
-        phraseMatchToIndex = new HashMap<>();
-        for (int i = 0; i < phraseMatchesGraphOrder.size(); i++) {
-            phraseMatchToIndex.put(phraseMatchesGraphOrder.get(i), i);
+        final int phraseMatchCount = phraseMatches.size();
+        final int[] ranks = new int[phraseMatchCount];
+        final int[] sizes = new int[phraseMatchCount];
+        for (int i = 0; i < phraseMatchCount; i++) {
+            final List<Match> phraseMatch = phraseMatches.get(i);
+            ranks[i] = ranking.apply(phraseMatch.get(0).vertex);
+            sizes[i] = determineSize(phraseMatch);
         }
 
+        final Integer[] phraseMatchesGraphOrder = new Integer[phraseMatchCount];
+        for (int i = 0; i < phraseMatchCount; i++) {
+            phraseMatchesGraphOrder[i] = i;
+        }
+        Arrays.sort(phraseMatchesGraphOrder, (pm1, pm2) -> {
+            final int difference = ranks[pm1] - ranks[pm2];
+            return (difference != 0 ? difference : pm1 - pm2);
+        });
+
     /*
      * We calculate the index for all the phrase matches
-     * First in witness order, then in graph order
+     * in graph order; the witness order is given by the list of phrase matches
      */
-        List<Integer> phraseMatchesGraphIndex = new ArrayList<>();
-        List<Integer> phraseMatchesWitnessIndex = new ArrayList<>();
-
-        for (int i = 0; i < phraseMatches.size(); i++) {
-            phraseMatchesGraphIndex.add(i);
-        }
-
-        for (List<Match> phraseMatch : phraseMatches) {
-            phraseMatchesWitnessIndex.add(phraseMatchToIndex.get(phraseMatch));
+        final int[] phraseMatchesGraphIndex = new int[phraseMatchCount];
+        for (int i = 0; i < phraseMatchCount; i++) {
+            phraseMatchesGraphIndex[phraseMatchesGraphOrder[i]] = i;
         }
 
     /*
-     * Initialize result variables
+     * Initialize result variables; the phrase matches which are not transposed
+     * are tracked in witness as well as in graph order, so we can find the n-th
+     * remaining phrase match in either order in logarithmic time
      */
-        List<List<Match>> nonTransposedPhraseMatches = new ArrayList<>(phraseMatches);
-        List<List<Match>> transpositions = new ArrayList<>();
+        final boolean[] transposed = new boolean[phraseMatchCount];
+        final int[] distances = new int[phraseMatchCount];
+        final FenwickTree nonTransposedInWitnessOrder = new FenwickTree(phraseMatchCount);
+        final FenwickTree nonTransposedInGraphOrder = new FenwickTree(phraseMatchCount);
+        final List<List<Match>> transpositions = new ArrayList<>();
 
     /*
      * loop here until the maximum distance == 0
      */
         while (true) {
-            // Map 2
-            final Map<List<Match>, Integer> phraseMatchToDistanceMap = new LinkedHashMap<>();
-            for (int i = 0; i < nonTransposedPhraseMatches.size(); i++) {
-                Integer graphIndex = phraseMatchesGraphIndex.get(i);
-                Integer witnessIndex = phraseMatchesWitnessIndex.get(i);
-                Integer distance = Math.abs(graphIndex - witnessIndex);
-                List<Match> phraseMatch = nonTransposedPhraseMatches.get(i);
-                phraseMatchToDistanceMap.put(phraseMatch, distance);
-            }
-
-            List<Integer> distanceList = new ArrayList<>(phraseMatchToDistanceMap.values());
-
-            if (distanceList.isEmpty() || Collections.max(distanceList) == 0) {
-                break;
-            }
-
-            // sort phrase matches on distance, size
+            // the distance of a phrase match is the difference between its index in graph order
+            // and the graph index of the phrase match, which takes its place in witness order.
+            //
+            // We select the phrase match with the largest distance, preferring
+            // 1) smaller phrase matches and 2) phrase matches occurring earlier in the witness
             // TODO: order by 3) graph rank?
             // TODO: I have not yet found evidence/a use case that
             // TODO: indicates that it is needed.
-            Comparator<List<Match>> comp2 = (pm1, pm2) -> {
-                // first order by distance
-                int distance1 = phraseMatchToDistanceMap.get(pm1);
-                int distance2 = phraseMatchToDistanceMap.get(pm2);
-                int difference = distance2 - distance1;
-                if (difference != 0) {
-                    return difference;
+            int transposedPhrase = -1;
+            int graphOrderPosition = 0;
+            for (int witnessIndex = 0; witnessIndex < phraseMatchCount; witnessIndex++) {
+                if (transposed[witnessIndex]) {
+                    continue;
                 }
-                // second order by size
-                // return pm1.size() - pm2.size();
-                return determineSize(pm1) - determineSize(pm2);
-            };
-
-            List<List<Match>> sortedPhraseMatches = new ArrayList<>(nonTransposedPhraseMatches);
-            sortedPhraseMatches.sort(comp2);
+                while (transposed[phraseMatchesGraphOrder[graphOrderPosition]]) {
+                    graphOrderPosition++;
+                }
+                final int distance = Math.abs(graphOrderPosition - phraseMatchesGraphIndex[witnessIndex]);
+                distances[witnessIndex] = distance;
+                if (distance > 0 && (transposedPhrase < 0
+                        || distance > distances[transposedPhrase]
+                        || (distance == distances[transposedPhrase] && sizes[witnessIndex] < sizes[transposedPhrase]))) {
+                    transposedPhrase = witnessIndex;
+                }
+                graphOrderPosition++;
+            }
 
-            List<Match> transposedPhrase = sortedPhraseMatches.remove(0);
+            if (transposedPhrase < 0) {
+                break;
+            }
 
-            Integer transposedIndex = phraseMatchToIndex.get(transposedPhrase);
-            Integer graphIndex = phraseMatchesGraphIndex.indexOf(transposedIndex);
-            Integer transposedWithIndex = phraseMatchesWitnessIndex.get(graphIndex);
-            List<Match> linkedTransposedPhrase = phraseMatchesGraphOrder.get(transposedWithIndex);
+            final int graphIndex = nonTransposedInGraphOrder.rank(phraseMatchesGraphIndex[transposedPhrase]);
+            final int linkedTransposedPhrase = nonTransposedInWitnessOrder.select(graphIndex);
 
-            addTransposition(phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, transposedPhrase);
+            addTransposition(phraseMatches, phraseMatchesGraphIndex, transposed, nonTransposedInWitnessOrder, nonTransposedInGraphOrder, transpositions, transposedPhrase);
 
-            Integer distance = phraseMatchToDistanceMap.get(transposedPhrase);
-            if (Objects.equals(distance, phraseMatchToDistanceMap.get(linkedTransposedPhrase)) && distance > 1) {
-                addTransposition(phraseMatchesWitnessIndex, phraseMatchesGraphIndex, nonTransposedPhraseMatches, transpositions, linkedTransposedPhrase);
+            final int distance = distances[transposedPhrase];
+            if (distance == distances[linkedTransposedPhrase] && distance > 1) {
+                addTransposition(phraseMatches, phraseMatchesGraphIndex, transposed, nonTransposedInWitnessOrder, nonTransposedInGraphOrder, transpositions, linkedTransposedPhrase);
             }
         }
         return transpositions;
     }
 
-    private void addTransposition(List<Integer> phraseWitnessRanks, List<Integer> phraseGraphRanks, List<List<Match>> nonTransposedPhraseMatches, List<List<Match>> transpositions, List<Match> transposedPhrase) {
-        Integer indexToRemove = phraseMatchToIndex.get(transposedPhrase);
-        nonTransposedPhraseMatches.remove(transposedPhrase);
-        transpositions.add(transposedPhrase);
-        phraseGraphRanks.remove(indexToRemove);
-        phraseWitnessRanks.remove(indexToRemove);
+    private void addTransposition(List<List<Match>> phraseMatches, int[] phraseMatchesGraphIndex, boolean[] transposed, FenwickTree nonTransposedInWitnessOrder, FenwickTree nonTransposedInGraphOrder, List<List<Match>> transpositions, int transposedPhrase) {
+        transposed[transposedPhrase] = true;
+        nonTransposedInWitnessOrder.remove(transposedPhrase);
+        nonTransposedInGraphOrder.remove(phraseMatchesGraphIndex[transposedPhrase]);
+        transpositions.add(phraseMatches.get(transposedPhrase));
     }
 
     private VariantGraphRanking rankTheGraph(List<List<Match>> phraseMatches, VariantGraph base) {
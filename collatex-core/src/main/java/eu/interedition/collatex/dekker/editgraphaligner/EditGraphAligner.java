@@ -7,6 +7,7 @@ import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.dekker.Match;
 import eu.interedition.collatex.dekker.token_index.TokenIndex;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.util.Cancellation;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
@@ -85,7 +86,9 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
         this.vertex_array = new VariantGraph.Vertex[tokenIndex.token_array.length];
         boolean firstWitness = true;
 
+        final Cancellation cancellation = Cancellation.current();
         for (Iterable<Token> tokens : witnesses) {
+            cancellation.check();
             final Witness witness = StreamUtil.stream(tokens)
                 .findFirst()
                 .map(Token::getWitness)
@@ -174,9 +177,11 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
         });
 
         // fill the remaining cells
-        // fill the rest of the cells in a y by x fashion
-        IntStream.range(1, tokensAsIndexList.size()).forEach(//
-            y -> IntStream.range(1, variantGraphRanks.size()).forEach(
+        // fill the rest of the cells in a y by x fashion, checking for cancellation once per row
+        final Cancellation cancellation = Cancellation.current();
+        IntStream.range(1, tokensAsIndexList.size()).forEach(y -> {
+            cancellation.check();
+            IntStream.range(1, variantGraphRanks.size()).forEach(
                 x -> {
                     int previousY = y - 1;
                     int previousX = x - 1;
@@ -185,7 +190,8 @@ public class EditGraphAligner extends CollationAlgorithm.Base {
                     Score fromUpper = calculateFromUpper(scorer, y, x, previousY, cube);
                     Score max = max(asList(fromUpperLeft, fromLeft, fromUpper), comparingInt(score -> score.globalScore));
                     this.cells[y][x] = max;
-                }));
+                });
+        });
     }
 
     private Map<Token, VariantGraph.Vertex> alignMatchingTokens(MatchCube cube) {
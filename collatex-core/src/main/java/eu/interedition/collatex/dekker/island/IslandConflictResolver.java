@@ -19,6 +19,8 @@
 
 package eu.interedition.collatex.dekker.island;
 
+import eu.interedition.collatex.util.Cancellation;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -50,8 +52,10 @@ public class IslandConflictResolver {
      * not conflict with each other, largest first.
      */
     public IslandSelection createNonConflictingVersion() {
+        final Cancellation cancellation = Cancellation.current();
         List<Island> possibleIslands;
         do {
+            cancellation.check();
             possibleIslands = selection.getPossibleIslands();
             // check the possible islands of a certain size against each other.
             if (possibleIslands.size() == 1) {
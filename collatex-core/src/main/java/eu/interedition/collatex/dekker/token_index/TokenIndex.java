@@ -5,6 +5,7 @@ import eu.interedition.collatex.Witness;
 import eu.interedition.collatex.suffixarray.SAIS;
 import eu.interedition.collatex.suffixarray.SuffixArrays;
 import eu.interedition.collatex.suffixarray.SuffixData;
+import eu.interedition.collatex.util.Cancellation;
 import eu.interedition.collatex.util.StreamUtil;
 
 import java.util.*;
@@ -45,11 +46,15 @@ public class TokenIndex {
     // 4. derive LCP intervals
     // TODO: we do not have to store witnesses!
     public void prepare() {
+        final Cancellation cancellation = Cancellation.current();
         this.token_array = this.prepareTokenArray();
+        cancellation.check();
         SuffixData suffixData = SuffixArrays.createWithLCP(token_array, new SAIS(), comparator);
         this.suffix_array = suffixData.getSuffixArray();
         this.LCP_array = suffixData.getLCP();
+        cancellation.check();
         this.blocks = splitLCP_ArrayIntoIntervals();
+        cancellation.check();
         constructWitnessToBlockInstancesMap();
     }
 
@@ -19,70 +19,169 @@
 
 package eu.interedition.collatex.matching;
 
+import java.util.Arrays;
+
+/**
+ * Levenshtein distance of strings.
+ * <p>
+ * Strings of which the shorter one has at most 64 characters are compared bit-parallel (Myers/Hyyr\u00f6), longer ones
+ * via dynamic programming. When only distances up to a threshold are of interest, the computation is confined to a
+ * diagonal band of the matrix (Ukkonen) and stops as soon as the threshold is exceeded. Working memory is kept
+ * per thread, so that comparisons do not allocate.
+ */
 public final class EditDistance {
-    private static final int MAX_DISTANCE_COMPARISON = 2500;
+
+    private static final int MAX_BIT_PARALLEL_LENGTH = Long.SIZE;
+
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
 
     public static int compute(String str1, String str2) {
-        if ((str1.length() * str2.length() > MAX_DISTANCE_COMPARISON)) {
-            return MAX_DISTANCE_COMPARISON;
-        }
+        return compute(str1, str2, Math.max(str1.length(), str2.length()));
+    }
 
-        final char[] str1Chars = str1.toCharArray();
-        final int str1Length = str1Chars.length;
-        final char[] str2Chars = str2.toCharArray();
-        final int str2Length = str2Chars.length;
+    /**
+     * @return the edit distance of both strings, or <code>maxDistance + 1</code> if it exceeds <code>maxDistance</code>
+     */
+    public static int compute(String str1, String str2, int maxDistance) {
+        final String pattern = (str1.length() <= str2.length() ? str1 : str2);
+        final String text = (pattern == str1 ? str2 : str1);
+        final int patternLength = pattern.length();
+        final int textLength = text.length();
 
-        if (str1Length == 0) {
-            return str2Length;
+        if (textLength - patternLength > maxDistance) {
+            return maxDistance + 1;
         }
-        if (str2Length == 0) {
-            return str1Length;
+        if (patternLength == 0) {
+            return textLength;
         }
 
-        int[][][] cache = new int[30][][];
-        int matrix[][];
-        if (str2Length >= cache.length) {
-            matrix = form(str1Length, str2Length);
-        } else if (cache[str2Length] != null) {
-            matrix = cache[str2Length];
-        } else {
-            matrix = cache[str2Length] = form(str1Length, str2Length);
-        }
+        return (patternLength <= MAX_BIT_PARALLEL_LENGTH
+                ? bitParallel(pattern, text, maxDistance)
+                : banded(pattern, text, maxDistance));
+    }
+
+    private static int bitParallel(String pattern, String text, int maxDistance) {
+        final int patternLength = pattern.length();
+        final int textLength = text.length();
+        final Buffers buffers = BUFFERS.get();
+        buffers.index(pattern);
 
-        for (int i = 1; i <= str1Length; i++) {
-            final char str1Char = str1Chars[i - 1];
-            for (int j = 1; j <= str2Length; j++) {
-                final char str2Char = str2Chars[j - 1];
-                final int cost = (str1Char == str2Char ? 0 : 1);
-                matrix[i][j] = min3(matrix[i - 1][j] + 1, matrix[i][j - 1] + 1, matrix[i - 1][j - 1] + cost);
+        final long lastBit = 1L << (patternLength - 1);
+        long positive = -1L;
+        long negative = 0L;
+        int distance = patternLength;
+        for (int tc = 0; tc < textLength; tc++) {
+            final long equal = buffers.positions(text.charAt(tc));
+            final long vertical = equal | negative;
+            final long horizontal = (((equal & positive) + positive) ^ positive) | equal;
+            long horizontalPositive = negative | ~(horizontal | positive);
+            long horizontalNegative = positive & horizontal;
+            if ((horizontalPositive & lastBit) != 0) {
+                distance++;
+            } else if ((horizontalNegative & lastBit) != 0) {
+                distance--;
             }
+            if (distance - (textLength - tc - 1) > maxDistance) {
+                return maxDistance + 1;
+            }
+            horizontalPositive = (horizontalPositive << 1) | 1;
+            horizontalNegative <<= 1;
+            positive = horizontalNegative | ~(vertical | horizontalPositive);
+            negative = horizontalPositive & vertical;
         }
-
-        return matrix[str1Length][str2Length];
+        return distance;
     }
 
-    private static int[][] form(int n, int m) {
-        int[][] d = new int[n + 1][m + 1];
-
-        for (int i = 0; i <= n; i++) {
-            d[i][0] = i;
+    private static int banded(String pattern, String text, int maxDistance) {
+        final int patternLength = pattern.length();
+        final int textLength = text.length();
+        final Buffers buffers = BUFFERS.get();
+        int[] previous = buffers.row(0, patternLength + 1);
+        int[] current = buffers.row(1, patternLength + 1);
 
+        for (int pc = 0; pc <= patternLength; pc++) {
+            previous[pc] = (pc <= maxDistance ? pc : INFINITY);
         }
-        for (int j = 0; j <= m; j++) {
-            d[0][j] = j;
+
+        for (int tc = 1; tc <= textLength; tc++) {
+            final char textChar = text.charAt(tc - 1);
+            final int from = Math.max(1, tc - maxDistance);
+            final int to = Math.min(patternLength, tc + maxDistance);
+
+            current[from - 1] = (from == 1 && tc <= maxDistance ? tc : INFINITY);
+            int rowMinimum = current[from - 1];
+            for (int pc = from; pc <= to; pc++) {
+                final int cost = (pattern.charAt(pc - 1) == textChar ? 0 : 1);
+                final int distance = Math.min(previous[pc - 1] + cost, Math.min(previous[pc], current[pc - 1]) + 1);
+                current[pc] = distance;
+                rowMinimum = Math.min(rowMinimum, distance);
+            }
+            if (to < patternLength) {
+                current[to + 1] = INFINITY;
+            }
+            if (rowMinimum > maxDistance) {
+                return maxDistance + 1;
+            }
+
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
         }
-        return d;
+        return Math.min(previous[patternLength], maxDistance + 1);
     }
 
-    private static int min3(int a, int b, int c) {
-        int mi = a;
-        if (b < mi) {
-            mi = b;
+    /**
+     * Per-thread working memory: the character positions of a pattern as bit vectors in an open-addressing table,
+     * whose entries are invalidated by bumping a generation stamp, and two rows of a distance matrix.
+     */
+    private static class Buffers {
+        private static final int TABLE_SIZE = 2 * MAX_BIT_PARALLEL_LENGTH;
+
+        private final char[] characters = new char[TABLE_SIZE];
+        private final long[] positions = new long[TABLE_SIZE];
+        private final int[] stamps = new int[TABLE_SIZE];
+        private int stamp = 0;
+
+        private final int[][] rows = new int[2][64];
+
+        void index(String pattern) {
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+            for (int pc = 0, pl = pattern.length(); pc < pl; pc++) {
+                final char c = pattern.charAt(pc);
+                int slot = c & (TABLE_SIZE - 1);
+                while (stamps[slot] == stamp && characters[slot] != c) {
+                    slot = (slot + 1) & (TABLE_SIZE - 1);
+                }
+                if (stamps[slot] != stamp) {
+                    stamps[slot] = stamp;
+                    characters[slot] = c;
+                    positions[slot] = 0L;
+                }
+                positions[slot] |= 1L << pc;
+            }
         }
-        if (c < mi) {
-            mi = c;
+
+        long positions(char c) {
+            int slot = c & (TABLE_SIZE - 1);
+            while (stamps[slot] == stamp) {
+                if (characters[slot] == c) {
+                    return positions[slot];
+                }
+                slot = (slot + 1) & (TABLE_SIZE - 1);
+            }
+            return 0L;
         }
-        return mi;
-    }
 
+        int[] row(int index, int length) {
+            if (rows[index].length < length) {
+                rows[index] = new int[Math.max(length, rows[index].length * 2)];
+            }
+            return rows[index];
+        }
+    }
 }
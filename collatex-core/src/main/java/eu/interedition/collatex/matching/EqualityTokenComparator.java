@@ -22,15 +22,18 @@ package eu.interedition.collatex.matching;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.simple.SimpleToken;
 
-import java.util.Comparator;
-
-public class EqualityTokenComparator implements Comparator<Token> {
+public class EqualityTokenComparator implements KeyedTokenComparator {
 
     @Override
     public int compare(Token base, Token witness) {
         final String baseContent = ((SimpleToken) base).getNormalized();
         final String witnessContent = ((SimpleToken) witness).getNormalized();
-        return baseContent.compareTo(witnessContent);
+        // contents interned in a shared vocabulary are identical
+        return (baseContent == witnessContent ? 0 : baseContent.compareTo(witnessContent));
     }
 
+    @Override
+    public Object keyOf(Token token) {
+        return ((SimpleToken) token).getNormalized();
+    }
 }
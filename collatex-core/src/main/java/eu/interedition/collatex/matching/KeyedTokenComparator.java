@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.matching;
+
+import eu.interedition.collatex.Token;
+
+import java.util.Comparator;
+
+/**
+ * A token comparator which considers tokens equal if and only if they have {@link Object#equals(Object) equal} keys.
+ * <p>
+ * Matching algorithms can group tokens by their keys in hash tables instead of comparing them pairwise.
+ */
+public interface KeyedTokenComparator extends Comparator<Token> {
+
+    Object keyOf(Token token);
+}
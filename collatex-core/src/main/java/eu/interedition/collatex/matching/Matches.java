@@ -36,6 +36,9 @@ public class Matches {
     public final Set<Token> uniqueInWitness;
 
     public static Matches between(final Iterable<VariantGraph.Vertex> vertices, final Iterable<Token> witnessTokens, Comparator<Token> comparator) {
+        if (comparator instanceof KeyedTokenComparator) {
+            return between(vertices, witnessTokens, ((KeyedTokenComparator) comparator)::keyOf);
+        }
 
         final Map<Token, List<VariantGraph.Vertex>> allMatches = new HashMap<>();
 
@@ -77,6 +80,62 @@ public class Matches {
         return new Matches(allMatches, unmatchedInWitness, ambiguousInWitness, uniqueInWitness);
     }
 
+    /**
+     * Matches tokens with equal keys, grouping vertices by the key of their first token in a hash table.
+     * <p>
+     * The result equals the one of {@link #between(Iterable, Iterable, Comparator)} given a comparator consistent with
+     * the key function, but is computed in time linear to the number of vertices and witness tokens: all witness tokens
+     * of one key match the same vertices, so whether a token is ambiguous or unique only depends on the number of
+     * vertices and witness tokens sharing its key.
+     */
+    public static Matches between(final Iterable<VariantGraph.Vertex> vertices, final Iterable<Token> witnessTokens, Function<Token, ?> tokenKey) {
+        final Map<Object, KeyGroup> groups = new HashMap<>();
+        for (VariantGraph.Vertex vertex : vertices) {
+            final Iterator<Token> vertexTokens = vertex.tokens().iterator();
+            if (vertexTokens.hasNext()) {
+                groups.computeIfAbsent(tokenKey.apply(vertexTokens.next()), key -> new KeyGroup()).vertices.add(vertex);
+            }
+        }
+
+        final List<Token> tokens = new ArrayList<>();
+        final List<KeyGroup> tokenGroups = new ArrayList<>();
+        for (Token token : witnessTokens) {
+            final KeyGroup group = groups.get(tokenKey.apply(token));
+            if (group != null) {
+                group.witnessTokens++;
+            }
+            tokens.add(token);
+            tokenGroups.add(group);
+        }
+
+        final Map<Token, List<VariantGraph.Vertex>> allMatches = new HashMap<>();
+        final Set<Token> unmatchedInWitness = new LinkedHashSet<>();
+        final Set<Token> ambiguousInWitness = new LinkedHashSet<>();
+        final Set<Token> uniqueInWitness = new LinkedHashSet<>();
+        for (int tc = 0; tc < tokens.size(); tc++) {
+            final Token token = tokens.get(tc);
+            final KeyGroup group = tokenGroups.get(tc);
+            if (group == null) {
+                unmatchedInWitness.add(token);
+                continue;
+            }
+            allMatches.put(token, group.matches);
+            if (group.vertices.size() > 1 || group.witnessTokens > 1) {
+                ambiguousInWitness.add(token);
+            } else {
+                uniqueInWitness.add(token);
+            }
+        }
+
+        return new Matches(allMatches, unmatchedInWitness, ambiguousInWitness, uniqueInWitness);
+    }
+
+    private static class KeyGroup {
+        final List<VariantGraph.Vertex> vertices = new ArrayList<>();
+        final List<VariantGraph.Vertex> matches = Collections.unmodifiableList(vertices);
+        int witnessTokens = 0;
+    }
+
     private Matches(Map<Token, List<VariantGraph.Vertex>> allMatches, Set<Token> unmatchedInWitness, Set<Token> ambiguousInWitness, Set<Token> uniqueInWitness) {
         this.allMatches = Collections.unmodifiableMap(allMatches);
         this.unmatchedInWitness = Collections.unmodifiableSet(unmatchedInWitness);
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.matching;
+
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.simple.SimpleToken;
+
+import java.util.*;
+
+/**
+ * Index of a token vocabulary for finding near matches, i.e. words within a given edit distance.
+ * <p>
+ * Following SymSpell, every word is indexed under all strings derived from it by deleting up to <code>maxDistance</code>
+ * characters. Two words within the maximum distance share at least one such deletion, so that candidates are found
+ * by looking up the deletions of a query, without comparing it to the whole vocabulary. The {@link #comparator()
+ * comparator} of the index matches tokens exactly like {@link EditDistanceTokenComparator}, but only computes edit
+ * distances for such candidates.
+ * <p>
+ * As near matching is not transitive, the index also partitions the vocabulary into classes of near-matching words:
+ * words are assigned in order of descending frequency to the first class whose leading word they nearly match, or
+ * lead a new class. The resulting class ids are stable for a given vocabulary and can serve as an alphabet for
+ * aligners, e.g. via the {@link #classComparator() consistent comparator} derived from them. Note that two words of
+ * different classes may still be near matches.
+ */
+public class NearMatchIndex {
+
+    /**
+     * The maximum distance, up to which words are indexed; the number of deletions per word grows exponentially with
+     * the distance, so that larger distances have to be matched pairwise, e.g. via {@link EditDistanceTokenComparator}.
+     */
+    public static final int MAX_DISTANCE = 2;
+
+    private final int maxDistance;
+    private final String[] words;
+    private final Map<String, Integer> wordIds = new HashMap<>();
+    private final Map<String, List<Integer>> deletions = new HashMap<>();
+
+    private final int[][] nearMatches;
+
+    private final int[] classes;
+    private final List<Integer> classLeaders = new ArrayList<>();
+
+    /**
+     * Indexes the normalized content of the given witnesses' tokens.
+     */
+    public static NearMatchIndex of(Iterable<? extends Iterable<Token>> witnesses, int maxDistance) {
+        final Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (Iterable<Token> witness : witnesses) {
+            for (Token token : witness) {
+                frequencies.merge(normalized(token), 1, Integer::sum);
+            }
+        }
+        final List<String> vocabulary = new ArrayList<>(frequencies.keySet());
+        vocabulary.sort(Comparator.comparing(frequencies::get, Comparator.reverseOrder()));
+        return new NearMatchIndex(vocabulary, maxDistance);
+    }
+
+    /**
+     * @param vocabulary  distinct words, the most representative ones of each class of near matches first
+     * @param maxDistance the maximum edit distance of near matches, at most {@link #MAX_DISTANCE}
+     * @throws IllegalArgumentException if the maximum distance exceeds {@link #MAX_DISTANCE}
+     */
+    public NearMatchIndex(List<String> vocabulary, int maxDistance) {
+        if (maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException(String.format("Maximum distance %d exceeds %d", maxDistance, MAX_DISTANCE));
+        }
+        this.maxDistance = maxDistance;
+        this.words = vocabulary.toArray(new String[vocabulary.size()]);
+        this.nearMatches = new int[words.length][];
+        this.classes = new int[words.length];
+
+        for (int wc = 0; wc < words.length; wc++) {
+            wordIds.put(words[wc], wc);
+            for (String deletion : deletions(words[wc])) {
+                deletions.computeIfAbsent(deletion, d -> new ArrayList<>()).add(wc);
+            }
+        }
+
+        for (int wc = 0; wc < words.length; wc++) {
+            final int leaderClass = leaderClass(words[wc]);
+            if (leaderClass < 0) {
+                classes[wc] = classLeaders.size();
+                classLeaders.add(wc);
+            } else {
+                classes[wc] = leaderClass;
+            }
+        }
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    public int getClassCount() {
+        return classLeaders.size();
+    }
+
+    /**
+     * @return the ids of all indexed words within the maximum distance of the given one, in ascending order
+     */
+    public int[] nearMatches(String word) {
+        final SortedSet<Integer> candidates = new TreeSet<>();
+        for (String deletion : deletions(word)) {
+            candidates.addAll(deletions.getOrDefault(deletion, Collections.emptyList()));
+        }
+        return candidates.stream()
+                .filter(candidate -> EditDistance.compute(word, words[candidate], maxDistance) <= maxDistance)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    public String word(int id) {
+        return words[id];
+    }
+
+    /**
+     * @return the class of an indexed word, or the first class whose leading word the given one nearly matches;
+     * <code>-1</code> if there is none
+     */
+    public int classOf(String word) {
+        final Integer id = wordIds.get(word);
+        return (id == null ? leaderClass(word) : classes[id]);
+    }
+
+    public int classOf(Token token) {
+        return classOf(normalized(token));
+    }
+
+    /**
+     * @return a comparator considering tokens equal if their normalized contents are within the maximum edit distance,
+     * ordering others by their normalized contents
+     */
+    public Comparator<Token> comparator() {
+        return (a, b) -> {
+            final String aContent = normalized(a);
+            final String bContent = normalized(b);
+            if (aContent.equals(bContent)) {
+                return 0;
+            }
+            final Integer aId = wordIds.get(aContent);
+            final Integer bId = wordIds.get(bContent);
+            final boolean nearMatch = (aId != null && bId != null
+                ? Arrays.binarySearch(nearMatches(aId), bId) >= 0
+                : EditDistance.compute(aContent, bContent, maxDistance) <= maxDistance);
+            return (nearMatch ? 0 : aContent.compareTo(bContent));
+        };
+    }
+
+    /**
+     * @return the ids of the near matches of an indexed word, looked up once
+     */
+    private int[] nearMatches(int id) {
+        int[] wordNearMatches = nearMatches[id];
+        if (wordNearMatches == null) {
+            nearMatches[id] = wordNearMatches = nearMatches(words[id]);
+        }
+        return wordNearMatches;
+    }
+
+    /**
+     * @return a comparator considering tokens of the same class equal; unclassified tokens are ordered after classified
+     * ones and compared by their normalized content
+     */
+    public KeyedTokenComparator classComparator() {
+        return new KeyedTokenComparator() {
+            @Override
+            public Object keyOf(Token token) {
+                final String content = normalized(token);
+                final int tokenClass = classOf(content);
+                return (tokenClass < 0 ? content : tokenClass);
+            }
+
+            @Override
+            public int compare(Token a, Token b) {
+                final String aContent = normalized(a);
+                final String bContent = normalized(b);
+                final int aClass = classOf(aContent);
+                final int bClass = classOf(bContent);
+                if (aClass >= 0 && bClass >= 0) {
+                    return Integer.compare(aClass, bClass);
+                } else if (aClass >= 0 || bClass >= 0) {
+                    return (aClass >= 0 ? -1 : 1);
+                }
+                return aContent.compareTo(bContent);
+            }
+        };
+    }
+
+    private int leaderClass(String word) {
+        for (int nearMatch : nearMatches(word)) {
+            final int nearMatchClass = classes[nearMatch];
+            if (nearMatchClass < classLeaders.size() && classLeaders.get(nearMatchClass) == nearMatch) {
+                return nearMatchClass;
+            }
+        }
+        return -1;
+    }
+
+    private Set<String> deletions(String word) {
+        final Set<String> deletions = new HashSet<>();
+        deletions.add(word);
+        Collection<String> previous = Collections.singleton(word);
+        for (int distance = 1; distance <= maxDistance; distance++) {
+            final List<String> next = new ArrayList<>();
+            for (String str : previous) {
+                for (int cc = 0, length = str.length(); cc < length; cc++) {
+                    final String deletion = str.substring(0, cc) + str.substring(cc + 1);
+                    if (deletions.add(deletion)) {
+                        next.add(deletion);
+                    }
+                }
+            }
+            previous = next;
+        }
+        return deletions;
+    }
+
+    private static String normalized(Token token) {
+        return ((SimpleToken) token).getNormalized();
+    }
+}
@@ -22,15 +22,17 @@ package eu.interedition.collatex.matching;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.simple.SimpleToken;
 
-import java.util.Comparator;
-
-public class StrictEqualityTokenComparator implements Comparator<Token> {
+public class StrictEqualityTokenComparator implements KeyedTokenComparator {
 
     @Override
     public int compare(Token base, Token witness) {
         final String baseContent = ((SimpleToken) base).getContent();
         final String witnessContent = ((SimpleToken) witness).getContent();
-        return baseContent.compareTo(witnessContent);
+        return (baseContent == witnessContent ? 0 : baseContent.compareTo(witnessContent));
     }
 
+    @Override
+    public Object keyOf(Token token) {
+        return ((SimpleToken) token).getContent();
+    }
 }
@@ -24,6 +24,7 @@
  *
  * @see eu.interedition.collatex.matching.StrictEqualityTokenComparator
  * @see eu.interedition.collatex.matching.EditDistanceTokenComparator
+ * @see eu.interedition.collatex.matching.NearMatchIndex
  *
  */
 package eu.interedition.collatex.matching;
\ No newline at end of file
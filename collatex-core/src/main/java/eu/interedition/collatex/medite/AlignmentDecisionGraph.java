@@ -19,15 +19,11 @@
 
 package eu.interedition.collatex.medite;
 
-import eu.interedition.collatex.util.VertexMatch;
+import eu.interedition.collatex.util.Phrase;
 
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.PriorityQueue;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.function.Function;
@@ -37,22 +33,25 @@ import java.util.function.Function;
  */
 public class AlignmentDecisionGraph {
 
-    private final List<SortedSet<VertexMatch.WithTokenIndex>> matches;
-    private final Function<SortedSet<VertexMatch.WithTokenIndex>, Integer> matchEvaluator;
-    private final PriorityQueue<Node> bestPaths;
-    private final Map<Node, Integer> minCosts;
+    private final int[] values;
+    private final int[] heuristicCosts;
+    private final IndexedHeap bestPaths;
+    private final int[] minCosts;
 
-    AlignmentDecisionGraph(List<SortedSet<VertexMatch.WithTokenIndex>> matches, Function<SortedSet<VertexMatch.WithTokenIndex>, Integer> matchEvaluator) {
-        this.matches = matches;
-        this.matchEvaluator = matchEvaluator;
-        this.bestPaths = new PriorityQueue<>(matches.size(), Comparator.comparingInt(n -> n.cost));
-        this.minCosts = new HashMap<>();
+    AlignmentDecisionGraph(List<Phrase> matches, Function<Phrase, Integer> matchEvaluator) {
+        this.values = new int[matches.size()];
+        for (int mc = 0; mc < values.length; mc++) {
+            values[mc] = matchEvaluator.apply(matches.get(mc));
+        }
+        this.heuristicCosts = heuristicCosts(matches, values);
+        this.bestPaths = new IndexedHeap(2 * (matches.size() + 1));
+        this.minCosts = new int[2 * (matches.size() + 1)];
     }
 
-    static SortedSet<SortedSet<VertexMatch.WithTokenIndex>> filter(SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches, Function<SortedSet<VertexMatch.WithTokenIndex>, Integer> matchEvaluator) {
-        final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> alignments = new TreeSet<>(VertexMatch.<VertexMatch.WithTokenIndex>setComparator());
+    static SortedSet<Phrase> filter(SortedSet<Phrase> matches, Function<Phrase, Integer> matchEvaluator) {
+        final SortedSet<Phrase> alignments = new TreeSet<>();
 
-        final List<SortedSet<VertexMatch.WithTokenIndex>> matchList = new ArrayList<>(matches);
+        final List<Phrase> matchList = new ArrayList<>(matches);
         Node optimal = new AlignmentDecisionGraph(matchList, matchEvaluator).findBestPath();
         while (optimal.matchIndex >= 0) {
             if (optimal.aligned) {
@@ -64,89 +63,239 @@ public class AlignmentDecisionGraph {
     }
 
     private Node findBestPath() {
-        bestPaths.add(new Node(-1, false));
+        bestPaths.add(new Node(-1, false, null, 0));
         while (!bestPaths.isEmpty()) {
             final Node current = bestPaths.remove();
-            if (current.matchIndex == matches.size() - 1) {
+            if (current.matchIndex == values.length - 1) {
                 return current;
             }
-            for (Node successor : current.successors()) {
-                final int tentativeCost = cost(current) + cost(successor);
-                if (bestPaths.contains(successor) && tentativeCost >= minCosts.get(successor)) {
+            for (Node successor : current.successors(values)) {
+                final int tentativeCost = successor.pathCost;
+                final int index = successor.index();
+                if (bestPaths.contains(index) && tentativeCost >= minCosts[index]) {
                     continue;
                 }
-                minCosts.put(successor, tentativeCost);
+                minCosts[index] = tentativeCost;
 
-                successor.cost = tentativeCost + heuristicCost(successor);
-                successor.previous = current;
-                bestPaths.remove(successor);
+                successor.cost = tentativeCost + heuristicCosts[successor.matchIndex];
                 bestPaths.add(successor);
             }
         }
         throw new IllegalStateException("No optimal alignment found");
     }
 
-    private int heuristicCost(Node path) {
-        final SortedSet<VertexMatch.WithTokenIndex> evaluated = matches.get(path.matchIndex);
-        final VertexMatch.WithTokenIndex lastMatch = evaluated.last();
+    /**
+     * The heuristic cost of a path ending in a given match is the value of all following matches,
+     * which cannot be aligned anymore, as their first matched components are not to the right of
+     * the given match's last components.
+     * <p>
+     * Matches are ordered by the vertex rank of their first component, so the following matches, whose first vertex
+     * rank is greater than the given match's last one, form a suffix of the match list. The value of those in this suffix,
+     * whose first token is greater than the given match's last token as well, is subtracted from the suffix sum of
+     * all following matches. Queries are answered offline from the end of the list, keeping the values of matches
+     * in the suffix in a binary indexed tree over their first token index.
+     */
+    private static int[] heuristicCosts(List<Phrase> matches, int[] values) {
+        final int matchCount = matches.size();
+        final int[] firstRanks = new int[matchCount];
+        final int[] firstTokens = new int[matchCount];
+        final int[] lastRanks = new int[matchCount];
+        final int[] lastTokens = new int[matchCount];
+        int maxToken = 0;
+        for (int mc = 0; mc < matchCount; mc++) {
+            final Phrase match = matches.get(mc);
+            firstRanks[mc] = match.rank;
+            firstTokens[mc] = match.token;
+            lastRanks[mc] = match.lastRank();
+            lastTokens[mc] = match.lastToken();
+            maxToken = Math.max(maxToken, lastTokens[mc]);
+        }
 
-        int cost = 0;
-        for (SortedSet<VertexMatch.WithTokenIndex> following : matches.subList(path.matchIndex + 1, matches.size())) {
-            final VertexMatch.WithTokenIndex followingFirstMatch = following.first();
-            if (lastMatch.vertexRank < followingFirstMatch.vertexRank && lastMatch.token < followingFirstMatch.token) {
-                // we still can align this following match as the matched components are to the right of this path's last match
-                continue;
-            }
-            // we cannot align this following match, so add it to the cost
-            cost += value(following);
+        final long[] followingValues = new long[matchCount + 1];
+        for (int mc = matchCount - 1; mc >= 0; mc--) {
+            followingValues[mc] = followingValues[mc + 1] + values[mc];
         }
-        return cost;
-    }
 
-    private int cost(Node current) {
-        int cost = 0;
-        while (current != null && current.matchIndex >= 0) {
-            if (!current.aligned) {
-                cost += value(matches.get(current.matchIndex));
+        // order the matches by the start of the suffix of following matches to their right in terms of vertex ranks
+        final Integer[] queries = new Integer[matchCount];
+        final int[] queryStarts = new int[matchCount];
+        for (int mc = 0; mc < matchCount; mc++) {
+            int low = mc + 1;
+            int high = matchCount;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (firstRanks[mid] > lastRanks[mc]) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
             }
-            current = current.previous;
+            queries[mc] = mc;
+            queryStarts[mc] = low;
         }
-        return cost;
-    }
+        Arrays.sort(queries, (q1, q2) -> queryStarts[q2] - queryStarts[q1]);
 
-    private int value(SortedSet<VertexMatch.WithTokenIndex> match) {
-        return matchEvaluator.apply(match);
+        final ValueTree alignableValues = new ValueTree(maxToken + 1);
+        final int[] heuristicCosts = new int[matchCount];
+        int added = matchCount;
+        for (int query : queries) {
+            while (added > queryStarts[query]) {
+                added--;
+                alignableValues.add(firstTokens[added], values[added]);
+            }
+            final long alignable = alignableValues.sum() - alignableValues.prefixSum(lastTokens[query] + 1);
+            heuristicCosts[query] = (int) (followingValues[query + 1] - alignable);
+        }
+        return heuristicCosts;
     }
 
     static class Node {
         final int matchIndex;
         final boolean aligned;
-        Node previous;
+        final Node previous;
+        final int pathCost;
         int cost;
 
-        Node(int matchIndex, boolean aligned) {
+        Node(int matchIndex, boolean aligned, Node previous, int pathCost) {
             this.matchIndex = matchIndex;
             this.aligned = aligned;
+            this.previous = previous;
+            this.pathCost = pathCost;
         }
 
-        Node[] successors() {
+        Node[] successors(int[] values) {
             final int nextIndex = matchIndex + 1;
-            return new Node[]{new Node(nextIndex, true), new Node(nextIndex, false)};
+            return new Node[]{new Node(nextIndex, true, this, pathCost), new Node(nextIndex, false, this, pathCost + values[nextIndex])};
+        }
+
+        int index() {
+            return 2 * (matchIndex + 1) + (aligned ? 1 : 0);
         }
+    }
+
+    /**
+     * Binary min-heap of nodes, indexed by {@link Node#index() their position in the decision graph}, so
+     * membership tests and replacing a queued node are logarithmic.
+     * <p>
+     * Nodes of equal cost are ordered depth-first, preferring aligned over non-aligned decisions.
+     */
+    static class IndexedHeap {
+        private final Node[] heap;
+        private final int[] positions;
+        private int size;
 
-        @Override
-        public boolean equals(Object obj) {
-            if (obj != null && obj instanceof Node) {
-                final Node other = (Node) obj;
-                return (matchIndex == other.matchIndex) && (aligned == other.aligned);
+        IndexedHeap(int capacity) {
+            this.heap = new Node[capacity];
+            this.positions = new int[capacity];
+            Arrays.fill(positions, -1);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(int index) {
+            return positions[index] >= 0;
+        }
+
+        void add(Node node) {
+            final int index = node.index();
+            int position = positions[index];
+            if (position < 0) {
+                position = size++;
             }
-            return super.equals(obj);
+            heap[position] = node;
+            positions[index] = position;
+            siftDown(siftUp(position));
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(matchIndex, aligned);
+        Node remove() {
+            final Node first = heap[0];
+            positions[first.index()] = -1;
+            final Node last = heap[--size];
+            heap[size] = null;
+            if (size > 0) {
+                heap[0] = last;
+                positions[last.index()] = 0;
+                siftDown(0);
+            }
+            return first;
+        }
+
+        private int siftUp(int position) {
+            final Node node = heap[position];
+            while (position > 0) {
+                final int parent = (position - 1) >>> 1;
+                if (!before(node, heap[parent])) {
+                    break;
+                }
+                move(heap[parent], position);
+                position = parent;
+            }
+            move(node, position);
+            return position;
+        }
+
+        private void siftDown(int position) {
+            final Node node = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!before(heap[child], node)) {
+                    break;
+                }
+                move(heap[child], position);
+                position = child;
+            }
+            move(node, position);
+        }
+
+        private void move(Node node, int position) {
+            heap[position] = node;
+            positions[node.index()] = position;
+        }
+
+        private static boolean before(Node a, Node b) {
+            if (a.cost != b.cost) {
+                return a.cost < b.cost;
+            }
+            return a.index() > b.index();
         }
     }
 
+    /**
+     * Binary indexed tree, summing up match values by token index.
+     */
+    static class ValueTree {
+        private final long[] tree;
+        private long sum;
+
+        ValueTree(int size) {
+            this.tree = new long[size + 1];
+        }
+
+        void add(int position, int value) {
+            for (int i = position + 1; i < tree.length; i += i & -i) {
+                tree[i] += value;
+            }
+            sum += value;
+        }
+
+        long sum() {
+            return sum;
+        }
+
+        long prefixSum(int end) {
+            long sum = 0;
+            for (int i = Math.min(end, tree.length - 1); i > 0; i -= i & -i) {
+                sum += tree[i];
+            }
+            return sum;
+        }
+    }
 }
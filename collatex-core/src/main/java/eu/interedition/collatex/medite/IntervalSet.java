@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.medite;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A set of disjoint, closed integer intervals, supporting overlap queries and insertions in logarithmic time.
+ */
+class IntervalSet {
+
+    private final TreeMap<Integer, Integer> intervals = new TreeMap<>();
+
+    boolean overlaps(int start, int end) {
+        final Map.Entry<Integer, Integer> candidate = intervals.floorEntry(end);
+        return (candidate != null && candidate.getValue() >= start);
+    }
+
+    void add(int start, int end) {
+        for (Map.Entry<Integer, Integer> overlapping = intervals.floorEntry(end); overlapping != null && overlapping.getValue() >= start - 1; overlapping = intervals.floorEntry(end)) {
+            start = Math.min(start, overlapping.getKey());
+            end = Math.max(end, overlapping.getValue());
+            intervals.remove(overlapping.getKey());
+        }
+        intervals.put(start, end);
+    }
+}
@@ -21,7 +21,7 @@ package eu.interedition.collatex.medite;
 
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
-import eu.interedition.collatex.util.VertexMatch;
+import eu.interedition.collatex.util.Phrase;
 
 import java.util.*;
 import java.util.function.Function;
@@ -29,15 +29,37 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
+ * Candidate phrase matches between the ranked vertices of a variant graph and a witness.
+ * <p>
+ * Every candidate is a run of consecutive ranks matching a run of consecutive tokens, stored as a primitive
+ * (rank, token, length) triple together with the match thread leading to it, from which the matched vertices can be
+ * read. Candidates are kept in maximal unique match ordering; ranks and tokens covered by aligned phrases are held in
+ * interval sets, so candidates overlapping them are dropped in logarithmic time.
+ *
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
-public class Matches extends ArrayList<SortedSet<VertexMatch.WithTokenIndex>> {
+public class Matches {
+
+    private final MatchThreadElement[] threads;
+    private final int[] ranks;
+    private final int[] tokens;
+    private final int[] lengths;
+    private final int[] order;
+    private int size;
 
-    public Matches(int initialCapacity) {
-        super(initialCapacity);
+    private final IntervalSet alignedRanks = new IntervalSet();
+    private final IntervalSet alignedTokens = new IntervalSet();
+
+    private Matches(MatchThreadElement[] threads, int[] ranks, int[] tokens, int[] lengths, int[] order) {
+        this.threads = threads;
+        this.ranks = ranks;
+        this.tokens = tokens;
+        this.lengths = lengths;
+        this.order = order;
+        this.size = order.length;
     }
 
-    public static Matches between(VariantGraph.Vertex[][] vertices, SuffixTree<Token> suffixTree, Function<SortedSet<VertexMatch.WithTokenIndex>, Integer> matchEvaluator) {
+    public static Matches between(VariantGraph.Vertex[][] vertices, SuffixTree<Token> suffixTree, Function<Phrase, Integer> matchEvaluator) {
 
         final Map<Integer, List<MatchThreadElement>> matchThreads = new HashMap<>();
         for (int rank = 0; rank < vertices.length; rank++) {
@@ -57,101 +79,121 @@ public class Matches extends ArrayList<SortedSet<VertexMatch.WithTokenIndex>> {
             }
         }
 
-        final Matches matches = new Matches(matchThreads.size());
-        matchThreads.values().stream().flatMap(List::stream).forEach(matchThreadElement -> {
-            final List<SortedSet<VertexMatch.WithTokenIndex>> threadPhrases = new ArrayList<>();
-            boolean firstElement = true;
-            for (MatchThreadElement threadElement : matchThreadElement.thread()) {
-                final SuffixTree<Token>.EquivalenceClass equivalenceClass = threadElement.cursor.matchedClass();
-                for (int mc = 0; mc < equivalenceClass.length; mc++) {
-                    final int tokenCandidate = equivalenceClass.members[mc];
-                    if (firstElement) {
-                        final SortedSet<VertexMatch.WithTokenIndex> phrase = new TreeSet<>();
-                        phrase.add(new VertexMatch.WithTokenIndex(threadElement.vertex, threadElement.vertexRank, tokenCandidate));
-                        threadPhrases.add(phrase);
-                    } else {
-                        for (SortedSet<VertexMatch.WithTokenIndex> phrase : threadPhrases) {
-                            if ((phrase.last().token + 1) == tokenCandidate) {
-                                phrase.add(new VertexMatch.WithTokenIndex(threadElement.vertex, threadElement.vertexRank, tokenCandidate));
-                            }
-                        }
-                    }
-                }
-                firstElement = false;
+        // every thread element yields the phrases spanning the whole thread; shorter ones are yielded by its predecessors
+        final int candidateCount = matchThreads.values().stream().flatMap(List::stream).mapToInt(e -> e.startTokens.length).sum();
+        final MatchThreadElement[] threads = new MatchThreadElement[candidateCount];
+        final int[] ranks = new int[candidateCount];
+        final int[] tokens = new int[candidateCount];
+        final int[] lengths = new int[candidateCount];
+        final int[] values = new int[candidateCount];
+
+        int candidate = 0;
+        for (MatchThreadElement threadElement : (Iterable<MatchThreadElement>) matchThreads.values().stream().flatMap(List::stream)::iterator) {
+            final int length = threadElement.cursor.depth;
+            for (int token : threadElement.startTokens) {
+                threads[candidate] = threadElement;
+                ranks[candidate] = threadElement.vertexRank - length + 1;
+                tokens[candidate] = token;
+                lengths[candidate] = length;
+                candidate++;
             }
-            matches.addAll(threadPhrases);
-        });
-        matches.sort(maximalUniqueMatchOrdering(matchEvaluator));
+        }
+
+        final Matches matches = new Matches(threads, ranks, tokens, lengths, new int[candidateCount]);
+        for (int c = 0; c < candidateCount; c++) {
+            values[c] = matchEvaluator.apply(matches.phrase(c));
+        }
+
+        final Integer[] order = new Integer[candidateCount];
+        for (int c = 0; c < candidateCount; c++) {
+            order[c] = c;
+        }
+        Arrays.sort(order, maximalUniqueMatchOrdering(values, ranks, tokens));
+        for (int c = 0; c < candidateCount; c++) {
+            matches.order[c] = order[c];
+        }
 
         return matches;
     }
 
-    private static Comparator<SortedSet<VertexMatch.WithTokenIndex>> maximalUniqueMatchOrdering(final Function<SortedSet<VertexMatch.WithTokenIndex>, Integer> matchEvaluator) {
+    private static Comparator<Integer> maximalUniqueMatchOrdering(final int[] values, final int[] ranks, final int[] tokens) {
         return (o1, o2) -> {
             // 1. reverse ordering by match value
-            int result = matchEvaluator.apply(o2) - matchEvaluator.apply(o1);
+            int result = values[o2] - values[o1];
             if (result != 0) {
                 return result;
             }
 
-            final VertexMatch.WithTokenIndex firstMatch1 = o1.first();
-            final VertexMatch.WithTokenIndex firstMatch2 = o2.first();
-
             // 2. ordering by match distance
-            result = (Math.abs(firstMatch1.token - firstMatch1.vertexRank) - Math.abs(firstMatch2.token - firstMatch2.vertexRank));
+            result = (Math.abs(tokens[o1] - ranks[o1]) - Math.abs(tokens[o2] - ranks[o2]));
             if (result != 0) {
                 return result;
             }
 
 
             // 3. ordering by first vertex ranking
-            result = firstMatch1.vertexRank - firstMatch2.vertexRank;
+            result = ranks[o1] - ranks[o2];
             if (result != 0) {
                 return result;
             }
 
             // 3. ordering by first token index
-            return firstMatch1.token - firstMatch2.token;
+            return tokens[o1] - tokens[o2];
 
         };
     }
 
-    public SortedSet<SortedSet<VertexMatch.WithTokenIndex>> findMaximalUniqueMatches() {
-        final List<SortedSet<VertexMatch.WithTokenIndex>> allMatches = new ArrayList<>(this);
-        final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> maximalUniqueMatches = new TreeSet<>(VertexMatch.<VertexMatch.WithTokenIndex>setComparator());
+    /**
+     * Selects maximal unique matches from the remaining candidates in a single pass over them: in maximal unique match
+     * ordering, every candidate not overlapping with a previously selected one in terms of ranks or tokens is selected.
+     * <p>
+     * Candidates overlapping with {@link #align(Phrase) aligned phrases} are removed on the way.
+     */
+    public SortedSet<Phrase> findMaximalUniqueMatches() {
+        final SortedSet<Phrase> maximalUniqueMatches = new TreeSet<>();
+        final IntervalSet rankFilter = new IntervalSet();
+        final IntervalSet tokenFilter = new IntervalSet();
 
-        while (true) {
-            SortedSet<VertexMatch.WithTokenIndex> nextMum = null;
-            SortedSet<VertexMatch.WithTokenIndex> candidate = null;
-            for (SortedSet<VertexMatch.WithTokenIndex> successor : allMatches) {
-                if (candidate == null) {
-                    continue;
-                }
-                if (candidate.size() > successor.size() || candidate.first().token == successor.first().token) {
-                    nextMum = candidate;
-                    break;
-                }
-                candidate = successor;
+        int remaining = 0;
+        for (int oc = 0; oc < size; oc++) {
+            final int candidate = order[oc];
+            final int lastRank = ranks[candidate] + lengths[candidate] - 1;
+            final int lastToken = tokens[candidate] + lengths[candidate] - 1;
+            if (alignedRanks.overlaps(ranks[candidate], lastRank) || alignedTokens.overlaps(tokens[candidate], lastToken)) {
+                continue;
             }
-            if (nextMum == null) {
-                nextMum = allMatches.stream().findFirst().orElse(null);
-            }
-            if (nextMum == null) {
-                break;
+            order[remaining++] = candidate;
+
+            if (rankFilter.overlaps(ranks[candidate], lastRank) || tokenFilter.overlaps(tokens[candidate], lastToken)) {
+                continue;
             }
-            if (!maximalUniqueMatches.add(nextMum)) {
+            if (!maximalUniqueMatches.add(phrase(candidate))) {
                 throw new IllegalStateException("Duplicate MUM");
             }
+            rankFilter.add(ranks[candidate], lastRank);
+            tokenFilter.add(tokens[candidate], lastToken);
+        }
+        size = remaining;
 
-            final BitSet rankFilter = new BitSet();
-            final BitSet tokenFilter = new BitSet();
+        return maximalUniqueMatches;
+    }
 
-            rankFilter.set(nextMum.first().vertexRank, nextMum.last().vertexRank + 1);
-            tokenFilter.set(nextMum.first().token, nextMum.last().token + 1);
+    /**
+     * Marks the ranks and tokens of the given phrase as aligned, removing all candidates overlapping with it.
+     */
+    public void align(Phrase phrase) {
+        alignedRanks.add(phrase.rank, phrase.lastRank());
+        alignedTokens.add(phrase.token, phrase.lastToken());
+    }
 
-            allMatches.removeIf(VertexMatch.filter(rankFilter, tokenFilter));
+    private Phrase phrase(int candidate) {
+        final VariantGraph.Vertex[] phraseVertices = new VariantGraph.Vertex[lengths[candidate]];
+        MatchThreadElement threadElement = threads[candidate];
+        for (int offset = phraseVertices.length - 1; offset >= 0; offset--) {
+            phraseVertices[offset] = threadElement.vertex;
+            threadElement = threadElement.previous;
         }
-        return maximalUniqueMatches;
+        return new Phrase(phraseVertices, 0, ranks[candidate], tokens[candidate], phraseVertices.length);
     }
 
     /**
@@ -164,15 +206,21 @@ public class Matches extends ArrayList<SortedSet<VertexMatch.WithTokenIndex>> {
         final int vertexRank;
         final SuffixTree<Token>.Cursor cursor;
 
+        /**
+         * Start tokens of the phrases matching the whole thread up to this element, in ascending order.
+         */
+        final int[] startTokens;
+
         MatchThreadElement(SuffixTree<Token> suffixTree) {
-            this(null, null, -1, suffixTree.cursor());
+            this(null, null, -1, suffixTree.cursor(), new int[0]);
         }
 
-        MatchThreadElement(MatchThreadElement previous, VariantGraph.Vertex vertex, int vertexRank, SuffixTree<Token>.Cursor cursor) {
+        MatchThreadElement(MatchThreadElement previous, VariantGraph.Vertex vertex, int vertexRank, SuffixTree<Token>.Cursor cursor, int[] startTokens) {
             this.previous = previous;
             this.vertex = vertex;
             this.vertexRank = vertexRank;
             this.cursor = cursor;
+            this.startTokens = startTokens;
         }
 
         MatchThreadElement advance(VariantGraph.Vertex vertex, int vertexRank) {
@@ -180,20 +228,41 @@ public class Matches extends ArrayList<SortedSet<VertexMatch.WithTokenIndex>> {
             if (!tokens.isEmpty()) {
                 final SuffixTree<Token>.Cursor next = cursor.move(tokens.stream().findFirst().get());
                 if (next != null) {
-                    return new MatchThreadElement(this, vertex, vertexRank, next);
+                    final int[] continued = continuedTokens(next);
+                    if (continued.length > 0) {
+                        return new MatchThreadElement(this, vertex, vertexRank, next, continued);
+                    }
                 }
             }
             return null;
         }
 
-        List<MatchThreadElement> thread() {
-            final LinkedList<MatchThreadElement> thread = new LinkedList<>();
-            MatchThreadElement current = this;
-            while (current.vertex != null) {
-                thread.addFirst(current);
-                current = current.previous;
+        /**
+         * Merges the start tokens of this element with the positions matched by the next cursor, keeping those whose
+         * phrase continues with the next matched position.
+         */
+        private int[] continuedTokens(SuffixTree<Token>.Cursor next) {
+            final SuffixTree<Token>.EquivalenceClass matchedClass = next.matchedClass();
+            if (vertex == null) {
+                return Arrays.copyOf(matchedClass.members, matchedClass.length);
+            }
+            final int offset = next.depth - 1;
+            final int[] continued = new int[startTokens.length];
+            int length = 0;
+            for (int tc = 0, mc = 0; tc < startTokens.length && mc < matchedClass.length; ) {
+                final int token = startTokens[tc] + offset;
+                final int member = matchedClass.members[mc];
+                if (token == member) {
+                    continued[length++] = startTokens[tc];
+                    tc++;
+                    mc++;
+                } else if (token < member) {
+                    tc++;
+                } else {
+                    mc++;
+                }
             }
-            return thread;
+            return Arrays.copyOf(continued, length);
         }
 
         @Override
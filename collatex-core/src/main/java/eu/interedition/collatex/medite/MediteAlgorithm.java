@@ -22,16 +22,16 @@ package eu.interedition.collatex.medite;
 import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.util.Cancellation;
+import eu.interedition.collatex.util.Phrase;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 import eu.interedition.collatex.util.VertexMatch;
 
-import java.util.BitSet;
 import java.util.Comparator;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.function.Function;
-import java.util.stream.IntStream;
 
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
@@ -55,47 +55,40 @@ public class MediteAlgorithm extends CollationAlgorithm.Base {
         final MatchEvaluatorWrapper matchEvaluator = new MatchEvaluatorWrapper(this.matchEvaluator, tokens);
 
         final Matches matchCandidates = Matches.between(vertices, suffixTree, matchEvaluator);
-        final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches = new TreeSet<>(VertexMatch.<VertexMatch.WithTokenIndex>setComparator());
+        final SortedSet<Phrase> matches = new TreeSet<>();
 
+        final Cancellation cancellation = Cancellation.current();
         while (true) {
-            final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> maximalUniqueMatches = matchCandidates.findMaximalUniqueMatches();
+            cancellation.check();
+            final SortedSet<Phrase> maximalUniqueMatches = matchCandidates.findMaximalUniqueMatches();
             if (maximalUniqueMatches.isEmpty()) {
                 break;
             }
 
-            final BitSet rankFilter = new BitSet();
-            final BitSet tokenFilter = new BitSet();
-
-            for (SortedSet<VertexMatch.WithTokenIndex> phrase : AlignmentDecisionGraph.filter(maximalUniqueMatches, matchEvaluator)) {
-                final VertexMatch.WithTokenIndex firstMatch = phrase.first();
-                final VertexMatch.WithTokenIndex lastMatch = phrase.last();
-
+            for (Phrase phrase : AlignmentDecisionGraph.filter(maximalUniqueMatches, matchEvaluator)) {
                 matches.add(phrase);
-                IntStream.range(firstMatch.vertexRank, lastMatch.vertexRank + 1).forEach(rankFilter::set);
-                IntStream.range(firstMatch.token, lastMatch.token + 1).forEach(tokenFilter::set);
+                matchCandidates.align(phrase);
             }
-
-            matchCandidates.removeIf(VertexMatch.filter(rankFilter, tokenFilter));
         }
 
         merge(graph, vertices, tokens, matches);
     }
 
-    static class MatchEvaluatorWrapper implements Function<SortedSet<VertexMatch.WithTokenIndex>, Integer> {
+    static class MatchEvaluatorWrapper implements Function<Phrase, Integer> {
 
         private final Function<SortedSet<VertexMatch.WithToken>, Integer> wrapped;
-        private final Function<VertexMatch.WithTokenIndex, VertexMatch.WithToken> tokenResolver;
+        private final Token[] tokens;
 
         MatchEvaluatorWrapper(final Function<SortedSet<VertexMatch.WithToken>, Integer> wrapped, final Token[] tokens) {
             this.wrapped = wrapped;
-            this.tokenResolver = VertexMatch.tokenResolver(tokens);
+            this.tokens = tokens;
         }
 
         @Override
-        public Integer apply(SortedSet<VertexMatch.WithTokenIndex> input) {
+        public Integer apply(Phrase input) {
             final SortedSet<VertexMatch.WithToken> tokenPhrase = new TreeSet<>();
-            for (VertexMatch.WithTokenIndex match : input) {
-                tokenPhrase.add(tokenResolver.apply(match));
+            for (int mc = 0; mc < input.length; mc++) {
+                tokenPhrase.add(new VertexMatch.WithToken(input.vertex(mc), input.rank + mc, tokens[input.token + mc]));
             }
             return wrapped.apply(tokenPhrase);
         }
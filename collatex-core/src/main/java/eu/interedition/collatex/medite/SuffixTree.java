@@ -19,44 +19,59 @@
 
 package eu.interedition.collatex.medite;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
+import eu.interedition.collatex.suffixarray.SAIS;
+
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
-import java.util.Deque;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
+ * A suffix tree over a sequence of symbols, equal symbols being determined by a comparator.
+ * <p>
+ * The tree is not materialized; it is represented by the suffix array of the sequence, which is built in linear time.
+ * A {@link Cursor cursor} denotes a (possibly implicit) node of the tree as the interval of suffixes sharing the path
+ * label leading to it. Moving the cursor narrows the interval down to the suffixes continuing with the given symbol.
+ *
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
 class SuffixTree<T> {
 
     final Comparator<T> comparator;
-    final Comparator<Integer> sourceComparator;
     final T[] source;
-    final Node root;
+    final Map<T, Integer> symbolIds;
+    final int[] symbols;
+    final int[] suffixArray;
 
     @SafeVarargs
     static <T> SuffixTree<T> build(Comparator<T> comparator, T... source) {
-        return new SuffixTree<>(comparator, source).build();
+        return new SuffixTree<>(comparator, source);
     }
 
     @SafeVarargs
     private SuffixTree(Comparator<T> comparator, T... source) {
         this.comparator = comparator;
-        this.sourceComparator = new SentinelAwareComparator(comparator);
         this.source = source;
-        this.root = new Node();
+        this.symbolIds = new TreeMap<>(comparator);
+        for (T symbol : source) {
+            symbolIds.putIfAbsent(symbol, 0);
+        }
+        int symbolId = 0;
+        for (Map.Entry<T, Integer> symbol : symbolIds.entrySet()) {
+            symbol.setValue(symbolId++);
+        }
+        this.symbols = new int[source.length];
+        for (int i = 0; i < source.length; i++) {
+            symbols[i] = symbolIds.get(source[i]);
+        }
+        this.suffixArray = (source.length == 0 ? new int[0] : new SAIS().buildSuffixArray(symbols, 0, symbols.length));
     }
 
     public Cursor cursor() {
-        return new Cursor();
+        return new Cursor(0, suffixArray.length - 1, 0);
     }
 
     public Iterable<EquivalenceClass> match(final Iterable<T> str) {
@@ -80,123 +95,30 @@ class SuffixTree<T> {
         };
     }
 
-
-    private SuffixTree<T> build() {
-        for (int suffixStart = 0; suffixStart <= source.length; suffixStart++) {
-            root.addSuffix(suffixStart);
-        }
-        compactNodes(root);
-        return this;
-    }
-
-    private void compactNodes(Node node) {
-        for (Node child : node.children) {
-            while (child.children.size() == 1) {
-                final Node firstGrandChild = child.children.iterator().next();
-                child.incomingLabel.add(firstGrandChild.incomingLabel.getFirst());
-                child.children = firstGrandChild.children;
-                for (Node formerGrandchild : child.children) {
-                    formerGrandchild.parent = child;
-                }
-            }
-            compactNodes(child);
-        }
-    }
-
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
-        final Deque<Node> nodes = new ArrayDeque<>(Collections.singleton(root));
-        while (!nodes.isEmpty()) {
-            final Node node = nodes.remove();
-            sb.append(IntStream.range(0, node.depth()).mapToObj(i -> "\t").collect(Collectors.joining())).append(node).append("\n");
-            node.children.forEach(nodes::addFirst);
+        for (int suffix : suffixArray) {
+            sb.append("[").append(suffix).append("] ").append(Arrays.stream(source, suffix, source.length)
+                .map(Object::toString)
+                .collect(Collectors.joining(" ")))
+                .append("\n");
         }
         return sb.toString();
     }
 
-    /**
-     * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
-     */
-    class Node {
-
-        final LinkedList<EquivalenceClass> incomingLabel;
-
-        Node parent;
-        List<Node> children = new ArrayList<>();
-
-        public Node(Node parent, int firstIndex) {
-            this.parent = parent;
-            this.incomingLabel = new LinkedList<>(Collections.singleton(new EquivalenceClass(firstIndex)));
-        }
-
-        public Node() {
-            this.parent = null;
-            this.incomingLabel = null;
-        }
-
-
-        public int depth() {
-            int depth = 0;
-            for (Node parent = this.parent; parent != null; parent = parent.parent) {
-                depth++;
-            }
-            return depth;
-        }
-
-        public void addSuffix(int start) {
-            addSuffix(this, start);
-        }
-
-        private Node addSuffix(Node node, int start) {
-            for (Node child : node.children) {
-                EquivalenceClass childClass = child.incomingLabel.getFirst();
-                if (childClass.isMember(start)) {
-                    childClass.add(start);
-                    start++;
-                    if (start == (source.length + 1)) {
-                        return child;
-                    }
-                    return addSuffix(child, start);
-                }
-            }
-            while (start <= source.length) {
-                Node child = new Node(node, start);
-                node.children.add(child);
-                node = child;
-                start++;
-            }
-            return node;
-        }
-
-        @Override
-        public String toString() {
-            return Optional.ofNullable(incomingLabel).map(label -> label.stream().map(Object::toString).collect(Collectors.joining(", "))).orElse("");
-        }
-    }
-
     class EquivalenceClass implements Comparable<EquivalenceClass> {
 
-        int[] members = new int[2];
-        int length = 0;
+        final int[] members;
+        final int length;
 
-        EquivalenceClass(int first) {
-            members[length++] = first;
-        }
-
-        void add(int member) {
-            if (length == members.length) {
-                members = Arrays.copyOf(members, members.length * 2);
-            }
-            members[length++] = member;
-        }
-
-        boolean isMember(int index) {
-            return sourceComparator.compare(index, members[0]) == 0;
+        EquivalenceClass(int[] members) {
+            this.members = members;
+            this.length = members.length;
         }
 
         public boolean isMember(T symbol) {
-            return (members[0] != source.length && comparator.compare(symbol, source[members[0]]) == 0);
+            return (length > 0 && comparator.compare(symbol, source[members[0]]) == 0);
         }
 
         @Override
@@ -220,57 +142,72 @@ class SuffixTree<T> {
         @Override
         public String toString() {
             return String.format("{%s}", Arrays.stream(members, 0, length)
-                .mapToObj(member -> "<[" + member + "] " + (member == source.length ? "$" : source[member].toString()) + ">")
+                .mapToObj(member -> "<[" + member + "] " + source[member].toString() + ">")
                 .collect(Collectors.joining(", ")));
         }
 
     }
 
-    class SentinelAwareComparator implements Comparator<Integer> {
-
-        final Comparator<T> comparator;
-
-        SentinelAwareComparator(Comparator<T> comparator) {
-            this.comparator = comparator;
-        }
-
-        @Override
-        public int compare(Integer o1, Integer o2) {
-            if (o1 == source.length || o2 == source.length) {
-                return (o2 - o1);
-            }
-            return comparator.compare(source[o1], source[o2]);
-        }
-    }
-
+    /**
+     * A position in the suffix tree, given by the interval <code>[first, last]</code> of the suffix array, whose
+     * suffixes share a common prefix of the given depth.
+     */
     public class Cursor {
-        final Node node;
-        final int offset;
+        final int first;
+        final int last;
+        final int depth;
 
-        Cursor() {
-            this(root, 0);
-        }
+        EquivalenceClass matchedClass;
 
-        Cursor(Node node, int offset) {
-            this.node = node;
-            this.offset = offset;
+        Cursor(int first, int last, int depth) {
+            this.first = first;
+            this.last = last;
+            this.depth = depth;
         }
 
         public Cursor move(T symbol) {
-            if (node.incomingLabel == null || (offset + 1) == node.incomingLabel.size()) {
-                for (Node child : node.children) {
-                    final Cursor next = new Cursor(child, 0);
-                    if (next.matchedClass().isMember(symbol)) {
-                        return next;
-                    }
-                }
+            final Integer symbolId = symbolIds.get(symbol);
+            if (symbolId == null) {
                 return null;
             }
-            return (node.incomingLabel.get(offset + 1).isMember(symbol) ? new Cursor(node, offset + 1) : null);
+            final int next = lowerBound(symbolId);
+            final int end = lowerBound(symbolId + 1);
+            return (next < end ? new Cursor(next, end - 1, depth + 1) : null);
+        }
+
+        /**
+         * @return the first suffix in this cursor's interval, whose symbol following the common prefix is
+         * greater or equal to the given one; suffixes ending with the common prefix sort first
+         */
+        private int lowerBound(int symbolId) {
+            int low = first;
+            int high = last + 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                final int position = suffixArray[mid] + depth;
+                if (position < symbols.length && symbols[position] >= symbolId) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
         }
 
+        /**
+         * @return the positions of the last matched symbol for all suffixes sharing the common prefix, in
+         * sequence order
+         */
         EquivalenceClass matchedClass() {
-            return node.incomingLabel.get(offset);
+            if (matchedClass == null) {
+                final int[] members = new int[last - first + 1];
+                for (int i = first; i <= last; i++) {
+                    members[i - first] = suffixArray[i] + depth - 1;
+                }
+                Arrays.sort(members);
+                matchedClass = new EquivalenceClass(members);
+            }
+            return matchedClass;
         }
     }
 }
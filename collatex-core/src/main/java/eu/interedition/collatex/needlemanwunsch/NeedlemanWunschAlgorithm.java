@@ -22,10 +22,13 @@ package eu.interedition.collatex.needlemanwunsch;
 import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.KeyedTokenComparator;
+import eu.interedition.collatex.util.Cancellation;
 import eu.interedition.collatex.util.StreamUtil;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
 import java.util.*;
+import java.util.function.Function;
 
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
@@ -33,21 +36,28 @@ import java.util.*;
 public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
 
     private final Comparator<Token> comparator;
-    private final NeedlemanWunschScorer<VariantGraph.Vertex[], Token> scorer = new NeedlemanWunschScorer<VariantGraph.Vertex[], Token>() {
-
-        @Override
-        public float score(VariantGraph.Vertex[] a, Token b) {
-            return Arrays.stream(a).map(VariantGraph.Vertex::tokens).flatMap(Set::stream).anyMatch(t -> comparator.compare(t, b) == 0) ? 1 : -1;
-        }
-
-        @Override
-        public float gap() {
-            return -1;
-        }
-    };
+    private final Function<Token, ?> tokenClass;
 
+    /**
+     * Aligns tokens deemed equal by the given comparator; tokens are grouped by their keys, if the comparator is a
+     * {@link KeyedTokenComparator}, and compared pairwise otherwise.
+     */
     public NeedlemanWunschAlgorithm(Comparator<Token> comparator) {
         this.comparator = comparator;
+        this.tokenClass = (comparator instanceof KeyedTokenComparator ? ((KeyedTokenComparator) comparator)::keyOf : null);
+    }
+
+    /**
+     * Aligns tokens of equal class, as determined by the given key function, instead of consulting a comparator.
+     * <p>
+     * Each token is classified exactly once per collation, which is considerably cheaper than pairwise comparisons
+     * for witnesses sharing a large vocabulary.
+     *
+     * @param tokenClass maps tokens to keys, whose {@link Object#equals(Object) equality} defines matching tokens
+     */
+    public NeedlemanWunschAlgorithm(Function<Token, ?> tokenClass) {
+        this.comparator = null;
+        this.tokenClass = tokenClass;
     }
 
     @Override
@@ -55,13 +65,19 @@ public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
         final VariantGraph.Vertex[][] ranks = VariantGraphRanking.of(against).asArray();
         final Token[] tokens = StreamUtil.stream(witness).toArray(Token[]::new);
 
+        final BitSet[] matches = (tokenClass == null ? matchesByComparison(ranks, tokens) : matchesByClass(ranks, tokens));
+        final int[] alignment = alignInt(ranks.length, tokens.length, (rank, tc) -> matches[rank].get(tc) ? 1 : -1, -1, -1);
+
         final Map<Token, VariantGraph.Vertex> alignments = new HashMap<>();
-        for (Map.Entry<VariantGraph.Vertex[], Token> alignment : align(ranks, tokens, scorer).entrySet()) {
+        for (int rank = 0; rank < alignment.length; rank++) {
+            if (alignment[rank] < 0) {
+                continue;
+            }
             boolean aligned = false;
-            final Token token = alignment.getValue();
-            for (VariantGraph.Vertex vertex : alignment.getKey()) {
+            final Token token = tokens[alignment[rank]];
+            for (VariantGraph.Vertex vertex : ranks[rank]) {
                 for (Token vertexToken : vertex.tokens()) {
-                    if (comparator.compare(vertexToken, token) == 0) {
+                    if (matches(vertexToken, token)) {
                         alignments.put(token, vertex);
                         aligned = true;
                         break;
@@ -76,52 +92,279 @@ public class NeedlemanWunschAlgorithm extends CollationAlgorithm.Base {
         merge(against, witness, alignments);
     }
 
+    private boolean matches(Token a, Token b) {
+        return (tokenClass == null ? comparator.compare(a, b) == 0 : Objects.equals(tokenClass.apply(a), tokenClass.apply(b)));
+    }
+
+    /**
+     * @return for each rank, the set of witness token indices matching at least one token of the rank's vertices
+     */
+    private BitSet[] matchesByComparison(VariantGraph.Vertex[][] ranks, Token[] tokens) {
+        final BitSet[] matches = new BitSet[ranks.length];
+        for (int rc = 0; rc < ranks.length; rc++) {
+            final BitSet rankMatches = matches[rc] = new BitSet(tokens.length);
+            for (VariantGraph.Vertex vertex : ranks[rc]) {
+                for (Token vertexToken : vertex.tokens()) {
+                    for (int tc = 0; tc < tokens.length; tc++) {
+                        if (!rankMatches.get(tc) && comparator.compare(vertexToken, tokens[tc]) == 0) {
+                            rankMatches.set(tc);
+                        }
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    private BitSet[] matchesByClass(VariantGraph.Vertex[][] ranks, Token[] tokens) {
+        final Map<Object, BitSet> classes = new HashMap<>();
+        for (int tc = 0; tc < tokens.length; tc++) {
+            classes.computeIfAbsent(tokenClass.apply(tokens[tc]), c -> new BitSet(tokens.length)).set(tc);
+        }
+
+        final BitSet[] matches = new BitSet[ranks.length];
+        for (int rc = 0; rc < ranks.length; rc++) {
+            final BitSet rankMatches = matches[rc] = new BitSet(tokens.length);
+            for (VariantGraph.Vertex vertex : ranks[rc]) {
+                for (Token vertexToken : vertex.tokens()) {
+                    final BitSet classMatches = classes.get(tokenClass.apply(vertexToken));
+                    if (classMatches != null) {
+                        rankMatches.or(classMatches);
+                    }
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Traceback states: the last elements of both sequences are aligned (<code>MATCH</code>), or the last element of
+     * the first/second sequence is aligned with a gap (<code>GAP_IN_B</code>/<code>GAP_IN_A</code>).
+     */
+    private static final int MATCH = 0;
+    private static final int GAP_IN_B = 1;
+    private static final int GAP_IN_A = 2;
+
+    /**
+     * Aligns two sequences globally with affine gap scores (Gotoh).
+     * <p>
+     * The scorer is called exactly once per pair of elements. For each cell and state, the preceding state is recorded
+     * in a packed traceback matrix, so that backtracking neither re-scores nor compares scores.
+     */
     public static <A, B> Map<A, B> align(A[] a, B[] b, NeedlemanWunschScorer<A, B> scorer) {
+        return alignments(a, b, align(a.length, b.length, (ac, bc) -> scorer.score(a[ac], b[bc]), scorer.gapOpening(), scorer.gap()));
+    }
+
+    /**
+     * Aligns two sequences globally with affine gap scores, like {@link #align(Object[], Object[], NeedlemanWunschScorer)},
+     * but with integer scores, summed up in integer arithmetic.
+     */
+    public static <A, B> Map<A, B> align(A[] a, B[] b, NeedlemanWunschIntScorer<A, B> scorer) {
+        return alignments(a, b, alignInt(a.length, b.length, (ac, bc) -> scorer.score(a[ac], b[bc]), scorer.gapOpening(), scorer.gap()));
+    }
 
+    private static <A, B> Map<A, B> alignments(A[] a, B[] b, int[] alignment) {
         final Map<A, B> alignments = new HashMap<>();
-        final float[][] matrix = new float[a.length + 1][b.length + 1];
+        for (int ac = 0; ac < alignment.length; ac++) {
+            if (alignment[ac] >= 0) {
+                alignments.put(a[ac], b[alignment[ac]]);
+            }
+        }
+        return alignments;
+    }
+
+    /**
+     * Scores a pair of elements, given by their indices.
+     */
+    private interface IndexScorer {
+        double score(int a, int b);
+    }
+
+    /**
+     * Scores a pair of elements, given by their indices, with an integer.
+     */
+    private interface IntIndexScorer {
+        int score(int a, int b);
+    }
+
+    /**
+     * The score of impossible states; low enough to never be selected, high enough not to overflow when scored further.
+     */
+    private static final int IMPOSSIBLE = Integer.MIN_VALUE / 2;
 
-        int ac = 0;
-        int bc = 0;
-        while (ac < a.length) {
-            matrix[ac++][0] = scorer.gap() * ac;
+    /**
+     * Aligns two sequences, given by their lengths, with scores summed up in double precision.
+     *
+     * @return for each element of the first sequence, the index of the aligned element of the second sequence, or
+     *         <code>-1</code> if it is aligned with a gap
+     */
+    private static int[] align(int aLength, int bLength, IndexScorer scorer, double gapOpening, double gap) {
+        final int columns = bLength + 1;
+        final byte[] traceback = new byte[(aLength + 1) * columns];
+
+        double[] match = new double[columns];
+        double[] gapInB = new double[columns];
+        double[] gapInA = new double[columns];
+        double[] prevMatch = new double[columns];
+        double[] prevGapInB = new double[columns];
+        double[] prevGapInA = new double[columns];
+
+        Arrays.fill(match, Double.NEGATIVE_INFINITY);
+        Arrays.fill(gapInB, Double.NEGATIVE_INFINITY);
+        match[0] = 0;
+        gapInA[0] = Double.NEGATIVE_INFINITY;
+        for (int bc = 1; bc < columns; bc++) {
+            gapInA[bc] = (bc == 1 ? gapOpening : gapInA[bc - 1] + gap);
         }
-        while (bc < b.length) {
-            matrix[0][bc++] = scorer.gap() * bc;
+
+        final Cancellation cancellation = Cancellation.current();
+        for (int ac = 1; ac <= aLength; ac++) {
+            cancellation.check();
+            double[] swap;
+            swap = prevMatch; prevMatch = match; match = swap;
+            swap = prevGapInB; prevGapInB = gapInB; gapInB = swap;
+            swap = prevGapInA; prevGapInA = gapInA; gapInA = swap;
+
+            final int row = ac * columns;
+
+            match[0] = Double.NEGATIVE_INFINITY;
+            gapInB[0] = (ac == 1 ? gapOpening : prevGapInB[0] + gap);
+            gapInA[0] = Double.NEGATIVE_INFINITY;
+
+            for (int bc = 1; bc < columns; bc++) {
+                final int matchFrom = best(prevMatch[bc - 1], prevGapInB[bc - 1], prevGapInA[bc - 1]);
+                match[bc] = select(matchFrom, prevMatch[bc - 1], prevGapInB[bc - 1], prevGapInA[bc - 1]) + scorer.score(ac - 1, bc - 1);
+
+                final double gapInBFromMatch = prevMatch[bc] + gapOpening;
+                final double gapInBFromGapInB = prevGapInB[bc] + gap;
+                final double gapInBFromGapInA = prevGapInA[bc] + gapOpening;
+                final int gapInBFrom = best(gapInBFromMatch, gapInBFromGapInB, gapInBFromGapInA);
+                gapInB[bc] = select(gapInBFrom, gapInBFromMatch, gapInBFromGapInB, gapInBFromGapInA);
+
+                final double gapInAFromMatch = match[bc - 1] + gapOpening;
+                final double gapInAFromGapInB = gapInB[bc - 1] + gapOpening;
+                final double gapInAFromGapInA = gapInA[bc - 1] + gap;
+                final int gapInAFrom = best(gapInAFromMatch, gapInAFromGapInB, gapInAFromGapInA);
+                gapInA[bc] = select(gapInAFrom, gapInAFromMatch, gapInAFromGapInB, gapInAFromGapInA);
+
+                traceback[row + bc] = pack(matchFrom, gapInBFrom, gapInAFrom);
+            }
         }
 
-        ac = 1;
-        for (A aElement : a) {
-            bc = 1;
-            for (B bElement : b) {
-                final float k = matrix[ac - 1][bc - 1] + scorer.score(aElement, bElement);
-                final float l = matrix[ac - 1][bc] + scorer.gap();
-                final float m = matrix[ac][bc - 1] + scorer.gap();
-                matrix[ac][bc++] = Math.max(Math.max(k, l), m);
+        return traceback(aLength, bLength, traceback, best(match[bLength], gapInB[bLength], gapInA[bLength]));
+    }
+
+    /**
+     * Aligns two sequences like {@link #align(int, int, IndexScorer, double, double)}, with scores summed up in integer
+     * arithmetic; the scores of all alignments must be representable as integers.
+     */
+    private static int[] alignInt(int aLength, int bLength, IntIndexScorer scorer, int gapOpening, int gap) {
+        final int columns = bLength + 1;
+        final byte[] traceback = new byte[(aLength + 1) * columns];
+
+        int[] match = new int[columns];
+        int[] gapInB = new int[columns];
+        int[] gapInA = new int[columns];
+        int[] prevMatch = new int[columns];
+        int[] prevGapInB = new int[columns];
+        int[] prevGapInA = new int[columns];
+
+        Arrays.fill(match, IMPOSSIBLE);
+        Arrays.fill(gapInB, IMPOSSIBLE);
+        match[0] = 0;
+        gapInA[0] = IMPOSSIBLE;
+        for (int bc = 1; bc < columns; bc++) {
+            gapInA[bc] = (bc == 1 ? gapOpening : gapInA[bc - 1] + gap);
+        }
+
+        final Cancellation cancellation = Cancellation.current();
+        for (int ac = 1; ac <= aLength; ac++) {
+            cancellation.check();
+            int[] swap;
+            swap = prevMatch; prevMatch = match; match = swap;
+            swap = prevGapInB; prevGapInB = gapInB; gapInB = swap;
+            swap = prevGapInA; prevGapInA = gapInA; gapInA = swap;
+
+            final int row = ac * columns;
+
+            match[0] = IMPOSSIBLE;
+            gapInB[0] = (ac == 1 ? gapOpening : prevGapInB[0] + gap);
+            gapInA[0] = IMPOSSIBLE;
+
+            for (int bc = 1; bc < columns; bc++) {
+                final int matchFrom = best(prevMatch[bc - 1], prevGapInB[bc - 1], prevGapInA[bc - 1]);
+                match[bc] = select(matchFrom, prevMatch[bc - 1], prevGapInB[bc - 1], prevGapInA[bc - 1]) + scorer.score(ac - 1, bc - 1);
+
+                final int gapInBFromMatch = prevMatch[bc] + gapOpening;
+                final int gapInBFromGapInB = prevGapInB[bc] + gap;
+                final int gapInBFromGapInA = prevGapInA[bc] + gapOpening;
+                final int gapInBFrom = best(gapInBFromMatch, gapInBFromGapInB, gapInBFromGapInA);
+                gapInB[bc] = select(gapInBFrom, gapInBFromMatch, gapInBFromGapInB, gapInBFromGapInA);
+
+                final int gapInAFromMatch = match[bc - 1] + gapOpening;
+                final int gapInAFromGapInB = gapInB[bc - 1] + gapOpening;
+                final int gapInAFromGapInA = gapInA[bc - 1] + gap;
+                final int gapInAFrom = best(gapInAFromMatch, gapInAFromGapInB, gapInAFromGapInA);
+                gapInA[bc] = select(gapInAFrom, gapInAFromMatch, gapInAFromGapInB, gapInAFromGapInA);
+
+                traceback[row + bc] = pack(matchFrom, gapInBFrom, gapInAFrom);
             }
-            ac++;
         }
 
-        ac = a.length;
-        bc = b.length;
+        return traceback(aLength, bLength, traceback, best(match[bLength], gapInB[bLength], gapInA[bLength]));
+    }
+
+    private static int[] traceback(int aLength, int bLength, byte[] traceback, int state) {
+        final int[] alignment = new int[aLength];
+        Arrays.fill(alignment, -1);
+        final int columns = bLength + 1;
+        int ac = aLength;
+        int bc = bLength;
         while (ac > 0 && bc > 0) {
-            final float score = matrix[ac][bc];
-            final float scoreDiag = matrix[ac - 1][bc - 1];
-            final float scoreUp = matrix[ac][bc - 1];
-            final float scoreLeft = matrix[ac - 1][bc];
-
-            if (score == scoreDiag + scorer.score(a[ac - 1], b[bc - 1])) {
-                // match
-                alignments.put(a[ac - 1], b[bc - 1]);
-                ac--;
-                bc--;
-            } else if (score == scoreLeft + scorer.gap()) {
-                ac--;
-            } else if (score == scoreUp + scorer.gap()) {
-                bc--;
+            final int from = (traceback[ac * columns + bc] >> (2 * state)) & 3;
+            switch (state) {
+                case MATCH:
+                    alignment[ac - 1] = bc - 1;
+                    ac--;
+                    bc--;
+                    break;
+                case GAP_IN_B:
+                    ac--;
+                    break;
+                default:
+                    bc--;
             }
+            state = from;
         }
+        return alignment;
+    }
 
-        return alignments;
+    private static byte pack(int matchFrom, int gapInBFrom, int gapInAFrom) {
+        return (byte) (matchFrom | (gapInBFrom << 2) | (gapInAFrom << 4));
+    }
+
+    /**
+     * @return the state with the highest score; ties are resolved in favour of matches, then gaps in the second sequence
+     */
+    private static int best(double match, double gapInB, double gapInA) {
+        if (match >= gapInB && match >= gapInA) {
+            return MATCH;
+        }
+        return (gapInB >= gapInA ? GAP_IN_B : GAP_IN_A);
+    }
+
+    private static double select(int state, double match, double gapInB, double gapInA) {
+        return (state == MATCH ? match : (state == GAP_IN_B ? gapInB : gapInA));
+    }
+
+    private static int best(int match, int gapInB, int gapInA) {
+        if (match >= gapInB && match >= gapInA) {
+            return MATCH;
+        }
+        return (gapInB >= gapInA ? GAP_IN_B : GAP_IN_A);
+    }
+
+    private static int select(int state, int match, int gapInB, int gapInA) {
+        return (state == MATCH ? match : (state == GAP_IN_B ? gapInB : gapInA));
     }
-}
\ No newline at end of file
+}
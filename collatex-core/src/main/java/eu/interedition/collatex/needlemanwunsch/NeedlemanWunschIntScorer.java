@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.needlemanwunsch;
+
+/**
+ * A {@link NeedlemanWunschScorer} scoring with integers, whose sums the aligner computes exactly.
+ */
+public interface NeedlemanWunschIntScorer<A, B> {
+
+    int score(A a, B b);
+
+    /**
+     * @return the score of extending a gap by another element
+     */
+    int gap();
+
+    /**
+     * @return the score of the first element of a gap; defaults to {@link #gap()}, i.e. to linear gap scoring
+     */
+    default int gapOpening() {
+        return gap();
+    }
+}
@@ -26,5 +26,15 @@ public interface NeedlemanWunschScorer<A, B> {
 
     float score(A a, B b);
 
+    /**
+     * @return the score of extending a gap by another element
+     */
     float gap();
+
+    /**
+     * @return the score of the first element of a gap; defaults to {@link #gap()}, i.e. to linear gap scoring
+     */
+    default float gapOpening() {
+        return gap();
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.util.Cancellation;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collations run in the background, for clients which poll for their results instead of waiting for them.
+ * <p>
+ * Jobs are scheduled by priority, and in the order of their submission among jobs of equal priority; a configurable
+ * number of them runs concurrently. The store of jobs is bounded: finished jobs are evicted once their results have
+ * been kept for a configurable time, or earlier, oldest first, when room is needed for new jobs.
+ */
+public class CollationJobs {
+    private static final Logger LOG = Logger.getLogger(CollationJobs.class.getName());
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    private final int maxJobs;
+    private final long maxJobSize;
+    private final long ttl;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param maxConcurrentJobs the number of jobs running at any time
+     * @param maxJobs           the number of jobs kept, either waiting, running or finished
+     * @param ttl               the time for which the results of finished jobs are kept
+     */
+    public CollationJobs(int maxConcurrentJobs, int maxJobs, long ttl, TimeUnit unit) {
+        this(maxConcurrentJobs, maxJobs, 0, ttl, unit);
+    }
+
+    /**
+     * @param maxJobSize the maximum number of tokens in a job's collation, counted over all witnesses; <code>0</code>
+     *                   for no limit
+     */
+    public CollationJobs(int maxConcurrentJobs, int maxJobs, long maxJobSize, long ttl, TimeUnit unit) {
+        this.maxJobs = maxJobs;
+        this.maxJobSize = maxJobSize;
+        this.ttl = unit.toNanos(ttl);
+        this.executor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        final AtomicLong threads = new AtomicLong();
+        this.executor.setThreadFactory(r -> {
+            final Thread t = new Thread(r, "collation-job-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * @return the maximum number of tokens in a job's collation, counted over all witnesses; <code>0</code> for no
+     * limit
+     */
+    public long getMaxJobSize() {
+        return maxJobSize;
+    }
+
+    /**
+     * @param priority jobs of higher priority are run first
+     * @throws IllegalArgumentException   if the collation exceeds the maximum job size
+     * @throws RejectedExecutionException if the store is full of unfinished jobs
+     */
+    public Job submit(SimpleCollation collation, int priority) {
+        if (maxJobSize > 0) {
+            final long size = collation.getWitnesses().stream().mapToLong(SimpleWitness::size).sum();
+            if (size > maxJobSize) {
+                throw new IllegalArgumentException(String.format("Collation exceeds %d tokens", maxJobSize));
+            }
+        }
+        synchronized (jobs) {
+            evict();
+            if (jobs.size() >= maxJobs) {
+                jobs.values().stream()
+                    .filter(job -> job.status.isFinished())
+                    .min(Comparator.comparingLong(job -> job.finished))
+                    .ifPresent(job -> jobs.remove(job.id));
+            }
+            if (jobs.size() >= maxJobs) {
+                throw new RejectedExecutionException("Too many jobs");
+            }
+            final Job job = new Job(collation, priority, sequence.incrementAndGet());
+            jobs.put(job.id, job);
+            executor.execute(job);
+            return job;
+        }
+    }
+
+    public Optional<Job> get(String id) {
+        evict();
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    /**
+     * Cancels the given job, unless it has already finished, and removes it from the store.
+     *
+     * @return <code>false</code> if there is no such job
+     */
+    public boolean remove(String id) {
+        final Job job = jobs.remove(id);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        executor.remove(job);
+        return true;
+    }
+
+    /**
+     * @return the number of queued jobs which will be run before the given one
+     */
+    public int queuePosition(Job job) {
+        if (job.status != Status.QUEUED) {
+            return 0;
+        }
+        return (int) executor.getQueue().stream().filter(r -> ((Job) r).compareTo(job) < 0).count();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+        jobs.values().forEach(Job::cancel);
+    }
+
+    private void evict() {
+        final long now = System.nanoTime();
+        jobs.values().removeIf(job -> job.status.isFinished() && now - job.finished > ttl);
+    }
+
+    public static class Job implements Runnable, Comparable<Job> {
+
+        private final String id = UUID.randomUUID().toString();
+        private final SimpleCollation collation;
+        private final int priority;
+        private final long sequence;
+        private final Cancellation cancellation = Cancellation.create();
+        private final long submitted = System.currentTimeMillis();
+
+        private volatile Status status = Status.QUEUED;
+        private volatile long started;
+        private volatile long finished;
+        private volatile VariantGraph result;
+        private volatile Throwable error;
+
+        Job(SimpleCollation collation, int priority, long sequence) {
+            this.collation = collation;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (status != Status.QUEUED) {
+                    return;
+                }
+                status = Status.RUNNING;
+                started = System.currentTimeMillis();
+            }
+            try {
+                result = collation.collate(new VariantGraph(), cancellation);
+                finish(Status.DONE);
+            } catch (CancellationException e) {
+                finish(Status.CANCELLED);
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, t, () -> "Collation job " + id + " failed");
+                error = t;
+                finish(Status.FAILED);
+            }
+        }
+
+        void cancel() {
+            cancellation.cancel();
+            synchronized (this) {
+                if (status == Status.QUEUED) {
+                    finish(Status.CANCELLED);
+                }
+            }
+        }
+
+        private void finish(Status status) {
+            this.finished = System.nanoTime();
+            this.status = status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the time of submission in milliseconds since the epoch
+         */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * @return the time the job started running in milliseconds since the epoch, <code>0</code> if it has not
+         */
+        public long getStarted() {
+            return started;
+        }
+
+        /**
+         * @return the collated variant graph, once the job is {@link Status#DONE done}
+         */
+        public VariantGraph getResult() {
+            return result;
+        }
+
+        /**
+         * @return the cause of failure of a {@link Status#FAILED failed} job
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            final int result = Integer.compare(o.priority, priority);
+            return (result == 0 ? Long.compare(sequence, o.sequence) : result);
+        }
+    }
+}
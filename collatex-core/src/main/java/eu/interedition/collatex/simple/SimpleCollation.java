@@ -21,6 +21,7 @@ package eu.interedition.collatex.simple;
 
 import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.util.Cancellation;
 
 import java.util.List;
 
@@ -49,10 +50,20 @@ public class SimpleCollation {
     }
 
     public VariantGraph collate(VariantGraph graph) {
-        algorithm.collate(graph, witnesses);
-        if (joined) {
-            VariantGraph.JOIN.apply(graph);
-        }
-        return graph;
+        return collate(graph, Cancellation.NONE);
+    }
+
+    /**
+     * @throws java.util.concurrent.CancellationException if the given token is cancelled before the collation
+     *                                                    completes
+     */
+    public VariantGraph collate(VariantGraph graph, Cancellation cancellation) {
+        return cancellation.call(() -> {
+            algorithm.collate(graph, witnesses);
+            if (joined) {
+                VariantGraph.JOIN.apply(graph);
+            }
+            return graph;
+        });
     }
 }
@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.dekker.InspectableCollationAlgorithm;
+import eu.interedition.collatex.matching.EditDistanceTokenComparator;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.matching.NearMatchIndex;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads collations from a stream of JSON parser events, without building an object tree of the whole request.
+ * <p>
+ * Witness contents are tokenized and token arrays collected as they are read, so limits on the size of a collation
+ * are enforced before the request has been read completely. Tokens given as JSON objects and the resulting collations
+ * are created by factories, so callers can retain the objects and settings they have been read from.
+ * <p>
+ * Requires an implementation of the Java API for JSON Processing at runtime.
+ */
+public class SimpleJsonCollationReader<C extends SimpleCollation> {
+
+    /**
+     * Creates a token given as a JSON object, with its content in the field <code>t</code> and its optional
+     * normalized content in the field <code>n</code>.
+     */
+    @FunctionalInterface
+    public interface TokenFactory {
+        Token create(SimpleWitness witness, String content, String normalized, JsonObject tokenObject);
+    }
+
+    /**
+     * Creates a collation once its witnesses and settings have been read.
+     */
+    @FunctionalInterface
+    public interface CollationFactory<C extends SimpleCollation> {
+
+        /**
+         * @param settings a canonical description of the algorithm, token comparator and flags of the collation
+         * @param id       the value of the collation's <code>id</code> field; <code>null</code> if none has been given
+         */
+        C create(List<SimpleWitness> witnesses, CollationAlgorithm algorithm, boolean joined, String settings, String id);
+    }
+
+    private final TokenFactory tokenFactory;
+    private final CollationFactory<C> collationFactory;
+    private final long maxTokens;
+
+    /**
+     * @param maxTokens the maximum number of tokens in a collation, counted over all witnesses; <code>0</code> for no
+     *                  limit
+     */
+    public SimpleJsonCollationReader(TokenFactory tokenFactory, CollationFactory<C> collationFactory, long maxTokens) {
+        this.tokenFactory = tokenFactory;
+        this.collationFactory = collationFactory;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @param maxBytes the maximum number of bytes read from the given stream; <code>0</code> for no limit
+     * @throws LimitExceededException if the collation exceeds one of the limits
+     */
+    public C read(InputStream inputStream, long maxBytes) throws IOException {
+        try (JsonParser parser = Json.createParser(limit(inputStream, maxBytes))) {
+            return read(parser);
+        } catch (JsonException e) {
+            throw ioException(e);
+        }
+    }
+
+    /**
+     * Reads a collation object, which is the next value of the given parser.
+     *
+     * @throws LimitExceededException if the collation exceeds the limit of tokens
+     */
+    public C read(JsonParser parser) throws IOException {
+        try {
+            if (parser.next() != JsonParser.Event.START_OBJECT) {
+                throw new IOException("Expecting JSON object");
+            }
+            return new Reading(parser).collation();
+        } catch (JsonException | NoSuchElementException e) {
+            throw ioException(e);
+        }
+    }
+
+    /**
+     * Reads a collation object, whose start has just been read from the given parser, e.g. as an element of an array.
+     *
+     * @throws LimitExceededException if the collation exceeds the limit of tokens
+     */
+    public C readObject(JsonParser parser) throws IOException {
+        try {
+            return new Reading(parser).collation();
+        } catch (JsonException | NoSuchElementException e) {
+            throw ioException(e);
+        }
+    }
+
+    /**
+     * @return the given stream, failing with a {@link LimitExceededException} once more than the given number of bytes
+     * have been read from it; <code>0</code> for no limit
+     */
+    public static InputStream limit(InputStream inputStream, long maxBytes) {
+        return (maxBytes > 0 ? new LimitedInputStream(inputStream, maxBytes) : inputStream);
+    }
+
+    /**
+     * @return the I/O error causing the given error of a JSON parser, or an I/O error describing it
+     */
+    public static IOException ioException(RuntimeException e) {
+        if (e instanceof JsonException && e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        return (e instanceof NoSuchElementException
+            ? new IOException("Unexpected end of JSON input", e)
+            : new IOException(e.getMessage(), e));
+    }
+
+    /**
+     * The state of reading a single collation.
+     */
+    private class Reading {
+
+        private final JsonParser parser;
+        private final TokenVocabulary vocabulary = new TokenVocabulary();
+        private long tokens = 0;
+
+        private Reading(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        private C collation() throws IOException {
+            List<SimpleWitness> witnesses = null;
+            final JsonObjectBuilder settings = Json.createObjectBuilder();
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                final String key = parser.getString();
+                if ("witnesses".equals(key)) {
+                    witnesses = witnesses();
+                } else {
+                    add(settings, key, parser.next());
+                }
+            }
+            if (witnesses == null) {
+                throw new IOException("Expecting 'witnesses' array");
+            }
+            if (witnesses.isEmpty()) {
+                throw new IOException("No witnesses in collation");
+            }
+            return collation(settings.build(), witnesses);
+        }
+
+        private List<SimpleWitness> witnesses() throws IOException {
+            if (parser.next() != JsonParser.Event.START_ARRAY) {
+                throw new IOException("Expecting 'witnesses' array");
+            }
+            final List<SimpleWitness> witnesses = new ArrayList<>();
+            for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_ARRAY; event = parser.next()) {
+                if (event != JsonParser.Event.START_OBJECT) {
+                    throw new IOException("Expecting witness object");
+                }
+                final SimpleWitness witness = witness(witnesses.size());
+                if (witnesses.contains(witness)) {
+                    throw new IOException(String.format("Duplicate sigil for witness '%s", witness));
+                }
+                witnesses.add(witness);
+            }
+            return witnesses;
+        }
+
+        private SimpleWitness witness(int index) throws IOException {
+            String witnessId = null;
+            String content = null;
+            List<JsonObject> tokenObjects = null;
+            final List<String> tokenContents = new ArrayList<>();
+            final List<String> normalizedTokenContents = new ArrayList<>();
+
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                final String key = parser.getString();
+                final JsonParser.Event event = parser.next();
+                final Object witness = (witnessId == null ? "#" + (index + 1) : witnessId);
+                if ("id".equals(key)) {
+                    if (event != JsonParser.Event.VALUE_STRING) {
+                        throw new IOException("Expected textual witness 'id'");
+                    }
+                    witnessId = parser.getString().trim();
+                    if (witnessId.length() == 0) {
+                        throw new IOException("Empty witness 'id' encountered");
+                    }
+                } else if ("content".equals(key)) {
+                    if (event != JsonParser.Event.VALUE_STRING) {
+                        throw new IOException(String.format("Expected 'content' text field in witness \"%s\"", witness));
+                    }
+                    content = parser.getString();
+                } else if ("tokens".equals(key)) {
+                    if (event != JsonParser.Event.START_ARRAY) {
+                        throw new IOException(String.format("Expected 'tokens' array in witness \"%s\"", witness));
+                    }
+                    tokenObjects = new ArrayList<>();
+                    tokenContents.clear();
+                    normalizedTokenContents.clear();
+                    for (JsonParser.Event tokenEvent = parser.next(); tokenEvent != JsonParser.Event.END_ARRAY; tokenEvent = parser.next()) {
+                        if (tokenEvent != JsonParser.Event.START_OBJECT) {
+                            throw new IOException(String.format("Expected token object in 'tokens' field in witness \"%s\"", witness));
+                        }
+                        final JsonObject tokenObject = object();
+                        String tokenContent;
+                        try {
+                            tokenContent = tokenObject.getString("t");
+                        } catch (ClassCastException | NullPointerException e) {
+                            throw new IOException(String.format("Expected textual token content field 't' in witness \"%s\"", witness));
+                        }
+
+                        String normalizedTokenContent;
+                        if (tokenObject.containsKey("n")) {
+                            try {
+                                normalizedTokenContent = tokenObject.getString("n");
+                            } catch (ClassCastException e) {
+                                throw new IOException(String.format("Expected textual normalized token content in witness \"%s\"", witness));
+                            }
+                        } else {
+                            normalizedTokenContent = SimpleWitness.TOKEN_NORMALIZER.apply(tokenContent);
+                        }
+
+                        if (normalizedTokenContent == null || normalizedTokenContent.length() == 0) {
+                            throw new IOException(String.format("Empty token encountered in witness \"%s\"", witness));
+                        }
+
+                        count();
+                        tokenContents.add(vocabulary.intern(tokenContent));
+                        normalizedTokenContents.add(vocabulary.intern(normalizedTokenContent));
+                        tokenObjects.add(tokenObject);
+                    }
+                } else {
+                    skip(event);
+                }
+            }
+
+            if (witnessId == null) {
+                throw new IOException("Expected textual witness 'id'");
+            }
+            final SimpleWitness witness = new SimpleWitness(witnessId);
+            if (tokenObjects != null) {
+                final List<Token> tokens = new ArrayList<>(tokenObjects.size());
+                for (int tc = 0, tl = tokenObjects.size(); tc < tl; tc++) {
+                    tokens.add(tokenFactory.create(witness, tokenContents.get(tc), normalizedTokenContents.get(tc), tokenObjects.get(tc)));
+                }
+                witness.setTokens(tokens);
+            } else if (content != null) {
+                final SimpleTokenScanner scanner = SimpleTokenScanner.of(content, SimpleTokenScanner.Rule.BY_WS_OR_PUNCT);
+                while (scanner.next()) {
+                    count();
+                    tokenContents.add(scanner.content());
+                }
+                witness.setTokenContents(tokenContents.stream(), SimpleTokenNormalizers.LC_TRIM_WS, vocabulary);
+            } else {
+                throw new IOException(String.format("Expected either 'tokens' or 'content' field in witness \"%s\"", witness));
+            }
+            return witness;
+        }
+
+        private void count() throws LimitExceededException {
+            if (maxTokens > 0 && ++tokens > maxTokens) {
+                throw new LimitExceededException(String.format("Collation exceeds %d tokens", maxTokens));
+            }
+        }
+
+        private C collation(JsonObject collationObject, List<SimpleWitness> witnesses) {
+            Comparator<Token> tokenComparator = null;
+            String tokenComparatorSetting = "equality";
+            final JsonValue tokenComparatorNode = collationObject.get("tokenComparator");
+            if (tokenComparatorNode != null && tokenComparatorNode.getValueType() == JsonValue.ValueType.OBJECT) {
+                final JsonObject tokenComparatorObject = (JsonObject) tokenComparatorNode;
+                try {
+                    if ("levenshtein".equals(tokenComparatorObject.getString("type"))) {
+                        final int configuredDistance = tokenComparatorObject.getInt("distance", 0);
+                        final int distance = (configuredDistance == 0 ? 1 : configuredDistance);
+                        tokenComparator = (distance <= NearMatchIndex.MAX_DISTANCE
+                            ? NearMatchIndex.of(witnesses, distance).comparator()
+                            : new EditDistanceTokenComparator(distance));
+                        tokenComparatorSetting = "levenshtein:" + distance;
+                    }
+                } catch (ClassCastException e) {
+                    // ignored
+                }
+            }
+            if (tokenComparator == null) {
+                tokenComparator = new EqualityTokenComparator();
+            }
+
+            final JsonValue idNode = collationObject.get("id");
+            final String id = (idNode == null || idNode.getValueType() == JsonValue.ValueType.NULL ? null
+                : idNode.getValueType() == JsonValue.ValueType.STRING ? ((JsonString) idNode).getString() : idNode.toString());
+
+            CollationAlgorithm collationAlgorithm = null;
+            final JsonValue collationAlgorithmNode = collationObject.get("algorithm");
+            if (collationAlgorithmNode != null && collationAlgorithmNode.getValueType() == JsonValue.ValueType.STRING) {
+                final String collationAlgorithmValue = ((JsonString) collationAlgorithmNode).getString();
+                if ("needleman-wunsch".equalsIgnoreCase(collationAlgorithmValue)) {
+                    collationAlgorithm = CollationAlgorithmFactory.needlemanWunsch(tokenComparator);
+                } else if ("gst".equalsIgnoreCase(collationAlgorithmValue)) {
+                    collationAlgorithm = CollationAlgorithmFactory.greedyStringTiling(tokenComparator, 2);
+                } else if ("medite".equalsIgnoreCase(collationAlgorithmValue)) {
+                    collationAlgorithm = CollationAlgorithmFactory.medite(tokenComparator, SimpleToken.TOKEN_MATCH_EVALUATOR);
+                }
+            }
+            if (collationAlgorithm == null) {
+                collationAlgorithm = CollationAlgorithmFactory.dekker(tokenComparator);
+            }
+
+            boolean joined = true;
+            try {
+                joined = collationObject.getBoolean("joined", true);
+            } catch (ClassCastException e) {
+                // ignored
+            }
+
+            String collationSettings = String.join(";",
+                "algorithm=" + collationAlgorithm.getClass().getName(),
+                "tokenComparator=" + tokenComparatorSetting,
+                "joined=" + joined
+            );
+
+            if (collationAlgorithm instanceof InspectableCollationAlgorithm) {
+                boolean mergeTranspositions = true;
+                try {
+                    mergeTranspositions = collationObject.getBoolean("transpositions", true);
+                } catch (ClassCastException e) {
+                    // ignored
+                }
+                ((InspectableCollationAlgorithm) collationAlgorithm).setMergeTranspositions(mergeTranspositions);
+                collationSettings += ";transpositions=" + mergeTranspositions;
+            }
+            return collationFactory.create(witnesses, collationAlgorithm, joined, collationSettings, id);
+        }
+
+        private JsonObject object() {
+            final JsonObjectBuilder object = Json.createObjectBuilder();
+            while (parser.next() == JsonParser.Event.KEY_NAME) {
+                final String key = parser.getString();
+                add(object, key, parser.next());
+            }
+            return object.build();
+        }
+
+        private JsonArray array() {
+            final JsonArrayBuilder array = Json.createArrayBuilder();
+            for (JsonParser.Event event = parser.next(); event != JsonParser.Event.END_ARRAY; event = parser.next()) {
+                switch (event) {
+                    case START_OBJECT:
+                        array.add(object());
+                        break;
+                    case START_ARRAY:
+                        array.add(array());
+                        break;
+                    case VALUE_STRING:
+                        array.add(parser.getString());
+                        break;
+                    case VALUE_NUMBER:
+                        array.add(parser.getBigDecimal());
+                        break;
+                    case VALUE_TRUE:
+                        array.add(JsonValue.TRUE);
+                        break;
+                    case VALUE_FALSE:
+                        array.add(JsonValue.FALSE);
+                        break;
+                    default:
+                        array.addNull();
+                }
+            }
+            return array.build();
+        }
+
+        private void add(JsonObjectBuilder object, String key, JsonParser.Event event) {
+            switch (event) {
+                case START_OBJECT:
+                    object.add(key, object());
+                    break;
+                case START_ARRAY:
+                    object.add(key, array());
+                    break;
+                case VALUE_STRING:
+                    object.add(key, parser.getString());
+                    break;
+                case VALUE_NUMBER:
+                    object.add(key, parser.getBigDecimal());
+                    break;
+                case VALUE_TRUE:
+                    object.add(key, JsonValue.TRUE);
+                    break;
+                case VALUE_FALSE:
+                    object.add(key, JsonValue.FALSE);
+                    break;
+                default:
+                    object.addNull(key);
+            }
+        }
+
+        private void skip(JsonParser.Event event) {
+            if (event == JsonParser.Event.START_OBJECT || event == JsonParser.Event.START_ARRAY) {
+                for (int depth = 1; depth > 0; ) {
+                    switch (parser.next()) {
+                        case START_OBJECT:
+                        case START_ARRAY:
+                            depth++;
+                            break;
+                        case END_OBJECT:
+                        case END_ARRAY:
+                            depth--;
+                            break;
+                        default:
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Signals that a collation request exceeds the configured limits on its size.
+     */
+    public static class LimitExceededException extends IOException {
+
+        public LimitExceededException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Fails reading once more than a given number of bytes have been read from the underlying stream.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count = 0;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long read) throws LimitExceededException {
+            count += read;
+            if (count > limit) {
+                throw new LimitExceededException(String.format("Collation request exceeds %d bytes", limit));
+            }
+        }
+    }
+}
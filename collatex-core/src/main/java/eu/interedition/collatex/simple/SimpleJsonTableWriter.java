@@ -0,0 +1,273 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.util.VariantGraphRanking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Writes the alignment table of a variant graph as JSON, segmenting ranks by transpositions just like
+ * {@link eu.interedition.collatex.util.ParallelSegmentationApparatus}.
+ * <p>
+ * The ranks of the graph are walked once, collecting the tokens of each segment in lists reused across segments.
+ * Token contents and sigils are escaped and encoded to UTF-8 once per distinct string; the resulting bytes are copied
+ * into a buffer, which is flushed to the target channel whenever it fills up.
+ * <p>
+ * Instances reuse their buffer and therefore must not be shared among threads.
+ */
+public class SimpleJsonTableWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuffer buffer;
+    private final Function<? super SimpleToken, String> tokenToJson;
+    private final Map<String, byte[]> strings = new HashMap<>();
+
+    private int[] transpositionRanks = new int[16];
+
+    public SimpleJsonTableWriter() {
+        this(8192, token -> null);
+    }
+
+    /**
+     * @param bufferSize  the size of the buffer written to the target channel
+     * @param tokenToJson yields a JSON representation of a token to be written verbatim, or <code>null</code> to write
+     *                    the token's content as a string
+     */
+    public SimpleJsonTableWriter(int bufferSize, Function<? super SimpleToken, String> tokenToJson) {
+        this.buffer = ByteBuffer.allocate(Math.max(64, bufferSize));
+        this.tokenToJson = tokenToJson;
+    }
+
+    public void write(VariantGraph graph, WritableByteChannel channel) throws IOException {
+        try {
+            final Witness[] witnesses = graph.witnesses().stream().sorted(Witness.SIGIL_COMPARATOR).toArray(Witness[]::new);
+            final Map<Witness, List<SimpleToken>> cells = new HashMap<>();
+            for (Witness witness : witnesses) {
+                cells.put(witness, new ArrayList<>());
+            }
+
+            put("{\"witnesses\":[", channel);
+            for (int wc = 0; wc < witnesses.length; wc++) {
+                if (wc > 0) {
+                    put((byte) ',', channel);
+                }
+                put(string(witnesses[wc].getSigil()), channel);
+            }
+            put("],\"table\":[", channel);
+
+            final VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+            boolean first = true;
+            for (VariantGraph.Vertex[] vertices : ranking.asArray()) {
+                if (vertices.length == 1 && vertices[0].tokens().isEmpty()) {
+                    // skip start and end vertex
+                    continue;
+                }
+                if (transpositionRanks(ranking, vertices)) {
+                    if (!first) {
+                        put((byte) ',', channel);
+                    }
+                    segment(vertices, Integer.MIN_VALUE, witnesses, cells, channel);
+                    first = false;
+                    continue;
+                }
+                // spreading vertices with same rank according to their registered transpositions, in ascending order
+                final int[] segments = Arrays.copyOf(transpositionRanks, vertices.length);
+                Arrays.sort(segments);
+                for (int sc = 0; sc < segments.length; sc++) {
+                    if (sc == 0 || segments[sc] != segments[sc - 1]) {
+                        if (!first) {
+                            put((byte) ',', channel);
+                        }
+                        segment(vertices, segments[sc], witnesses, cells, channel);
+                        first = false;
+                    }
+                }
+            }
+            put("]}", channel);
+            flush(channel);
+        } finally {
+            buffer.clear();
+            strings.clear();
+        }
+    }
+
+    /**
+     * Computes the transposition rank of each given vertex.
+     *
+     * @return <code>true</code> if none of the vertices is transposed, so they form a single segment
+     */
+    private boolean transpositionRanks(VariantGraphRanking ranking, VariantGraph.Vertex[] vertices) {
+        if (transpositionRanks.length < vertices.length) {
+            transpositionRanks = new int[Math.max(vertices.length, transpositionRanks.length * 2)];
+        }
+        boolean untransposed = true;
+        for (int vc = 0; vc < vertices.length; vc++) {
+            final Set<Set<VariantGraph.Vertex>> transpositions = vertices[vc].transpositions();
+            int transpositionRank = 0;
+            if (!transpositions.isEmpty()) {
+                final int rank = ranking.apply(vertices[vc]);
+                for (Set<VariantGraph.Vertex> transposition : transpositions) {
+                    for (VariantGraph.Vertex tv : transposition) {
+                        transpositionRank += (ranking.apply(tv) - rank);
+                    }
+                }
+            }
+            transpositionRanks[vc] = transpositionRank;
+            untransposed = untransposed && transpositionRank == 0;
+        }
+        return untransposed;
+    }
+
+    /**
+     * Writes the tokens of those vertices with the given transposition rank, or of all vertices if it is
+     * {@link Integer#MIN_VALUE}, as a row of cells, one per witness.
+     */
+    private void segment(VariantGraph.Vertex[] vertices, int transpositionRank, Witness[] witnesses,
+                         Map<Witness, List<SimpleToken>> cells, WritableByteChannel channel) throws IOException {
+        for (int vc = 0; vc < vertices.length; vc++) {
+            if (transpositionRank != Integer.MIN_VALUE && transpositionRanks[vc] != transpositionRank) {
+                continue;
+            }
+            for (Token token : vertices[vc].tokens()) {
+                if (token instanceof SimpleToken) {
+                    final List<SimpleToken> cell = cells.get(token.getWitness());
+                    if (cell != null) {
+                        cell.add((SimpleToken) token);
+                    }
+                }
+            }
+        }
+
+        put((byte) '[', channel);
+        for (int wc = 0; wc < witnesses.length; wc++) {
+            if (wc > 0) {
+                put((byte) ',', channel);
+            }
+            put((byte) '[', channel);
+            final List<SimpleToken> cell = cells.get(witnesses[wc]);
+            if (cell.size() > 1) {
+                Collections.sort(cell);
+            }
+            for (int tc = 0, tl = cell.size(); tc < tl; tc++) {
+                if (tc > 0) {
+                    put((byte) ',', channel);
+                }
+                final SimpleToken token = cell.get(tc);
+                final String json = tokenToJson.apply(token);
+                if (json == null) {
+                    put(string(token.getContent()), channel);
+                } else {
+                    put(json.getBytes(StandardCharsets.UTF_8), channel);
+                }
+            }
+            put((byte) ']', channel);
+            cell.clear();
+        }
+        put((byte) ']', channel);
+    }
+
+    private byte[] string(String str) {
+        return strings.computeIfAbsent(str, SimpleJsonTableWriter::quote);
+    }
+
+    /**
+     * Quotes a string as JSON, escaping the same characters as the generators of the Java API for JSON Processing.
+     */
+    static byte[] quote(String str) {
+        final StringBuilder quoted = new StringBuilder(str.length() + 2).append('"');
+        for (int cc = 0, cl = str.length(); cc < cl; cc++) {
+            final char c = str.charAt(cc);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                quoted.append(c);
+                continue;
+            }
+            switch (c) {
+                case '"':
+                case '\\':
+                    quoted.append('\\').append(c);
+                    break;
+                case '\b':
+                    quoted.append("\\b");
+                    break;
+                case '\f':
+                    quoted.append("\\f");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    quoted.append("\\u00").append((char) HEX[c >> 4]).append((char) HEX[c & 0xf]);
+            }
+        }
+        return quoted.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void put(byte b, WritableByteChannel channel) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush(channel);
+        }
+        buffer.put(b);
+    }
+
+    private void put(String ascii, WritableByteChannel channel) throws IOException {
+        put(ascii.getBytes(StandardCharsets.US_ASCII), channel);
+    }
+
+    private void put(byte[] bytes, WritableByteChannel channel) throws IOException {
+        for (int offset = 0; offset < bytes.length; ) {
+            if (!buffer.hasRemaining()) {
+                flush(channel);
+            }
+            final int length = Math.min(bytes.length - offset, buffer.remaining());
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    private void flush(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -19,14 +19,21 @@
 
 package eu.interedition.collatex.simple;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
+ * Tokenizers splitting a text into the contents of its tokens.
+ * <p>
+ * Tokens are found lazily while the resulting stream is consumed. The built-in tokenizers are backed by a
+ * {@link SimpleTokenScanner}, which can also be applied to readers and reports the offsets of tokens.
+ *
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  * @author Ronald Haentjens Dekker
  */
@@ -37,18 +44,38 @@ public class SimplePatternTokenizer {
     static Function<String, Stream<String>> tokenizer(Pattern pattern) {
         return input -> {
             final Matcher matcher = pattern.matcher(input);
-            final List<String> tokens = new LinkedList<>();
-            while (matcher.find()) {
-                tokens.add(input.substring(matcher.start(), matcher.end()));
-            }
-            return tokens.stream();
+            return StreamSupport.stream(new Spliterators.AbstractSpliterator<String>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super String> action) {
+                    if (!matcher.find()) {
+                        return false;
+                    }
+                    action.accept(input.substring(matcher.start(), matcher.end()));
+                    return true;
+                }
+            }, false);
         };
     }
 
-    public static final Function<String, Stream<String>> BY_WHITESPACE = tokenizer(Pattern.compile("\\s*?\\S+\\s*]"));
+    static Function<String, Stream<String>> tokenizer(SimpleTokenScanner.Rule rule) {
+        return input -> SimpleTokenScanner.of(input, rule).contents();
+    }
+
+    /**
+     * Splits at whitespace, which is attached to the preceding token; equivalent to <code>\s*?\S+\s*</code>.
+     */
+    public static final Function<String, Stream<String>> BY_WHITESPACE = tokenizer(SimpleTokenScanner.Rule.BY_WHITESPACE);
 
-    public static final Function<String, Stream<String>> BY_WS_AND_PUNCT = tokenizer(Pattern.compile("[\\s" + PUNCT + "]*?[^\\s" + PUNCT + "]+[\\s" + PUNCT + "]*"));
+    /**
+     * Splits at whitespace and punctuation, which are attached to the preceding token; equivalent to
+     * <code>[\s.?!,;:]*?[^\s.?!,;:]+[\s.?!,;:]*</code>.
+     */
+    public static final Function<String, Stream<String>> BY_WS_AND_PUNCT = tokenizer(SimpleTokenScanner.Rule.BY_WS_AND_PUNCT);
 
-    public static final Function<String, Stream<String>> BY_WS_OR_PUNCT = tokenizer(Pattern.compile("[" + PUNCT + "]+[\\s]*|[^" + PUNCT + "\\s]+[\\s]*"));
+    /**
+     * Splits at whitespace, attached to the preceding token, and separates runs of punctuation from words; equivalent
+     * to <code>[.?!,;:]+\s*|[^.?!,;:\s]+\s*</code>.
+     */
+    public static final Function<String, Stream<String>> BY_WS_OR_PUNCT = tokenizer(SimpleTokenScanner.Rule.BY_WS_OR_PUNCT);
 
-}
\ No newline at end of file
+}
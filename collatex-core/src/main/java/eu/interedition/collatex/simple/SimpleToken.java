@@ -32,6 +32,7 @@ public class SimpleToken implements Token, Comparable<SimpleToken> {
     private final SimpleWitness witness;
     private final String content;
     private final String normalized;
+    private int index = -1;
 
     public SimpleToken(SimpleWitness witness, String content, String normalized) {
         this.witness = witness;
@@ -52,9 +53,24 @@ public class SimpleToken implements Token, Comparable<SimpleToken> {
         return normalized;
     }
 
+    /**
+     * @return the position of this token in its witness, or <code>-1</code> if it has not been added to the witness yet
+     */
+    public int getIndex() {
+        return witness.indexOf(this);
+    }
+
+    int getAssignedIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
     @Override
     public String toString() {
-        return witness.toString() + ":" + witness.getTokens().indexOf(this) + ":'" + normalized + "'";
+        return witness.toString() + ":" + getIndex() + ":'" + normalized + "'";
     }
 
     public static String toString(Iterable<? extends Token> tokens) {
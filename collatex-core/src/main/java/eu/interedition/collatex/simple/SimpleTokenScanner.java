@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily splits a text into tokens according to one of the built-in {@link SimplePatternTokenizer tokenization rules}.
+ * <p>
+ * The scanner is a cursor: every call to {@link #next()} advances it to the next token, whose position in the text is
+ * given by {@link #start()} and {@link #end()}. The token's characters are only copied when its {@link #content()} is
+ * requested. Texts can be given as a {@link CharSequence}, e. g. a memory-mapped {@link CharBuffer}, or as a
+ * {@link Reader}, which is read incrementally, keeping only the characters of the current token in memory.
+ * <p>
+ * The rules are implemented by hand and yield the same tokens as the corresponding regular expressions, without
+ * resorting to <code>java.util.regex</code>.
+ */
+public class SimpleTokenScanner {
+
+    public enum Rule {
+        /**
+         * Runs of non-whitespace characters, followed by trailing whitespace; <code>\s*?\S+\s*</code>
+         */
+        BY_WHITESPACE,
+
+        /**
+         * Runs of characters other than whitespace and punctuation, followed by trailing whitespace and punctuation;
+         * <code>[\s.?!,;:]*?[^\s.?!,;:]+[\s.?!,;:]*</code>
+         */
+        BY_WS_AND_PUNCT,
+
+        /**
+         * Runs of either punctuation or other non-whitespace characters, followed by trailing whitespace;
+         * <code>[.?!,;:]+\s*|[^.?!,;:\s]+\s*</code>
+         */
+        BY_WS_OR_PUNCT
+    }
+
+    private final Rule rule;
+    private final Source source;
+
+    private int position = 0;
+    private int start = -1;
+    private int end = -1;
+
+    SimpleTokenScanner(Source source, Rule rule) {
+        this.source = source;
+        this.rule = rule;
+    }
+
+    public static SimpleTokenScanner of(CharSequence text, Rule rule) {
+        return new SimpleTokenScanner(new CharSequenceSource(text), rule);
+    }
+
+    public static SimpleTokenScanner of(Reader reader, Rule rule) {
+        return new SimpleTokenScanner(new ReaderSource(reader), rule);
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return <code>false</code> if the end of the text has been reached
+     * @throws UncheckedIOException if the underlying reader fails
+     */
+    public boolean next() {
+        source.release(position);
+        int i = position;
+        int c;
+        if (rule == Rule.BY_WS_OR_PUNCT) {
+            while (isWhitespace(c = source.charAt(i))) {
+                i++;
+            }
+            if (c < 0) {
+                return end(i);
+            }
+            start = i;
+            if (isPunctuation(c)) {
+                do {
+                    i++;
+                } while (isPunctuation(source.charAt(i)));
+            } else {
+                do {
+                    c = source.charAt(++i);
+                } while (c >= 0 && !isWhitespace(c) && !isPunctuation(c));
+            }
+            while (isWhitespace(source.charAt(i))) {
+                i++;
+            }
+        } else {
+            final boolean punctuation = (rule == Rule.BY_WS_AND_PUNCT);
+            while (isSeparator(c = source.charAt(i), punctuation)) {
+                i++;
+            }
+            if (c < 0) {
+                return end(i);
+            }
+            start = position;
+            do {
+                c = source.charAt(++i);
+            } while (c >= 0 && !isSeparator(c, punctuation));
+            while (isSeparator(source.charAt(i), punctuation)) {
+                i++;
+            }
+        }
+        end = position = i;
+        return true;
+    }
+
+    private boolean end(int position) {
+        this.position = position;
+        this.start = this.end = -1;
+        return false;
+    }
+
+    /**
+     * @return the offset of the current token's first character in the text
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * @return the offset following the current token's last character in the text
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * @return a view of the current token's characters, which is only valid until the scanner is advanced
+     */
+    public CharSequence token() {
+        if (start < 0) {
+            throw new IllegalStateException();
+        }
+        return source.subSequence(start, end);
+    }
+
+    /**
+     * @return a copy of the current token's characters
+     */
+    public String content() {
+        return token().toString();
+    }
+
+    /**
+     * @return the contents of the remaining tokens, lazily scanned as the stream is consumed
+     */
+    public Stream<String> contents() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Iterator<String>() {
+
+            Boolean hasNext = null;
+
+            @Override
+            public boolean hasNext() {
+                if (hasNext == null) {
+                    hasNext = SimpleTokenScanner.this.next();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                hasNext = null;
+                return content();
+            }
+        }, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * The whitespace characters matched by <code>\s</code>.
+     */
+    static boolean isWhitespace(int c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static boolean isPunctuation(int c) {
+        switch (c) {
+            case '.':
+            case '?':
+            case '!':
+            case ',':
+            case ';':
+            case ':':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isSeparator(int c, boolean punctuation) {
+        return isWhitespace(c) || (punctuation && isPunctuation(c));
+    }
+
+    /**
+     * Random access to the characters of a text, addressed by their offset from the start of the text.
+     */
+    abstract static class Source {
+
+        /**
+         * @return the character at the given offset, or <code>-1</code> past the end of the text
+         */
+        abstract int charAt(int offset);
+
+        abstract CharSequence subSequence(int start, int end);
+
+        /**
+         * Signals that characters in front of the given offset will no longer be accessed.
+         */
+        void release(int offset) {
+        }
+    }
+
+    static class CharSequenceSource extends Source {
+
+        private final CharSequence text;
+        private final int length;
+
+        CharSequenceSource(CharSequence text) {
+            this.text = text;
+            this.length = text.length();
+        }
+
+        @Override
+        int charAt(int offset) {
+            return (offset < length ? text.charAt(offset) : -1);
+        }
+
+        @Override
+        CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+    }
+
+    /**
+     * A window over the characters of a reader, from the oldest offset still in use up to the last one read.
+     */
+    static class ReaderSource extends Source {
+
+        private final Reader reader;
+        private char[] buffer = new char[8192];
+        private int base = 0;
+        private int limit = 0;
+        private int released = 0;
+        private boolean eof = false;
+
+        ReaderSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        int charAt(int offset) {
+            while (offset >= base + limit) {
+                if (eof || !fill()) {
+                    return -1;
+                }
+            }
+            return buffer[offset - base];
+        }
+
+        @Override
+        CharSequence subSequence(int start, int end) {
+            return CharBuffer.wrap(buffer, start - base, end - start).slice();
+        }
+
+        @Override
+        void release(int offset) {
+            released = Math.max(released, offset);
+        }
+
+        private boolean fill() {
+            final int discard = released - base;
+            if (discard > 0) {
+                System.arraycopy(buffer, discard, buffer, 0, limit - discard);
+                base += discard;
+                limit -= discard;
+            }
+            if (limit == buffer.length) {
+                final char[] grown = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, limit);
+                buffer = grown;
+            }
+            try {
+                final int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    eof = true;
+                    return false;
+                }
+                limit += read;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -51,6 +51,11 @@ public class SimpleVariantGraphSerializer {
      */
     protected static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
 
+    /**
+     * The SVG namespace.
+     */
+    protected static final String SVG_NS = "http://www.w3.org/2000/svg";
+
     private final VariantGraph graph;
     private final Function<Iterable<Token>, String> tokensToString;
     private final Map<VariantGraph.Vertex, Integer> vertexIds = new HashMap<>();
@@ -240,7 +245,11 @@ public class SimpleVariantGraphSerializer {
     }
 
     String toDotLabel(Set<Witness> e) {
-        return escapeDotLabel(e.stream().map(Witness::getSigil).distinct().sorted().collect(Collectors.joining(", ")));
+        return escapeDotLabel(toLabel(e));
+    }
+
+    static String toLabel(Set<Witness> e) {
+        return e.stream().map(Witness::getSigil).distinct().sorted().collect(Collectors.joining(", "));
     }
 
     String toDotLabel(VariantGraph.Vertex v) {
@@ -248,7 +257,144 @@ public class SimpleVariantGraphSerializer {
     }
 
     static String escapeDotLabel(String string) {
-        return string.replaceAll("\"", "\\\\\"").replaceAll("[\n\r]+", "\u00B6");
+        return LINE_BREAKS.matcher(string.replaceAll("\"", "\\\\\"")).replaceAll("\u00B6");
+    }
+
+    private static final Pattern LINE_BREAKS = Pattern.compile("[\n\r]+");
+
+    /**
+     * Renders the graph as SVG in a layered layout, from left to right, without resorting to Graphviz.
+     *
+     * @see VariantGraphLayout
+     */
+    public void toSVG(XMLStreamWriter xml) throws XMLStreamException {
+        final Map<Set<Witness>, String> edgeLabels = new HashMap<>();
+        final VariantGraphLayout layout = new VariantGraphLayout(graph, ranking(),
+            v -> LINE_BREAKS.matcher(vertexToString.apply(v)).replaceAll("\u00B6"),
+            witnesses -> edgeLabels.computeIfAbsent(witnesses, SimpleVariantGraphSerializer::toLabel)
+        );
+        final Map<VariantGraph.Vertex, VariantGraphLayout.Node> nodes = new HashMap<>();
+        for (VariantGraphLayout.Node node : layout.nodes) {
+            if (node.vertex != null) {
+                nodes.put(node.vertex, node);
+            }
+        }
+
+        xml.writeStartElement("", "svg", SVG_NS);
+        xml.writeNamespace("", SVG_NS);
+        xml.writeAttribute("width", svgCoordinate(layout.width) + "pt");
+        xml.writeAttribute("height", svgCoordinate(layout.height) + "pt");
+        xml.writeAttribute("viewBox", "0 0 " + svgCoordinate(layout.width) + " " + svgCoordinate(layout.height));
+
+        xml.writeStartElement(SVG_NS, "g");
+        xml.writeAttribute(ID_ATT, "VariantGraph");
+        xml.writeAttribute("class", "graph");
+        xml.writeAttribute("font-family", "Times,serif");
+        xml.writeAttribute("font-size", svgCoordinate(VariantGraphLayout.FONT_SIZE));
+
+        for (Tuple<VariantGraph.Vertex> transposedTuple : transposedTuples()) {
+            final VariantGraphLayout.Node left = nodes.get(transposedTuple.left);
+            final VariantGraphLayout.Node right = nodes.get(transposedTuple.right);
+            xml.writeEmptyElement(SVG_NS, "path");
+            xml.writeAttribute("class", "transposition");
+            xml.writeAttribute("fill", "none");
+            xml.writeAttribute("stroke", "lightgray");
+            xml.writeAttribute("stroke-dasharray", "5,2");
+            xml.writeAttribute("d", "M" + svgPoint(left.x, left.y) + " L" + svgPoint(right.x, right.y));
+        }
+
+        for (VariantGraphLayout.Edge edge : layout.edges) {
+            xml.writeStartElement(SVG_NS, "g");
+            xml.writeAttribute("class", "edge");
+            xml.writeStartElement(SVG_NS, "title");
+            xml.writeCharacters(id(edge.from.vertex) + "->" + id(edge.to.vertex));
+            xml.writeEndElement();
+
+            final double tipX = edge.to.x - edge.to.width / 2;
+            final double startX = edge.from.x + edge.from.width / 2;
+            double x = startX;
+            double y = edge.from.y;
+            final StringBuilder path = new StringBuilder("M").append(svgPoint(x, y));
+            for (VariantGraphLayout.Node route : edge.route) {
+                svgCurve(path, x, y, layout.left(route), route.y);
+                x = layout.right(route);
+                y = route.y;
+                path.append(" L").append(svgPoint(x, y));
+            }
+            svgCurve(path, x, y, tipX - VariantGraphLayout.ARROW_LENGTH, edge.to.y);
+
+            xml.writeEmptyElement(SVG_NS, "path");
+            xml.writeAttribute("fill", "none");
+            xml.writeAttribute("stroke", "black");
+            xml.writeAttribute("d", path.toString());
+
+            xml.writeEmptyElement(SVG_NS, "polygon");
+            xml.writeAttribute("fill", "black");
+            xml.writeAttribute("stroke", "black");
+            xml.writeAttribute("points", String.join(" ",
+                svgPoint(tipX, edge.to.y),
+                svgPoint(tipX - VariantGraphLayout.ARROW_LENGTH, edge.to.y - VariantGraphLayout.ARROW_LENGTH / 3),
+                svgPoint(tipX - VariantGraphLayout.ARROW_LENGTH, edge.to.y + VariantGraphLayout.ARROW_LENGTH / 3)
+            ));
+
+            final VariantGraphLayout.Node next = (edge.route.isEmpty() ? edge.to : edge.route.get(0));
+            final double nextX = (edge.route.isEmpty() ? tipX : layout.left(next));
+            xml.writeStartElement(SVG_NS, "text");
+            xml.writeAttribute("text-anchor", "middle");
+            xml.writeAttribute("x", svgCoordinate((startX + nextX) / 2));
+            xml.writeAttribute("y", svgCoordinate((edge.from.y + next.y) / 2 - 4));
+            xml.writeCharacters(edge.label);
+            xml.writeEndElement();
+
+            xml.writeEndElement();
+        }
+
+        for (VariantGraphLayout.Node node : layout.nodes) {
+            if (node.vertex == null) {
+                continue;
+            }
+            xml.writeStartElement(SVG_NS, "g");
+            xml.writeAttribute(ID_ATT, id(node.vertex));
+            xml.writeAttribute("class", "node");
+            xml.writeStartElement(SVG_NS, "title");
+            xml.writeCharacters(id(node.vertex));
+            xml.writeEndElement();
+
+            xml.writeEmptyElement(SVG_NS, "ellipse");
+            xml.writeAttribute("fill", "none");
+            xml.writeAttribute("stroke", "black");
+            xml.writeAttribute("cx", svgCoordinate(node.x));
+            xml.writeAttribute("cy", svgCoordinate(node.y));
+            xml.writeAttribute("rx", svgCoordinate(node.width / 2));
+            xml.writeAttribute("ry", svgCoordinate(node.height / 2));
+
+            xml.writeStartElement(SVG_NS, "text");
+            xml.writeAttribute("text-anchor", "middle");
+            xml.writeAttribute("x", svgCoordinate(node.x));
+            xml.writeAttribute("y", svgCoordinate(node.y + VariantGraphLayout.FONT_SIZE / 3));
+            xml.writeCharacters(node.label);
+            xml.writeEndElement();
+
+            xml.writeEndElement();
+        }
+
+        xml.writeEndElement();
+        xml.writeEndElement();
+    }
+
+    private static void svgCurve(StringBuilder path, double fromX, double fromY, double toX, double toY) {
+        final double controlX = (fromX + toX) / 2;
+        path.append(" C").append(svgPoint(controlX, fromY))
+            .append(" ").append(svgPoint(controlX, toY))
+            .append(" ").append(svgPoint(toX, toY));
+    }
+
+    private static String svgPoint(double x, double y) {
+        return svgCoordinate(x) + "," + svgCoordinate(y);
+    }
+
+    private static String svgCoordinate(double coordinate) {
+        return Long.toString(Math.round(coordinate));
     }
 
     VariantGraphRanking ranking() {
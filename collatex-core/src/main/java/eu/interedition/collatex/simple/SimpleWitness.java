@@ -25,18 +25,36 @@ import eu.interedition.collatex.Witness;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Function;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+/**
+ * A witness of simple tokens.
+ * <p>
+ * Witnesses whose tokens are created from their contents and a {@link TokenVocabulary} are held in a compact form:
+ * arrays with the vocabulary ids of the tokens' contents and normalized forms, and optionally with the offsets of
+ * the tokens in the witness text. Token objects are materialized from this form when they are first accessed.
+ * <p>
+ * Witnesses can be read concurrently, as the materialization of tokens is synchronized; modifying a witness, via
+ * {@link #getTokens()} or any of its setters, is not thread-safe.
+ */
 public class SimpleWitness implements Iterable<Token>, Witness, Comparator<SimpleToken> {
 
     private final String sigil;
     private final List<Token> tokens = new ArrayList<>();
 
+    private TokenVocabulary vocabulary;
+    private int[] contentIds;
+    private int[] normalizedIds;
+    private int[] offsets;
+    private boolean materialized = true;
+
     public SimpleWitness(String sigil) {
         this.sigil = sigil;
     }
@@ -49,21 +67,105 @@ public class SimpleWitness implements Iterable<Token>, Witness, Comparator<Simpl
                          String content,
                          Function<String, Stream<String>> tokenizer,
                          Function<String, String> normalizer) {
+        this(sigil, content, tokenizer, normalizer, new TokenVocabulary());
+    }
+
+    public SimpleWitness(String sigil,
+                         String content,
+                         Function<String, Stream<String>> tokenizer,
+                         Function<String, String> normalizer,
+                         TokenVocabulary vocabulary) {
         this(sigil);
-        setTokenContents(tokenizer.apply(content), normalizer);
+        setTokenContents(tokenizer.apply(content), normalizer, vocabulary);
+        this.offsets = offsets(content);
+    }
+
+    /**
+     * @return the number of tokens in this witness; their compact form is not materialized
+     */
+    public synchronized int size() {
+        return (materialized ? tokens.size() : contentIds.length);
+    }
+
+    /**
+     * @return an unmodifiable view of this witness' tokens; unlike {@link #getTokens()}, the witness' compact form is
+     *         retained
+     */
+    public List<Token> tokens() {
+        materialize();
+        return Collections.unmodifiableList(tokens);
     }
 
+    /**
+     * @return the modifiable list of this witness' tokens; as it might be modified, the witness' compact form is
+     *         discarded
+     * @see #tokens()
+     */
     public List<Token> getTokens() {
+        materialize();
+        vocabulary = null;
+        contentIds = normalizedIds = offsets = null;
         return tokens;
     }
 
+    /**
+     * @return the vocabulary ids of the tokens' normalized forms, or <code>null</code> if the tokens have not been
+     *         created from their contents and a vocabulary
+     */
+    public int[] getTokenIds() {
+        return normalizedIds;
+    }
+
+    /**
+     * @return the offsets of the tokens in the witness text, or <code>null</code> if the tokens have not been created
+     *         from a text they are a tokenization of
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    public TokenVocabulary getVocabulary() {
+        return vocabulary;
+    }
+
     public void setTokenContents(Stream<String> tokenContents, Function<String, String> normalizer) {
-        setTokens(tokenContents.map(content -> new SimpleToken(SimpleWitness.this, content, normalizer.apply(content))).collect(Collectors.toList()));
+        setTokenContents(tokenContents, normalizer, new TokenVocabulary());
+    }
+
+    /**
+     * Sets the tokens in compact form, as ids of their content and normalized forms in the given vocabulary; each
+     * distinct content is normalized only once.
+     */
+    public void setTokenContents(Stream<String> tokenContents, Function<String, String> normalizer, TokenVocabulary vocabulary) {
+        final Map<Integer, Integer> normalized = new HashMap<>();
+        final IntStream.Builder contents = IntStream.builder();
+        final IntStream.Builder normalizedForms = IntStream.builder();
+        tokenContents.forEach(content -> {
+            final int contentId = vocabulary.id(content);
+            contents.add(contentId);
+            normalizedForms.add(normalized.computeIfAbsent(contentId, id -> vocabulary.id(normalizer.apply(content))));
+        });
+
+        this.tokens.clear();
+        this.vocabulary = vocabulary;
+        this.contentIds = contents.build().toArray();
+        this.normalizedIds = normalizedForms.build().toArray();
+        this.offsets = null;
+        this.materialized = false;
     }
 
     public void setTokens(List<Token> tokens) {
+        this.vocabulary = null;
+        this.contentIds = this.normalizedIds = this.offsets = null;
+        this.materialized = true;
         this.tokens.clear();
         this.tokens.addAll(tokens);
+        for (int tc = 0, tl = this.tokens.size(); tc < tl; tc++) {
+            final Token token = this.tokens.get(tc);
+            if (token instanceof SimpleToken && ((SimpleToken) token).getWitness() == this) {
+                ((SimpleToken) token).setIndex(tc);
+            }
+        }
     }
 
     @Override
@@ -73,7 +175,38 @@ public class SimpleWitness implements Iterable<Token>, Witness, Comparator<Simpl
 
     @Override
     public Iterator<Token> iterator() {
-        return Collections.unmodifiableList(tokens).iterator();
+        return tokens().iterator();
+    }
+
+    private synchronized void materialize() {
+        if (materialized) {
+            return;
+        }
+        for (int tc = 0; tc < contentIds.length; tc++) {
+            final SimpleToken token = new SimpleToken(this, vocabulary.form(contentIds[tc]), vocabulary.form(normalizedIds[tc]));
+            token.setIndex(tc);
+            tokens.add(token);
+        }
+        materialized = true;
+    }
+
+    /**
+     * @return the offsets of the tokens' contents in the given text, or <code>null</code> if the token contents do
+     *         not occur in the text in order
+     */
+    private int[] offsets(String text) {
+        final int[] offsets = new int[contentIds.length];
+        int offset = 0;
+        for (int tc = 0; tc < contentIds.length; tc++) {
+            final String content = vocabulary.form(contentIds[tc]);
+            offset = text.indexOf(content, offset);
+            if (offset < 0) {
+                return null;
+            }
+            offsets[tc] = offset;
+            offset += content.length();
+        }
+        return offsets;
     }
 
     @Override
@@ -81,10 +214,23 @@ public class SimpleWitness implements Iterable<Token>, Witness, Comparator<Simpl
         return getSigil();
     }
 
+    /**
+     * @return the position of the given token in this witness, or <code>-1</code> if it is not part of it
+     */
+    int indexOf(SimpleToken token) {
+        materialize();
+        final int index = token.getAssignedIndex();
+        if (index >= 0 && index < tokens.size() && tokens.get(index) == token) {
+            return index;
+        }
+        // the token list has been modified directly
+        return tokens.indexOf(token);
+    }
+
     @Override
     public int compare(SimpleToken o1, SimpleToken o2) {
-        final int o1Index = tokens.indexOf(o1);
-        final int o2Index = tokens.indexOf(o2);
+        final int o1Index = indexOf(o1);
+        final int o2Index = indexOf(o2);
         if (o1Index < 0) {
             throw new IllegalArgumentException(o1.toString());
         }
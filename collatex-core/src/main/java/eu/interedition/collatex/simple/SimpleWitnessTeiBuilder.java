@@ -20,94 +20,126 @@
 package eu.interedition.collatex.simple;
 
 import javax.xml.namespace.QName;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
-// we are going to use stax
-// previous version was build on DOM, which is not particularly well suited to parsing
-// large TEI files, with segments and expansions
+/**
+ * Reads the tokens of a witness from a TEI document, one token per <code>&lt;w&gt;</code> and
+ * <code>&lt;seg&gt;</code> element.
+ * <p>
+ * The document is streamed through the cursor API of StAX; the interned contents of tokens are collected as their
+ * elements end, and set as the witness' {@link SimpleWitness#setTokenContents compact form}, normalizing each
+ * distinct content once.
+ */
 public class SimpleWitnessTeiBuilder {
 
-    private static QName w = new QName("http://www.tei-c.org/ns/1.0", "w");
-    private static QName seg = new QName("http://www.tei-c.org/ns/1.0", "seg");
-    private static QName p = new QName("http://www.tei-c.org/ns/1.0", "p");
+    private static final String TEI_NS = "http://www.tei-c.org/ns/1.0";
+
+    private static QName w = new QName(TEI_NS, "w");
+    private static QName seg = new QName(TEI_NS, "seg");
+
+    private final XMLInputFactory factory;
+
+    public SimpleWitnessTeiBuilder() {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
 
     public SimpleWitness read(InputStream input) throws XMLStreamException {
-        SimpleWitness witness = new SimpleWitness("id");
-        List<String> tokenContents = new ArrayList<>();
-        XMLInputFactory factory = XMLInputFactory.newInstance();
-        XMLEventReader reader = factory.createXMLEventReader(input);
-        XMLEvent event = null;
-        int numberOfParagraphs = 0;
-        while ((event = reader.peek()) != null && numberOfParagraphs < 10) {
-            // System.out.println(event.toString());
-            if (event.isStartElement() && event.asStartElement().getName().equals(w)) {
-                tokenContents.add(handleWElement(reader));
-            } else if (event.isStartElement() && event.asStartElement().getName().equals(seg)) {
-                tokenContents.add(handleSegElement(reader));
-            } else if (event.isStartElement() && event.asStartElement().getName().equals(p)) {
-                reader.next();
-                numberOfParagraphs++;
-            } else {
-                reader.next();
-            }
-        }
-        witness.setTokenContents(tokenContents.stream(), SimpleTokenNormalizers.LC_TRIM_WS_PUNCT);
-        return witness;
+        return read(input, "id", SimpleTokenNormalizers.LC_TRIM_WS_PUNCT, new TokenVocabulary());
     }
 
-    private static String handleWElement(XMLEventReader reader) throws XMLStreamException {
-        XMLEvent event = reader.nextEvent();
-        // Do what you need to do with the start element, e.g. initialize
-        // data structures
-        // System.out.println("W tag is triggered here!");
-        StringBuilder textBuffer = new StringBuilder();
-        while ((event = reader.peek()) != null) {
-            if (event.isEndElement() && event.asEndElement().getName().equals(w)) {
-                // Do what you need to do at the end, e.g. add data
-                // collected from sub elements, etc.
-                event = reader.nextEvent();
-                break;
-            }
+    public SimpleWitness read(InputStream input, String sigil, Function<String, String> normalizer, TokenVocabulary vocabulary) throws XMLStreamException {
+        final SimpleWitness witness = new SimpleWitness(sigil);
+        final List<String> contents = new ArrayList<>();
+        final StringBuilder textBuffer = new StringBuilder();
 
-            // Do what you need to do for start or child elements, e.g.
-            // dispatch to another handler function
-            event = reader.nextEvent();
-            textBuffer.append(event.toString());
-            // System.out.println("Text :"+event.toString());
+        final XMLStreamReader reader = factory.createXMLStreamReader(input);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                final boolean isW = isElement(reader, w);
+                if (!isW && !isElement(reader, seg)) {
+                    continue;
+                }
+                textBuffer.setLength(0);
+                if (isW) {
+                    readWElement(reader, textBuffer);
+                } else {
+                    readSegElement(reader, textBuffer);
+                }
+                contents.add(vocabulary.intern(textBuffer.toString()));
+            }
+        } finally {
+            reader.close();
         }
+        witness.setTokenContents(contents.stream(), normalizer, vocabulary);
+        return witness;
+    }
 
-        return textBuffer.toString();
+    private static boolean isElement(XMLStreamReader reader, QName name) {
+        return name.getLocalPart().equals(reader.getLocalName()) && name.getNamespaceURI().equals(reader.getNamespaceURI());
     }
 
-    private static String handleSegElement(XMLEventReader reader) throws XMLStreamException {
-        XMLEvent event = reader.nextEvent();
-        // Do what you need to do with the start element, e.g. initialize
-        // data structures
-        // System.out.println("Seg tag is triggered here!");
-        StringBuilder textBuffer = new StringBuilder();
-        while ((event = reader.peek()) != null) {
-            if (event.isEndElement() && event.asEndElement().getName().equals(seg)) {
-                // Do what you need to do at the end, e.g. add data
-                // collected from sub elements, etc.
-                event = reader.nextEvent();
-                break;
+    /**
+     * Collects the text of a <code>&lt;w&gt;</code> element and its descendants, positioning the reader at its end tag.
+     */
+    private static void readWElement(XMLStreamReader reader, StringBuilder textBuffer) throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    textBuffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    textBuffer.append(reader.getText());
+                    break;
             }
+        }
+    }
 
-            // Do what you need to do for start or child elements, e.g.
-            // dispatch to another handler function
-            event = reader.nextEvent();
-            if (event.getEventType() == XMLEvent.CHARACTERS) {
-                textBuffer.append(event.toString().trim());
+    /**
+     * Collects the text of a <code>&lt;seg&gt;</code> element and its descendants, trimming every text node,
+     * and positions the reader at its end tag.
+     */
+    private static void readSegElement(XMLStreamReader reader, StringBuilder textBuffer) throws XMLStreamException {
+        for (int depth = 1; depth > 0; ) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                    final char[] text = reader.getTextCharacters();
+                    int start = reader.getTextStart();
+                    int end = start + reader.getTextLength();
+                    while (start < end && text[start] <= ' ') {
+                        start++;
+                    }
+                    while (end > start && text[end - 1] <= ' ') {
+                        end--;
+                    }
+                    textBuffer.append(text, start, end - start);
+                    break;
             }
-
         }
-        return textBuffer.toString();
     }
 }
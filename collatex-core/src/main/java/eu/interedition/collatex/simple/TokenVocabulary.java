@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.Token;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct word forms of a collation, each identified by a dense integer id.
+ * <p>
+ * Witnesses sharing a vocabulary hold their tokens as arrays of vocabulary ids, and materialize tokens with one string
+ * instance per distinct content and normalized form, so that heap use grows with the size of the vocabulary rather than
+ * with the number of tokens. The ids of normalized forms provide an integer alphabet for matching tokens.
+ */
+public class TokenVocabulary {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> forms = new ArrayList<>();
+
+    /**
+     * @return the id of the given form, which is added to the vocabulary if it is not yet part of it
+     */
+    public int id(String form) {
+        Integer id = ids.get(form);
+        if (id == null) {
+            ids.put(form, id = forms.size());
+            forms.add(form);
+        }
+        return id;
+    }
+
+    public String form(int id) {
+        return forms.get(id);
+    }
+
+    /**
+     * @return the vocabulary's instance of the given form
+     */
+    public String intern(String form) {
+        return forms.get(id(form));
+    }
+
+    public int size() {
+        return forms.size();
+    }
+
+    /**
+     * @return the ids of the given tokens' normalized forms
+     */
+    public int[] encode(List<? extends Token> tokens) {
+        final int[] encoded = new int[tokens.size()];
+        for (int tc = 0; tc < encoded.length; tc++) {
+            encoded[tc] = id(((SimpleToken) tokens.get(tc)).getNormalized());
+        }
+        return encoded;
+    }
+}
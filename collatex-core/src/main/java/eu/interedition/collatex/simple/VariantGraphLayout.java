@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.Witness;
+import eu.interedition.collatex.util.VariantGraphRanking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * A layered layout of a variant graph, drawn from left to right.
+ * <p>
+ * The ranks of the vertices determine their layers. Edges spanning several ranks are routed through auxiliary nodes
+ * in the layers in between. Nodes are ordered within their layer by repeated sweeps of the barycenter heuristic, so
+ * crossings of edges are reduced, and then placed as close as possible to their predecessors.
+ */
+class VariantGraphLayout {
+
+    static final double FONT_SIZE = 14;
+    static final double NODE_HEIGHT = 36;
+    static final double ARROW_LENGTH = 10;
+    static final double MARGIN = 20;
+
+    private static final double CHAR_WIDTH = 7.5;
+    private static final double MIN_NODE_WIDTH = 36;
+    private static final double MIN_LAYER_GAP = 40;
+    private static final double NODE_GAP = 16;
+    private static final double ROUTE_HEIGHT = 8;
+    private static final int SWEEPS = 4;
+
+    final List<Node> nodes = new ArrayList<>();
+    final List<Edge> edges = new ArrayList<>();
+    final double width;
+    final double height;
+
+    private final List<List<Node>> layers = new ArrayList<>();
+    private final double[] layerLeft;
+    private final double[] layerRight;
+
+    VariantGraphLayout(VariantGraph graph, VariantGraphRanking ranking,
+                       Function<VariantGraph.Vertex, String> vertexLabels,
+                       Function<Set<Witness>, String> edgeLabels) {
+        final Map<VariantGraph.Vertex, Node> vertexNodes = new HashMap<>();
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            vertexNodes.put(vertex, add(new Node(vertex, vertexLabels.apply(vertex), ranking.apply(vertex))));
+        }
+
+        final double[] labelWidths = new double[layers.size()];
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            final Node from = vertexNodes.get(vertex);
+            for (Map.Entry<VariantGraph.Vertex, Set<Witness>> outgoing : vertex.outgoing().entrySet()) {
+                final Node to = vertexNodes.get(outgoing.getKey());
+                final Edge edge = new Edge(from, to, edgeLabels.apply(outgoing.getValue()));
+                Node predecessor = from;
+                for (int layer = from.layer + 1; layer < to.layer; layer++) {
+                    final Node route = add(new Node(null, "", layer));
+                    connect(predecessor, route);
+                    edge.route.add(route);
+                    predecessor = route;
+                }
+                connect(predecessor, to);
+                edges.add(edge);
+                labelWidths[from.layer] = Math.max(labelWidths[from.layer], textWidth(edge.label));
+            }
+        }
+
+        for (int sweep = 0; sweep < SWEEPS; sweep++) {
+            for (int layer = 1; layer < layers.size(); layer++) {
+                order(layers.get(layer), true);
+            }
+            for (int layer = layers.size() - 2; layer >= 0; layer--) {
+                order(layers.get(layer), false);
+            }
+        }
+
+        layerLeft = new double[layers.size()];
+        layerRight = new double[layers.size()];
+        double x = MARGIN;
+        for (int layer = 0; layer < layers.size(); layer++) {
+            double layerWidth = 0;
+            for (Node node : layers.get(layer)) {
+                layerWidth = Math.max(layerWidth, node.width);
+            }
+            layerLeft[layer] = x;
+            layerRight[layer] = x + layerWidth;
+            for (Node node : layers.get(layer)) {
+                node.x = x + layerWidth / 2;
+            }
+            x += layerWidth + Math.max(MIN_LAYER_GAP, labelWidths[layer] + 2 * ARROW_LENGTH);
+        }
+        width = (layers.isEmpty() ? 2 * MARGIN : layerRight[layers.size() - 1] + MARGIN);
+
+        double top = Double.MAX_VALUE;
+        double bottom = -Double.MAX_VALUE;
+        for (List<Node> layer : layers) {
+            place(layer);
+            for (Node node : layer) {
+                top = Math.min(top, node.y - node.height / 2);
+                bottom = Math.max(bottom, node.y + node.height / 2);
+            }
+        }
+        for (Node node : nodes) {
+            node.y += MARGIN - top;
+        }
+        height = (nodes.isEmpty() ? 2 * MARGIN : bottom - top + 2 * MARGIN);
+    }
+
+    /**
+     * @return the horizontal extent of the given node's layer, through which edges routed across the layer pass
+     */
+    double left(Node node) {
+        return layerLeft[node.layer];
+    }
+
+    double right(Node node) {
+        return layerRight[node.layer];
+    }
+
+    static double textWidth(String text) {
+        return text.codePointCount(0, text.length()) * CHAR_WIDTH;
+    }
+
+    private Node add(Node node) {
+        while (layers.size() <= node.layer) {
+            layers.add(new ArrayList<>());
+        }
+        final List<Node> layer = layers.get(node.layer);
+        node.position = layer.size();
+        layer.add(node);
+        nodes.add(node);
+        return node;
+    }
+
+    private static void connect(Node from, Node to) {
+        from.successors.add(to);
+        to.predecessors.add(from);
+    }
+
+    /**
+     * Sorts the nodes of a layer by the mean position of their neighbours in the adjacent layer; nodes without such
+     * neighbours keep their position.
+     */
+    private static void order(List<Node> layer, boolean byPredecessors) {
+        for (Node node : layer) {
+            final List<Node> neighbours = (byPredecessors ? node.predecessors : node.successors);
+            if (neighbours.isEmpty()) {
+                node.barycenter = node.position;
+            } else {
+                double sum = 0;
+                for (Node neighbour : neighbours) {
+                    sum += neighbour.position;
+                }
+                node.barycenter = sum / neighbours.size();
+            }
+        }
+        layer.sort(Comparator.comparingDouble(n -> n.barycenter));
+        for (int position = 0; position < layer.size(); position++) {
+            layer.get(position).position = position;
+        }
+    }
+
+    /**
+     * Places the nodes of a layer at the mean vertical position of their predecessors, as far as their order and the
+     * required spacing between them permit.
+     */
+    private static void place(List<Node> layer) {
+        final double[] desired = new double[layer.size()];
+        double offset = 0;
+        int aligned = 0;
+        for (int nc = 0; nc < layer.size(); nc++) {
+            final Node node = layer.get(nc);
+            desired[nc] = Double.NaN;
+            if (!node.predecessors.isEmpty()) {
+                double sum = 0;
+                for (Node predecessor : node.predecessors) {
+                    sum += predecessor.y;
+                }
+                desired[nc] = sum / node.predecessors.size();
+            }
+            if (nc == 0) {
+                node.y = (Double.isNaN(desired[nc]) ? 0 : desired[nc]);
+            } else {
+                final Node previous = layer.get(nc - 1);
+                final double min = previous.y + (previous.height + node.height) / 2 + NODE_GAP;
+                node.y = (Double.isNaN(desired[nc]) ? min : Math.max(min, desired[nc]));
+            }
+            if (!Double.isNaN(desired[nc])) {
+                offset += desired[nc] - node.y;
+                aligned++;
+            }
+        }
+        if (aligned > 0) {
+            for (Node node : layer) {
+                node.y += offset / aligned;
+            }
+        }
+    }
+
+    static class Node {
+        final VariantGraph.Vertex vertex;
+        final String label;
+        final int layer;
+        final double width;
+        final double height;
+
+        final List<Node> predecessors = new ArrayList<>(2);
+        final List<Node> successors = new ArrayList<>(2);
+
+        int position;
+        double barycenter;
+        double x;
+        double y;
+
+        Node(VariantGraph.Vertex vertex, String label, int layer) {
+            this.vertex = vertex;
+            this.label = label;
+            this.layer = layer;
+            this.width = (vertex == null ? 0 : Math.max(MIN_NODE_WIDTH, textWidth(label) * 1.15 + 16));
+            this.height = (vertex == null ? ROUTE_HEIGHT : NODE_HEIGHT);
+        }
+    }
+
+    static class Edge {
+        final Node from;
+        final Node to;
+        final String label;
+
+        /**
+         * The auxiliary nodes through which this edge is routed, from left to right.
+         */
+        final List<Node> route = new ArrayList<>();
+
+        Edge(Node from, Node to, String label) {
+            this.from = from;
+            this.to = to;
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A token by which a running collation can be abandoned, either explicitly, when a deadline has passed, or when
+ * the collating thread is interrupted.
+ * <p>
+ * A token is bound to the collating thread for the duration of a collation, so that the algorithms can
+ * {@link #check() check} the {@link #current() current} token at phase boundaries and periodically within their long
+ * loops, without it being passed through every method. Collations run without a bound token cannot be cancelled.
+ */
+public final class Cancellation {
+
+    /**
+     * The token of collations which cannot be cancelled.
+     */
+    public static final Cancellation NONE = new Cancellation(false, 0);
+
+    private static final ThreadLocal<Cancellation> CURRENT = ThreadLocal.withInitial(() -> NONE);
+
+    private final boolean hasDeadline;
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    private Cancellation(boolean hasDeadline, long deadline) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return a token without deadline, which is cancelled explicitly or by interrupting the collating thread
+     */
+    public static Cancellation create() {
+        return new Cancellation(false, 0);
+    }
+
+    /**
+     * @param deadline the deadline in terms of {@link System#nanoTime()}
+     */
+    public static Cancellation withDeadline(long deadline) {
+        return new Cancellation(true, deadline);
+    }
+
+    public static Cancellation withTimeout(long timeout, TimeUnit unit) {
+        return withDeadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * @return the token bound to the current thread, {@link #NONE} if there is none
+     */
+    public static Cancellation current() {
+        return CURRENT.get();
+    }
+
+    public void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return (reason() != null);
+    }
+
+    /**
+     * @throws CancellationException if this token has been cancelled, stating why
+     */
+    public void check() {
+        final String reason = reason();
+        if (reason != null) {
+            throw new CancellationException(reason);
+        }
+    }
+
+    private String reason() {
+        if (this == NONE) {
+            return null;
+        }
+        if (cancelled) {
+            return "Collation cancelled";
+        }
+        if (hasDeadline && System.nanoTime() - deadline > 0) {
+            return "Collation deadline exceeded";
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            return "Collating thread interrupted";
+        }
+        return null;
+    }
+
+    /**
+     * Binds this token to the current thread while the given computation runs.
+     */
+    public <T> T call(Supplier<T> computation) {
+        final Cancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            check();
+            return computation.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void run(Runnable computation) {
+        call(() -> {
+            computation.run();
+            return null;
+        });
+    }
+}
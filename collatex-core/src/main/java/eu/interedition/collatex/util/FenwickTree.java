@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+/**
+ * Binary indexed tree over the positions <code>[0, size)</code>, used as an order-statistic set.
+ * <p>
+ * Every position starts out as a member of the set. Removing positions, counting the members
+ * in front of a position and selecting the n-th member are all O(log size).
+ */
+public class FenwickTree {
+    private final int[] tree;
+    private int size;
+
+    public FenwickTree(int size) {
+        this.tree = new int[size + 1];
+        for (int i = 1; i <= size; i++) {
+            tree[i]++;
+            final int parent = i + (i & -i);
+            if (parent <= size) {
+                tree[parent] += tree[i];
+            }
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return the number of positions still in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    public void remove(int position) {
+        for (int i = position + 1; i < tree.length; i += i & -i) {
+            tree[i]--;
+        }
+        size--;
+    }
+
+    /**
+     * @return the number of members at positions smaller than the given one
+     */
+    public int rank(int position) {
+        int count = 0;
+        for (int i = position; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    /**
+     * @return the position of the member with the given (zero-based) rank
+     */
+    public int select(int rank) {
+        int position = 0;
+        int remaining = rank + 1;
+        for (int step = Integer.highestOneBit(Math.max(1, tree.length - 1)); step > 0; step >>= 1) {
+            final int next = position + step;
+            if (next < tree.length && tree[next] < remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        return position;
+    }
+}
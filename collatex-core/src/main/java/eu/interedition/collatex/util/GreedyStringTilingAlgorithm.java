@@ -22,6 +22,7 @@ package eu.interedition.collatex.util;
 import eu.interedition.collatex.CollationAlgorithm;
 import eu.interedition.collatex.Token;
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.KeyedTokenComparator;
 
 import java.util.*;
 
@@ -31,6 +32,9 @@ import java.util.*;
  * <p>
  * Implements the Greedy String Tiling algorithm as proposed by Michael J. Wise in his paper:
  * "String Similarity via Greedy String Tiling and Running Karp-Rabin Matching"
+ * <p>
+ * Tokens are grouped into classes by their keys if the comparator is a {@link KeyedTokenComparator}; otherwise the
+ * comparator need not be transitive, so tokens are compared with the vertices of each rank pairwise.
  *
  * @author Arno Mittelbach
  * @author Lasse Lehmann
@@ -38,22 +42,16 @@ import java.util.*;
  */
 public class GreedyStringTilingAlgorithm extends CollationAlgorithm.Base {
 
-    private final Comparator<Token> comparator;
-    private final int minimumTileLength;
+    /**
+     * The length of matches searched for first; longer matches are found nevertheless, as the search length is raised
+     * to the length of the longest match found, if it is more than twice the search length.
+     */
+    private static final int INITIAL_SEARCH_LENGTH = 20;
 
-    private final Equality<VariantGraph.Vertex[], Token> equality = new Equality<VariantGraph.Vertex[], Token>() {
+    private static final long HASH_BASE = 0x9E3779B97F4A7C15L;
 
-        @Override
-        public boolean isEqual(VariantGraph.Vertex[] a, Token b) {
-            for (VariantGraph.Vertex vertex : a) {
-                final Set<Token> tokens = vertex.tokens();
-                if (!tokens.isEmpty() && comparator.compare(tokens.stream().findFirst().get(), b) == 0) {
-                    return true;
-                }
-            }
-            return false;
-        }
-    };
+    private final Comparator<Token> comparator;
+    private final int minimumTileLength;
 
     public GreedyStringTilingAlgorithm(Comparator<Token> comparator, int minimumTileLength) {
         this.comparator = comparator;
@@ -65,80 +63,359 @@ public class GreedyStringTilingAlgorithm extends CollationAlgorithm.Base {
         final VariantGraph.Vertex[][] vertices = VariantGraphRanking.of(graph).asArray();
         final Token[] tokens = StreamUtil.stream(witness).toArray(Token[]::new);
 
-        final SortedSet<SortedSet<VertexMatch.WithTokenIndex>> matches = new TreeSet<>(VertexMatch.<VertexMatch.WithTokenIndex>setComparator());
-        for (Match match : match(vertices, tokens, equality, minimumTileLength)) {
-            final SortedSet<VertexMatch.WithTokenIndex> phrase = new TreeSet<>();
-            for (int mc = 0, ml = match.length; mc < ml; mc++) {
-                final int rank = match.left + mc;
-                phrase.add(new VertexMatch.WithTokenIndex(vertices[rank][0], rank, match.right + mc));
+        final SortedSet<Phrase> matches = new TreeSet<>();
+        if (comparator instanceof KeyedTokenComparator) {
+            final KeyedTokenComparator keyedComparator = (KeyedTokenComparator) comparator;
+            final Map<Object, Integer> tokenClasses = new HashMap<>();
+            final int[] right = new int[tokens.length];
+            for (int tc = 0; tc < tokens.length; tc++) {
+                right[tc] = tokenClasses.computeIfAbsent(keyedComparator.keyOf(tokens[tc]), key -> tokenClasses.size());
+            }
+
+            final int[][] vertexClasses = new int[vertices.length][];
+            final int[][] left = new int[vertices.length][];
+            for (int rank = 0; rank < vertices.length; rank++) {
+                final int[] rankClasses = vertexClasses[rank] = new int[vertices[rank].length];
+                for (int vc = 0; vc < rankClasses.length; vc++) {
+                    final Set<Token> vertexTokens = vertices[rank][vc].tokens();
+                    final Integer vertexClass = (vertexTokens.isEmpty() ? null : tokenClasses.get(keyedComparator.keyOf(vertexTokens.iterator().next())));
+                    rankClasses[vc] = (vertexClass == null ? -1 : vertexClass);
+                }
+                left[rank] = Arrays.stream(rankClasses).filter(c -> c >= 0).sorted().distinct().toArray();
+            }
+
+            for (Match match : match(left, right, minimumTileLength)) {
+                final VariantGraph.Vertex[] matchedVertices = new VariantGraph.Vertex[match.length];
+                for (int mc = 0; mc < match.length; mc++) {
+                    final int rank = match.left + mc;
+                    final int tokenClass = right[match.right + mc];
+                    for (int vc = 0; vc < vertexClasses[rank].length; vc++) {
+                        if (vertexClasses[rank][vc] == tokenClass) {
+                            matchedVertices[mc] = vertices[rank][vc];
+                            break;
+                        }
+                    }
+                }
+                matches.add(new Phrase(matchedVertices, 0, match.left, match.right, match.length));
+            }
+        } else {
+            for (Match match : match(vertices, tokens, (rankVertices, token) -> matchingVertex(rankVertices, token) != null, minimumTileLength)) {
+                final VariantGraph.Vertex[] matchedVertices = new VariantGraph.Vertex[match.length];
+                for (int mc = 0; mc < match.length; mc++) {
+                    matchedVertices[mc] = matchingVertex(vertices[match.left + mc], tokens[match.right + mc]);
+                }
+                matches.add(new Phrase(matchedVertices, 0, match.left, match.right, match.length));
             }
-            matches.add(phrase);
         }
 
         merge(graph, vertices, tokens, matches);
     }
 
+    private VariantGraph.Vertex matchingVertex(VariantGraph.Vertex[] rankVertices, Token token) {
+        for (VariantGraph.Vertex vertex : rankVertices) {
+            final Set<Token> vertexTokens = vertex.tokens();
+            if (!vertexTokens.isEmpty() && comparator.compare(vertexTokens.iterator().next(), token) == 0) {
+                return vertex;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tiles two sequences of symbols greedily via Running Karp-Rabin matching.
+     * <p>
+     * For a given search length, the windows of this length in the right sequence are hashed; windows of the left
+     * sequence with the same hash are verified and extended to maximal matches. Those are marked as tiles, longest first,
+     * unless they overlap with a previously marked tile. The search length is halved down to the minimum tile length,
+     * raised in case much longer matches are found, and kept in case matches were occluded by others, whose unmarked
+     * remainders might still yield tiles of the current search length.
+     *
+     * @param left              for each position of the left sequence, the sorted set of symbols it matches
+     * @param right             non-negative symbols of the right sequence, or <code>-1</code> for positions matching no symbol
+     * @param minimumTileLength the minimum length of tiles
+     * @return the tiles, ordered by their position in the left sequence
+     */
+    public static SortedSet<Match> match(int[][] left, int[] right, int minimumTileLength) {
+        return new Tiling(left, right).tile(Math.max(1, minimumTileLength));
+    }
+
+    /**
+     * Tiles two sequences of arbitrary elements greedily.
+     * <p>
+     * Elements of the right sequence are mapped to symbols, grouping elements equal to the same elements of the left
+     * sequence, and the symbol sequences are tiled via {@link #match(int[][], int[], int)}. The mapping compares all
+     * pairs of elements once.
+     *
+     * @param left              the left sequence
+     * @param right             the right sequence
+     * @param equality          the equality of elements of both sequences
+     * @param minimumTileLength the minimum length of tiles
+     * @return the tiles, ordered by their position in the left sequence
+     */
     public static <A, B> SortedSet<Match> match(A[] left, B[] right, Equality<A, B> equality, int minimumTileLength) {
-        final boolean[] markedLeft = new boolean[left.length];
-        final boolean[] markedRight = new boolean[right.length];
+        final Map<BitSet, Integer> symbols = new HashMap<>();
+        final BitSet[] leftSymbols = new BitSet[left.length];
+        Arrays.setAll(leftSymbols, lc -> new BitSet());
 
-        Arrays.fill(markedLeft, false);
-        Arrays.fill(markedRight, false);
+        final int[] rightSymbols = new int[right.length];
+        for (int rc = 0; rc < right.length; rc++) {
+            final BitSet equalLeft = new BitSet(left.length);
+            for (int lc = 0; lc < left.length; lc++) {
+                if (equality.isEqual(left[lc], right[rc])) {
+                    equalLeft.set(lc);
+                }
+            }
+            if (equalLeft.isEmpty()) {
+                rightSymbols[rc] = -1;
+                continue;
+            }
+            Integer symbol = symbols.get(equalLeft);
+            if (symbol == null) {
+                symbols.put(equalLeft, symbol = symbols.size());
+                for (int lc = equalLeft.nextSetBit(0); lc >= 0; lc = equalLeft.nextSetBit(lc + 1)) {
+                    leftSymbols[lc].set(symbol);
+                }
+            }
+            rightSymbols[rc] = symbol;
+        }
+
+        return match(Arrays.stream(leftSymbols).map(symbolSet -> symbolSet.stream().toArray()).toArray(int[][]::new), rightSymbols, minimumTileLength);
+    }
+
+    public interface Equality<A, B> {
+        boolean isEqual(A a, B b);
+    }
+
+    private static class Tiling {
+        private final int[][] left;
+        private final int[] right;
 
-        final SortedSet<Match> matches = new TreeSet<>();
-        final Map<Integer, List<Match>> matchesByLength = new HashMap<>();
+        /**
+         * The symbol of left positions matching a single symbol; <code>-1</code> for positions matching several symbols.
+         */
+        private final int[] leftSymbols;
+        private final int[] ambiguousLeft;
 
-        int maxMatchLength;
-        do {
-            maxMatchLength = minimumTileLength;
+        private final int[][] rightPositions;
+
+        private final boolean[] markedLeft;
+        private final boolean[] markedRight;
+
+        private final long[] leftHashes;
+        private final long[] rightHashes;
+        private final long[] powers;
+
+        private final SortedSet<Match> tiles = new TreeSet<>();
+
+        private Tiling(int[][] left, int[] right) {
+            this.left = left;
+            this.right = right;
+
+            this.markedLeft = new boolean[left.length];
+            this.markedRight = new boolean[right.length];
+
+            int symbols = 0;
+            for (int symbol : right) {
+                symbols = Math.max(symbols, symbol + 1);
+            }
+
+            final int[] positionCounts = new int[symbols];
             for (int rc = 0; rc < right.length; rc++) {
-                for (int lc = 0; lc < left.length; lc++) {
-                    int matchLength = 0;
-                    for (int tc = 0;
-                         (tc + lc) < left.length && (tc + rc) < right.length &&
-                                 !markedLeft[lc + tc] && !markedRight[rc + tc] &&
-                                 equality.isEqual(left[lc + tc], right[rc + tc]);
-                         tc++) {
-                        matchLength++;
-                    }
+                if (right[rc] < 0) {
+                    markedRight[rc] = true;
+                } else {
+                    positionCounts[right[rc]]++;
+                }
+            }
+            this.rightPositions = new int[symbols][];
+            for (int symbol = 0; symbol < symbols; symbol++) {
+                rightPositions[symbol] = new int[positionCounts[symbol]];
+                positionCounts[symbol] = 0;
+            }
+            for (int rc = 0; rc < right.length; rc++) {
+                if (right[rc] >= 0) {
+                    rightPositions[right[rc]][positionCounts[right[rc]]++] = rc;
+                }
+            }
 
-                    if (matchLength >= maxMatchLength) {
-                        List<Match> theMatches = matchesByLength.computeIfAbsent(matchLength, k -> new ArrayList<>());
-                        theMatches.add(new Match(lc, rc));
-                    }
+            this.leftSymbols = new int[left.length];
+            this.ambiguousLeft = new int[left.length + 1];
+            for (int lc = 0; lc < left.length; lc++) {
+                final int[] symbolSet = left[lc];
+                if (symbolSet.length == 0 || symbolSet[0] >= symbols) {
+                    markedLeft[lc] = true;
+                }
+                leftSymbols[lc] = (symbolSet.length == 1 ? symbolSet[0] : -1);
+                ambiguousLeft[lc + 1] = ambiguousLeft[lc] + (symbolSet.length > 1 ? 1 : 0);
+            }
+
+            this.leftHashes = hashes(leftSymbols);
+            this.rightHashes = hashes(right);
+            this.powers = new long[Math.max(left.length, right.length) + 1];
+            powers[0] = 1;
+            for (int pc = 1; pc < powers.length; pc++) {
+                powers[pc] = powers[pc - 1] * HASH_BASE;
+            }
+        }
+
+        SortedSet<Match> tile(int minimumTileLength) {
+            final Cancellation cancellation = Cancellation.current();
+            int searchLength = Math.max(minimumTileLength, INITIAL_SEARCH_LENGTH);
+            while (true) {
+                cancellation.check();
+                final List<Match> maximalMatches = new ArrayList<>();
+                final int maxMatchLength = scan(searchLength, maximalMatches);
+                if (maxMatchLength > 2 * searchLength) {
+                    searchLength = maxMatchLength;
+                    continue;
+                }
+                if (mark(maximalMatches)) {
+                    continue;
+                }
+                if (searchLength > 2 * minimumTileLength) {
+                    searchLength /= 2;
+                } else if (searchLength > minimumTileLength) {
+                    searchLength = minimumTileLength;
+                } else {
+                    return tiles;
+                }
+            }
+        }
+
+        /**
+         * Collects all unmarked maximal matches at least as long as the search length.
+         *
+         * @return the length of the longest match; scanning stops early if it is more than twice the search length
+         */
+        private int scan(int searchLength, List<Match> maximalMatches) {
+            final int[] unmarkedLeft = unmarkedRuns(markedLeft);
+            final int[] unmarkedRight = unmarkedRuns(markedRight);
 
-                    if (matchLength > maxMatchLength) {
-                        maxMatchLength = matchLength;
+            final int buckets = Integer.highestOneBit(Math.max(1, right.length) * 2);
+            final int[] bucketHeads = new int[buckets];
+            final int[] bucketNext = new int[right.length];
+            for (int rc = 0; rc + searchLength <= right.length; rc++) {
+                if (unmarkedRight[rc] >= searchLength) {
+                    final int bucket = bucket(hash(rightHashes, rc, searchLength), buckets);
+                    bucketNext[rc] = bucketHeads[bucket];
+                    bucketHeads[bucket] = rc + 1;
+                }
+            }
+
+            int maxMatchLength = 0;
+            for (int lc = 0; lc + searchLength <= left.length; lc++) {
+                if (unmarkedLeft[lc] < searchLength) {
+                    continue;
+                }
+                if (ambiguousLeft[lc + searchLength] == ambiguousLeft[lc]) {
+                    final long hash = hash(leftHashes, lc, searchLength);
+                    for (int next = bucketHeads[bucket(hash, buckets)]; next > 0; next = bucketNext[next - 1]) {
+                        final int rc = next - 1;
+                        if (hash(rightHashes, rc, searchLength) == hash) {
+                            maxMatchLength = Math.max(maxMatchLength, verify(lc, rc, searchLength, maximalMatches));
+                        }
+                    }
+                } else {
+                    for (int symbol : left[lc]) {
+                        if (symbol >= rightPositions.length) {
+                            break;
+                        }
+                        for (int rc : rightPositions[symbol]) {
+                            if (unmarkedRight[rc] >= searchLength) {
+                                maxMatchLength = Math.max(maxMatchLength, verify(lc, rc, searchLength, maximalMatches));
+                            }
+                        }
                     }
                 }
+                if (maxMatchLength > 2 * searchLength) {
+                    break;
+                }
             }
+            return maxMatchLength;
+        }
 
-            for (Match match : matchesByLength.getOrDefault(maxMatchLength, Collections.emptyList())) {
-                boolean occluded = false;
+        private int verify(int lc, int rc, int searchLength, List<Match> maximalMatches) {
+            for (int tc = 0; tc < searchLength; tc++) {
+                if (!matches(lc + tc, rc + tc)) {
+                    return 0;
+                }
+            }
+            int matchLength = searchLength;
+            while (lc + matchLength < left.length && rc + matchLength < right.length &&
+                    !markedLeft[lc + matchLength] && !markedRight[rc + matchLength] &&
+                    matches(lc + matchLength, rc + matchLength)) {
+                matchLength++;
+            }
+            maximalMatches.add(new Match(lc, rc, matchLength));
+            return matchLength;
+        }
 
-                for (int tc = 0; tc < maxMatchLength; tc++) {
+        private boolean matches(int lc, int rc) {
+            final int leftSymbol = leftSymbols[lc];
+            return (leftSymbol >= 0 ? leftSymbol == right[rc] : Arrays.binarySearch(left[lc], right[rc]) >= 0);
+        }
+
+        /**
+         * Marks non-overlapping matches as tiles, longest first.
+         *
+         * @return <code>true</code> if any match has been occluded by a longer one
+         */
+        private boolean mark(List<Match> maximalMatches) {
+            maximalMatches.sort(Comparator.comparingInt((Match match) -> match.length).reversed());
+
+            boolean occlusions = false;
+            for (Match match : maximalMatches) {
+                boolean occluded = false;
+                for (int tc = 0; tc < match.length; tc++) {
                     if (markedLeft[match.left + tc] || markedRight[match.right + tc]) {
                         occluded = true;
                         break;
                     }
                 }
 
-                if (!occluded) {
-                    for (int tc = 0; tc < maxMatchLength; tc++) {
-                        markedLeft[match.left + tc] = true;
-                        markedRight[match.right + tc] = true;
-                    }
-                    matches.add(new Match(match.left, match.right, maxMatchLength));
+                if (occluded) {
+                    occlusions = true;
+                    continue;
+                }
+
+                for (int tc = 0; tc < match.length; tc++) {
+                    markedLeft[match.left + tc] = true;
+                    markedRight[match.right + tc] = true;
                 }
+                tiles.add(match);
             }
+            return occlusions;
+        }
 
-        } while (maxMatchLength > minimumTileLength);
+        /**
+         * @return prefix hashes of the given symbols, with <code>hashes[i]</code> covering the symbols up to (excluding) <code>i</code>
+         */
+        private static long[] hashes(int[] symbols) {
+            final long[] hashes = new long[symbols.length + 1];
+            for (int sc = 0; sc < symbols.length; sc++) {
+                hashes[sc + 1] = hashes[sc] * HASH_BASE + symbols[sc] + 1;
+            }
+            return hashes;
+        }
 
-        return matches;
-    }
+        private long hash(long[] hashes, int start, int length) {
+            return hashes[start + length] - hashes[start] * powers[length];
+        }
 
-    public interface Equality<A, B> {
-        boolean isEqual(A a, B b);
+        private static int bucket(long hash, int buckets) {
+            return (int) (hash ^ (hash >>> 32)) & (buckets - 1);
+        }
+
+        /**
+         * @return for each position, the number of consecutive unmarked positions starting at it
+         */
+        private static int[] unmarkedRuns(boolean[] marked) {
+            final int[] runs = new int[marked.length + 1];
+            for (int mc = marked.length - 1; mc >= 0; mc--) {
+                runs[mc] = (marked[mc] ? 0 : runs[mc + 1] + 1);
+            }
+            return runs;
+        }
     }
 
     public static class Match implements Comparable<Match> {
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.util;
+
+import eu.interedition.collatex.VariantGraph;
+
+/**
+ * A match of consecutive ranks of a variant graph to consecutive tokens of a witness.
+ * <p>
+ * Phrases are immutable and do not copy the matched vertices; they reference an array of vertices, shared among
+ * phrases where possible, starting at a given offset. Phrases are identified and ordered by the ranks and tokens
+ * they span, as no two phrases matched during a collation step start at the same rank and token.
+ */
+public final class Phrase implements Comparable<Phrase> {
+
+    private final VariantGraph.Vertex[] vertices;
+    private final int vertexOffset;
+
+    public final int rank;
+    public final int token;
+    public final int length;
+
+    public Phrase(VariantGraph.Vertex[] vertices, int vertexOffset, int rank, int token, int length) {
+        this.vertices = vertices;
+        this.vertexOffset = vertexOffset;
+        this.rank = rank;
+        this.token = token;
+        this.length = length;
+    }
+
+    public int lastRank() {
+        return rank + length - 1;
+    }
+
+    public int lastToken() {
+        return token + length - 1;
+    }
+
+    /**
+     * @param offset the offset of the match within this phrase, from <code>0</code> to <code>length - 1</code>
+     * @return the vertex matched at the given offset, ranked <code>rank + offset</code>
+     */
+    public VariantGraph.Vertex vertex(int offset) {
+        return vertices[vertexOffset + offset];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj != null && obj instanceof Phrase) {
+            final Phrase other = (Phrase) obj;
+            return rank == other.rank && token == other.token && length == other.length;
+        }
+        return super.equals(obj);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rank + token) + length;
+    }
+
+    @Override
+    public int compareTo(Phrase o) {
+        int result = rank - o.rank;
+        if (result != 0) {
+            return result;
+        }
+        result = token - o.token;
+        return (result != 0 ? result : length - o.length);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + rank + ".." + lastRank() + " -> " + token + ".." + lastToken() + "}";
+    }
+}
@@ -82,7 +82,9 @@ public abstract class VertexMatch implements Comparable<VertexMatch> {
 
     /**
      * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
+     * @deprecated phrase matches are represented as {@link Phrase phrases}, referring to tokens by their index
      */
+    @Deprecated
     public static class WithTokenIndex extends VertexMatch {
 
         public final int token;
@@ -98,10 +100,19 @@ public abstract class VertexMatch implements Comparable<VertexMatch> {
         }
     }
 
+    /**
+     * @deprecated phrase matches are represented as {@link Phrase phrases}, referring to tokens by their index
+     */
+    @Deprecated
     public static Function<WithTokenIndex, WithToken> tokenResolver(final Token[] tokens) {
         return input -> new WithToken(input.vertex, input.vertexRank, tokens[input.token]);
     }
 
+    /**
+     * @deprecated phrase matches are represented as {@link Phrase phrases}, filtered by the intervals of ranks and
+     * tokens they span
+     */
+    @Deprecated
     public static Predicate<SortedSet<WithTokenIndex>> filter(final BitSet rankFilter, final BitSet tokenFilter) {
         return input -> input.stream().anyMatch(match -> tokenFilter.get(match.token) || rankFilter.get(match.vertexRank));
     }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.dekker;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.VariantGraphRanking;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests transposition detection on synthetic, highly transposed witnesses.
+ */
+public class TranspositionDetectorTest extends AbstractTest {
+
+    private static final int PHRASES = 2000;
+
+    @Test
+    public void highlyTransposedWitness() {
+        final VariantGraph graph = new VariantGraph();
+        final List<List<Match>> phraseMatches = phraseMatches(graph, PHRASES, new Random(PHRASES));
+        final List<List<Match>> transpositions = new TranspositionDetector().detect(phraseMatches, graph);
+
+        assertFalse(transpositions.isEmpty());
+        assertEquals(transpositions.size(), new HashSet<>(transpositions).size());
+
+        // the remaining phrase matches have to be in the same order in the graph and in the witness
+        final Set<List<Match>> transposedPhraseMatches = new HashSet<>(transpositions);
+        final VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+        int lastRank = -1;
+        for (List<Match> phraseMatch : phraseMatches) {
+            if (!transposedPhraseMatches.contains(phraseMatch)) {
+                final int rank = ranking.apply(phraseMatch.get(0).vertex);
+                assertTrue(rank > lastRank);
+                lastRank = rank;
+            }
+        }
+    }
+
+    @Test
+    public void sameTranspositionsAsBySorting() {
+        final Random random = new Random(PHRASES);
+        for (int run = 0; run < 20; run++) {
+            final VariantGraph graph = new VariantGraph();
+            final List<List<Match>> phraseMatches = phraseMatches(graph, 50 + random.nextInt(150), random);
+
+            final int[] graphIndices = new int[phraseMatches.size()];
+            final int[] sizes = new int[phraseMatches.size()];
+            for (int pc = 0; pc < graphIndices.length; pc++) {
+                final String normalized = ((SimpleToken) phraseMatches.get(pc).get(0).token).getNormalized();
+                graphIndices[pc] = Integer.parseInt(normalized.substring(1));
+                sizes[pc] = normalized.length();
+            }
+
+            final List<Integer> detected = new TranspositionDetector().detect(phraseMatches, graph).stream()
+                    .map(phraseMatches::indexOf)
+                    .collect(Collectors.toList());
+            assertEquals(transpositionsBySorting(graphIndices, sizes), detected);
+        }
+    }
+
+    /**
+     * Collates a witness of the given number of distinct words into the given graph, and matches each word of a
+     * shuffled witness with its vertex in the graph.
+     */
+    private static List<List<Match>> phraseMatches(VariantGraph graph, int length, Random random) {
+        final List<String> words = IntStream.range(0, length).mapToObj(i -> "w" + i).collect(Collectors.toList());
+        final SimpleWitness base = new SimpleWitness("A", String.join(" ", words));
+        Collections.shuffle(words, random);
+        final SimpleWitness transposed = new SimpleWitness("B", String.join(" ", words));
+
+        new DekkerAlgorithm().collate(graph, Collections.singletonList(base));
+
+        final List<VariantGraph.Vertex> vertices = new ArrayList<>();
+        graph.vertices().forEach(vertices::add);
+        final List<List<Match>> phraseMatches = new ArrayList<>();
+        for (Token token : transposed.getTokens()) {
+            final int index = Integer.parseInt(((SimpleToken) token).getNormalized().substring(1));
+            phraseMatches.add(Collections.singletonList(new Match(vertices.get(index + 1), token)));
+        }
+        return phraseMatches;
+    }
+
+    /**
+     * Detects transpositions by sorting the remaining phrase matches on every iteration, as the detector did before
+     * tracking them in order-statistic trees.
+     *
+     * @param graphIndices for each phrase match in witness order, its index in graph order
+     * @param sizes        for each phrase match in witness order, its size
+     * @return the witness order indices of the transposed phrase matches, in the order of their detection
+     */
+    private static List<Integer> transpositionsBySorting(int[] graphIndices, int[] sizes) {
+        final List<Integer> nonTransposed = IntStream.range(0, graphIndices.length).boxed().collect(Collectors.toList());
+        final List<Integer> transpositions = new ArrayList<>();
+        while (true) {
+            final List<Integer> graphOrder = nonTransposed.stream().map(pm -> graphIndices[pm]).sorted().collect(Collectors.toList());
+            final Map<Integer, Integer> distances = new HashMap<>();
+            for (int i = 0; i < nonTransposed.size(); i++) {
+                distances.put(nonTransposed.get(i), Math.abs(graphOrder.get(i) - graphIndices[nonTransposed.get(i)]));
+            }
+            if (distances.values().stream().allMatch(distance -> distance == 0)) {
+                return transpositions;
+            }
+
+            final List<Integer> sorted = new ArrayList<>(nonTransposed);
+            sorted.sort(Comparator.comparing((Integer pm) -> distances.get(pm)).reversed().thenComparing(pm -> sizes[pm]));
+
+            final int transposed = sorted.get(0);
+            final int linkedGraphIndex = graphIndices[nonTransposed.get(graphOrder.indexOf(graphIndices[transposed]))];
+            final int linked = nonTransposed.stream().filter(pm -> graphIndices[pm] == linkedGraphIndex).findFirst().get();
+
+            nonTransposed.remove((Integer) transposed);
+            transpositions.add(transposed);
+
+            final int distance = distances.get(transposed);
+            if (distance == distances.get(linked) && distance > 1) {
+                nonTransposed.remove((Integer) linked);
+                transpositions.add(linked);
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.matching;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class EditDistanceTest {
+
+    @Test
+    public void distances() {
+        assertEquals(0, EditDistance.compute("", ""));
+        assertEquals(4, EditDistance.compute("", "near"));
+        assertEquals(1, EditDistance.compute("near", "nar"));
+        assertEquals(3, EditDistance.compute("kitten", "sitting"));
+        assertEquals(2, EditDistance.compute("λόγος", "λογοι"));
+    }
+
+    @Test
+    public void longStrings() {
+        final String text = repeat("abcdefghij", 10);
+        assertEquals(0, EditDistance.compute(text, text));
+        assertEquals(1, EditDistance.compute(text, text.substring(1)));
+        assertEquals(2, EditDistance.compute(text, "x" + text.substring(0, 50) + text.substring(51)));
+    }
+
+    @Test
+    public void thresholds() {
+        assertEquals(3, EditDistance.compute("kitten", "sitting", 3));
+        assertEquals(3, EditDistance.compute("kitten", "sitting", 2));
+        assertEquals(2, EditDistance.compute("near", "matching", 1));
+
+        final String text = repeat("abcdefghij", 10);
+        assertEquals(1, EditDistance.compute(text, text.substring(1), 1));
+        assertEquals(2, EditDistance.compute(text, repeat("bcdefghija", 10), 1));
+    }
+
+    private static String repeat(String str, int times) {
+        final StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(str);
+        }
+        return repeated.toString();
+    }
+}
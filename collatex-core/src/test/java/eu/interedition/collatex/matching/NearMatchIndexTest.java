@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.matching;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class NearMatchIndexTest extends AbstractTest {
+
+    @Test
+    public void nearMatches() {
+        final NearMatchIndex index = new NearMatchIndex(Arrays.asList("near", "nar", "matching", "mathing", "yeah"), 1);
+        assertArrayEquals(new int[] { 0, 1 }, index.nearMatches("near"));
+        assertArrayEquals(new int[] { 2 }, index.nearMatches("matchin"));
+        assertArrayEquals(new int[] { 2, 3 }, index.nearMatches("matching"));
+        assertArrayEquals(new int[0], index.nearMatches("nothing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxDistance() {
+        new NearMatchIndex(Arrays.asList("near", "nar"), NearMatchIndex.MAX_DISTANCE + 1);
+    }
+
+    @Test
+    public void classes() {
+        final NearMatchIndex index = new NearMatchIndex(Arrays.asList("cat", "bat", "bad", "dog"), 1);
+        assertEquals(3, index.getClassCount());
+        assertEquals(index.classOf("cat"), index.classOf("bat"));
+        assertNotEquals(index.classOf("bat"), index.classOf("bad"));
+        assertEquals(index.classOf("cat"), index.classOf("hat"));
+        assertEquals(-1, index.classOf("mouse"));
+    }
+
+    @Test
+    public void nearMatchingIsPairwise() {
+        // "bat" and "bad" are within distance 1, although they are classified differently
+        final SimpleWitness[] w = createWitnesses("cat cat cat bat", "bad dog cats mouse");
+        final Comparator<Token> comparator = NearMatchIndex.of(Arrays.asList(w), 1).comparator();
+        final Comparator<Token> editDistance = new EditDistanceTokenComparator(1);
+        for (Token a : w[0].getTokens()) {
+            for (Token b : w[1].getTokens()) {
+                assertEquals(editDistance.compare(a, b) == 0, comparator.compare(a, b) == 0);
+                assertEquals(editDistance.compare(b, a) == 0, comparator.compare(b, a) == 0);
+            }
+        }
+        assertEquals(0, comparator.compare(w[0].getTokens().get(3), w[1].getTokens().get(0)));
+        assertNotEquals(0, comparator.compare(w[0].getTokens().get(0), w[1].getTokens().get(0)));
+    }
+
+    @Test
+    public void nearTokenMatching() {
+        final SimpleWitness[] w = createWitnesses("near matching yeah", "nar matching");
+        final Comparator<Token> comparator = NearMatchIndex.of(Arrays.asList(w), 1).comparator();
+        final VariantGraph graph = collate(w[0]);
+        final Map<Token, List<VariantGraph.Vertex>> matches = Matches.between(graph.vertices(), w[1].getTokens(), comparator).allMatches;
+
+        assertEquals(2, matches.values().stream().mapToLong(List::size).sum());
+        assertEquals(w[0].getTokens().get(0), matches.get(w[1].getTokens().get(0)).get(0).tokens().stream().findFirst().get());
+        assertEquals(w[0].getTokens().get(1), matches.get(w[1].getTokens().get(1)).get(0).tokens().stream().findFirst().get());
+    }
+}
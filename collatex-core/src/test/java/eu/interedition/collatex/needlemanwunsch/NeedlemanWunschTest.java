@@ -21,9 +21,17 @@ package eu.interedition.collatex.needlemanwunsch;
 
 import eu.interedition.collatex.AbstractTest;
 import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.Token;
 import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleToken;
 import org.junit.Test;
 
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
@@ -34,4 +42,84 @@ public class NeedlemanWunschTest extends AbstractTest {
         setCollationAlgorithm(CollationAlgorithmFactory.needlemanWunsch(new EqualityTokenComparator()));
         LOG.fine(toString(table(collate("a b a b a", "a b a"))));
     }
+
+    @Test
+    public void tokenClasses() {
+        final String[] witnesses = { "the black cat sat on the mat", "the cat sat on the black mat", "a black cat on a mat" };
+
+        setCollationAlgorithm(new NeedlemanWunschAlgorithm(Comparator.comparing((Token token) -> ((SimpleToken) token).getNormalized())));
+        final String comparedTable = toString(table(collate(witnesses)));
+
+        setCollationAlgorithm(new NeedlemanWunschAlgorithm(token -> ((SimpleToken) token).getNormalized()));
+        assertEquals(comparedTable, toString(table(collate(witnesses))));
+
+        setCollationAlgorithm(new NeedlemanWunschAlgorithm(new EqualityTokenComparator()));
+        assertEquals(comparedTable, toString(table(collate(witnesses))));
+    }
+
+    @Test
+    public void affineGaps() {
+        final Integer[] a = { 0, 1, 2, 3, 4 };
+        final Integer[] b = { 0, 1, 2 };
+
+        final Map<Integer, Integer> linear = new HashMap<>();
+        linear.put(0, 0);
+        linear.put(2, 1);
+        linear.put(4, 2);
+        assertEquals(linear, NeedlemanWunschAlgorithm.align(a, b, scorer(new int[] { 1, 9, 2, 9, 3 }, new int[] { 1, 2, 3 }, -1)));
+
+        final Map<Integer, Integer> affine = new HashMap<>();
+        affine.put(0, 0);
+        affine.put(3, 1);
+        affine.put(4, 2);
+        assertEquals(affine, NeedlemanWunschAlgorithm.align(a, b, scorer(new int[] { 1, 9, 2, 9, 3 }, new int[] { 1, 2, 3 }, -5)));
+    }
+
+    @Test
+    public void integerScores() {
+        final Integer[] a = { 0, 1, 2, 3, 4, 5, 6, 7 };
+        final Integer[] b = { 0, 1, 2, 3, 4 };
+        final int[] aSymbols = { 1, 9, 2, 9, 3, 4, 8, 5 };
+        final int[] bSymbols = { 1, 2, 3, 5, 4 };
+
+        for (int gapOpening : new int[] { -1, -3, -5 }) {
+            final NeedlemanWunschIntScorer<Integer, Integer> intScorer = scorer(aSymbols, bSymbols, gapOpening);
+            final NeedlemanWunschScorer<Integer, Integer> floatScorer = new NeedlemanWunschScorer<Integer, Integer>() {
+                @Override
+                public float score(Integer ac, Integer bc) {
+                    return intScorer.score(ac, bc);
+                }
+
+                @Override
+                public float gap() {
+                    return intScorer.gap();
+                }
+
+                @Override
+                public float gapOpening() {
+                    return intScorer.gapOpening();
+                }
+            };
+            assertEquals(NeedlemanWunschAlgorithm.align(a, b, floatScorer), NeedlemanWunschAlgorithm.align(a, b, intScorer));
+        }
+    }
+
+    private static NeedlemanWunschIntScorer<Integer, Integer> scorer(final int[] a, final int[] b, final int gapOpening) {
+        return new NeedlemanWunschIntScorer<Integer, Integer>() {
+            @Override
+            public int score(Integer ac, Integer bc) {
+                return (a[ac] == b[bc] ? 2 : -1);
+            }
+
+            @Override
+            public int gap() {
+                return -1;
+            }
+
+            @Override
+            public int gapOpening() {
+                return gapOpening;
+            }
+        };
+    }
 }
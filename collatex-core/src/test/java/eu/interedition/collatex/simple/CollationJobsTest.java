@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CollationJobsTest extends AbstractTest {
+
+    private static final long TIMEOUT = 10;
+
+    @Test
+    public void priorities() throws InterruptedException {
+        final CollationJobs jobs = new CollationJobs(1, 10, 1, TimeUnit.HOURS);
+        try {
+            final CountDownLatch running = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final CollationJobs.Job blocking = jobs.submit(collation(new CollationAlgorithm.Base() {
+                @Override
+                public void collate(VariantGraph against, Iterable<Token> witness) {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }), 0);
+            running.await();
+
+            final CollationJobs.Job low = jobs.submit(collation(), 0);
+            final CollationJobs.Job high = jobs.submit(collation(), 5);
+            final CollationJobs.Job medium = jobs.submit(collation(), 1);
+            assertEquals(CollationJobs.Status.RUNNING, blocking.getStatus());
+            assertEquals(0, jobs.queuePosition(high));
+            assertEquals(1, jobs.queuePosition(medium));
+            assertEquals(2, jobs.queuePosition(low));
+
+            assertTrue(jobs.remove(medium.getId()));
+            assertEquals(CollationJobs.Status.CANCELLED, medium.getStatus());
+            assertFalse(jobs.get(medium.getId()).isPresent());
+
+            release.countDown();
+            awaitFinished(low);
+            assertEquals(CollationJobs.Status.DONE, high.getStatus());
+            assertEquals(CollationJobs.Status.DONE, low.getStatus());
+            assertNotNull(low.getResult());
+            assertEquals(2, low.getResult().witnesses().size());
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    @Test
+    public void boundedStore() throws InterruptedException {
+        final CollationJobs jobs = new CollationJobs(1, 2, 1, TimeUnit.HOURS);
+        try {
+            final CollationJobs.Job first = jobs.submit(collation(), 0);
+            awaitFinished(first);
+            jobs.submit(collation(), 0);
+            jobs.submit(collation(), 0);
+            assertFalse(jobs.get(first.getId()).isPresent());
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    @Test
+    public void expiry() throws InterruptedException {
+        final CollationJobs jobs = new CollationJobs(1, 1, 0, TimeUnit.NANOSECONDS);
+        try {
+            final CollationJobs.Job job = jobs.submit(collation(), 0);
+            awaitFinished(job);
+            assertFalse(jobs.get(job.getId()).isPresent());
+            jobs.submit(collation(), 0);
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejection() throws InterruptedException {
+        final CollationJobs jobs = new CollationJobs(1, 1, 1, TimeUnit.HOURS);
+        try {
+            jobs.submit(collation(), 0);
+            jobs.submit(collation(), 0);
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    @Test
+    public void maxJobSize() throws InterruptedException {
+        final CollationJobs jobs = new CollationJobs(1, 10, 6, 1, TimeUnit.HOURS);
+        try {
+            awaitFinished(jobs.submit(collation(), 0));
+            jobs.submit(new SimpleCollation(Arrays.asList(createWitnesses("the black cat", "the white cat", "a cat")), collationAlgorithm, true), 0);
+            fail("Collation of 8 tokens accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals(6, jobs.getMaxJobSize());
+        } finally {
+            jobs.shutdown();
+        }
+    }
+
+    private SimpleCollation collation() {
+        return collation(collationAlgorithm);
+    }
+
+    private SimpleCollation collation(CollationAlgorithm algorithm) {
+        return new SimpleCollation(Arrays.asList(createWitnesses("the black cat", "the white cat")), algorithm, true);
+    }
+
+    /**
+     * Waits for the given job to finish, successfully or not, for at most {@link #TIMEOUT} seconds.
+     */
+    private static void awaitFinished(CollationJobs.Job job) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (!job.getStatus().isFinished()) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("Job " + job.getId() + " still " + job.getStatus() + " after " + TIMEOUT + " seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import org.junit.Test;
+
+import javax.json.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimpleJsonCollationReaderTest extends AbstractTest {
+
+    private static class JsonToken extends SimpleToken {
+
+        private final JsonObject tokenObject;
+
+        private JsonToken(SimpleWitness witness, String content, String normalized, JsonObject tokenObject) {
+            super(witness, content, normalized);
+            this.tokenObject = tokenObject;
+        }
+    }
+
+    private static class Collation extends SimpleCollation {
+
+        private final String settings;
+        private final String id;
+
+        private Collation(List<SimpleWitness> witnesses, CollationAlgorithm algorithm, boolean joined, String settings, String id) {
+            super(witnesses, algorithm, joined);
+            this.settings = settings;
+            this.id = id;
+        }
+    }
+
+    @Test
+    public void factories() throws IOException {
+        final Collation collation = reader(0).read(json("{\"id\":7,\"tokenComparator\":{\"type\":\"levenshtein\"},\"witnesses\":["
+            + "{\"id\":\"A\",\"tokens\":[{\"t\":\"The \",\"n\":\"the\",\"x\":1},{\"t\":\"cat\"}]},"
+            + "{\"id\":\"B\",\"content\":\"the bat\"}]}"), 0);
+
+        assertEquals("7", collation.id);
+        assertTrue(collation.settings.contains("tokenComparator=levenshtein:1"));
+
+        final List<Token> tokens = collation.getWitnesses().get(0).getTokens();
+        assertEquals(2, tokens.size());
+        assertEquals("the", ((SimpleToken) tokens.get(0)).getNormalized());
+        assertEquals(1, ((JsonToken) tokens.get(0)).tokenObject.getInt("x"));
+        assertEquals(2, collation.getWitnesses().get(1).getTokens().size());
+
+        final VariantGraph graph = collation.collate(new VariantGraph());
+        assertEquals(2, graph.witnesses().size());
+    }
+
+    @Test(timeout = 10000)
+    public void largeDistances() throws IOException {
+        final Collation collation = reader(0).read(json("{\"tokenComparator\":{\"type\":\"levenshtein\",\"distance\":50},\"witnesses\":["
+            + "{\"id\":\"A\",\"content\":\"incomprehensibilities notwithstanding\"},"
+            + "{\"id\":\"B\",\"content\":\"uncomprehensibilities nevertheless\"}]}"), 0);
+        assertTrue(collation.settings.contains("tokenComparator=levenshtein:50"));
+
+        final VariantGraph graph = collation.collate(new VariantGraph());
+        assertEquals(2, graph.witnesses().size());
+    }
+
+    @Test
+    public void limits() throws IOException {
+        final String collation = "{\"witnesses\":[{\"id\":\"A\",\"content\":\"a b c\"},{\"id\":\"B\",\"content\":\"a b\"}]}";
+        assertNull(reader(5).read(json(collation), 0).id);
+        try {
+            reader(4).read(json(collation), 0);
+            fail("Collation of 5 tokens accepted");
+        } catch (SimpleJsonCollationReader.LimitExceededException e) {
+            assertTrue(e.getMessage().contains("4 tokens"));
+        }
+        try {
+            reader(0).read(json(collation), 16);
+            fail("Request of " + collation.length() + " bytes accepted");
+        } catch (SimpleJsonCollationReader.LimitExceededException e) {
+            assertTrue(e.getMessage().contains("16 bytes"));
+        }
+    }
+
+    @Test
+    public void malformedInput() {
+        for (String collation : new String[] { "[]", "{\"witnesses\":[]}", "{\"witnesses\":[{\"id\":\"A\"}]}", "{\"witnesses\":[" }) {
+            try {
+                reader(0).read(json(collation), 0);
+                fail(collation);
+            } catch (IOException e) {
+                assertSame(collation, IOException.class, e.getClass());
+            }
+        }
+    }
+
+    private static SimpleJsonCollationReader<Collation> reader(long maxTokens) {
+        return new SimpleJsonCollationReader<>(JsonToken::new, Collation::new, maxTokens);
+    }
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
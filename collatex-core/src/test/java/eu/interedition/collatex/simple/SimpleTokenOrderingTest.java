@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the positional ordering of tokens, also in collations sorting many of them.
+ */
+public class SimpleTokenOrderingTest extends AbstractTest {
+
+    private static final int TOKENS = 500;
+
+    private static final int SORTED_TOKENS = 50000;
+
+    @Test
+    public void ordering() {
+        final SimpleWitness witness = new SimpleWitness("A", "a b c a");
+        final List<Token> tokens = witness.getTokens();
+        for (int tc = 0; tc < tokens.size(); tc++) {
+            assertEquals(tc, ((SimpleToken) tokens.get(tc)).getIndex());
+        }
+
+        final List<Token> reversed = new ArrayList<>(tokens);
+        Collections.reverse(reversed);
+        final SortedSet<SimpleToken> sorted = new TreeSet<>();
+        reversed.forEach(token -> sorted.add((SimpleToken) token));
+        assertEquals(tokens, new ArrayList<>(sorted));
+
+        assertEquals("A:3:'a'", tokens.get(3).toString());
+    }
+
+    @Test
+    public void directlyModifiedTokenList() {
+        final SimpleWitness witness = new SimpleWitness("A", "a b");
+        final SimpleToken inserted = new SimpleToken(witness, "c", "c");
+        witness.getTokens().add(0, inserted);
+
+        assertEquals(0, inserted.getIndex());
+        assertEquals(2, ((SimpleToken) witness.getTokens().get(2)).getIndex());
+        assertTrue(witness.compare(inserted, (SimpleToken) witness.getTokens().get(1)) < 0);
+    }
+
+    @Test
+    public void sorting() {
+        final SimpleWitness witness = new SimpleWitness("A", IntStream.range(0, SORTED_TOKENS).mapToObj(i -> "w" + i).collect(Collectors.joining(" ")));
+        final List<Token> shuffled = new ArrayList<>(witness.getTokens());
+        Collections.shuffle(shuffled, new Random(SORTED_TOKENS));
+
+        final SortedSet<SimpleToken> sorted = new TreeSet<>();
+        shuffled.forEach(token -> sorted.add((SimpleToken) token));
+
+        assertEquals(witness.getTokens(), new ArrayList<>(sorted));
+    }
+
+    @Test
+    public void medite() {
+        assertUnshuffledTokensAligned(CollationAlgorithmFactory.medite(new EqualityTokenComparator(), SimpleToken.TOKEN_MATCH_EVALUATOR));
+    }
+
+    @Test
+    public void greedyStringTiling() {
+        assertUnshuffledTokensAligned(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 2));
+    }
+
+    /**
+     * Collates two witnesses of random words, which only differ in the order of a range of words, and asserts that
+     * the words outside of this range are aligned.
+     */
+    private void assertUnshuffledTokensAligned(CollationAlgorithm algorithm) {
+        final Random random = new Random(TOKENS);
+        final List<String> words = IntStream.range(0, TOKENS).mapToObj(i -> "w" + random.nextInt(TOKENS)).collect(Collectors.toList());
+        final SimpleWitness first = new SimpleWitness("A", String.join(" ", words));
+        final int shuffledStart = TOKENS / 2;
+        final int shuffledEnd = shuffledStart + TOKENS / 10;
+        Collections.shuffle(words.subList(shuffledStart, shuffledEnd), random);
+        final SimpleWitness second = new SimpleWitness("B", String.join(" ", words));
+
+        final VariantGraph graph = new VariantGraph();
+        algorithm.collate(graph, Arrays.asList(first, second));
+
+        final Map<Token, VariantGraph.Vertex> vertices = new HashMap<>();
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            vertex.tokens().forEach(token -> vertices.put(token, vertex));
+        }
+        for (int tc = 0; tc < TOKENS; tc++) {
+            if (tc < shuffledStart || tc >= shuffledEnd) {
+                assertSame(vertices.get(first.getTokens().get(tc)), vertices.get(second.getTokens().get(tc)));
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimpleTokenScannerTest extends AbstractTest {
+
+    private static final String TEXT = " Hello, world!  Is this... it?";
+
+    @Test
+    public void builtInTokenizers() {
+        assertTokens(Arrays.asList(" Hello, ", "world!  ", "Is ", "this... ", "it?"), SimplePatternTokenizer.BY_WHITESPACE);
+        assertTokens(Arrays.asList(" Hello, ", "world!  ", "Is ", "this... ", "it?"), SimplePatternTokenizer.BY_WS_AND_PUNCT);
+        assertTokens(Arrays.asList("Hello", ", ", "world", "!  ", "Is ", "this", "... ", "it", "?"), SimplePatternTokenizer.BY_WS_OR_PUNCT);
+    }
+
+    @Test
+    public void offsets() {
+        final SimpleTokenScanner scanner = SimpleTokenScanner.of(TEXT, SimpleTokenScanner.Rule.BY_WS_OR_PUNCT);
+        assertTrue(scanner.next());
+        assertEquals(1, scanner.start());
+        assertEquals(6, scanner.end());
+        assertTrue(scanner.next());
+        assertEquals(", ", TEXT.substring(scanner.start(), scanner.end()));
+        assertEquals(", ", scanner.content());
+    }
+
+    @Test
+    public void reader() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            text.append(TEXT);
+        }
+        text.append(new String(new char[20000]).replace('\0', 'x'));
+
+        final SimpleTokenScanner scanner = SimpleTokenScanner.of(new StringReader(text.toString()), SimpleTokenScanner.Rule.BY_WS_OR_PUNCT);
+        final SimpleTokenScanner expected = SimpleTokenScanner.of(text, SimpleTokenScanner.Rule.BY_WS_OR_PUNCT);
+        while (expected.next()) {
+            assertTrue(scanner.next());
+            assertEquals(expected.start(), scanner.start());
+            assertEquals(expected.content(), scanner.content());
+        }
+        assertFalse(scanner.next());
+    }
+
+    private static void assertTokens(List<String> expected, Function<String, Stream<String>> tokenizer) {
+        assertEquals(expected, tokenizer.apply(TEXT).collect(Collectors.toList()));
+    }
+}
@@ -24,8 +24,12 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
 
 public class SimpleWitnessTeiBuilderTest {
 
@@ -48,4 +52,26 @@ public class SimpleWitnessTeiBuilderTest {
             System.out.print(((SimpleToken) t).getContent() + " ");
         }
     }
+
+    @Test
+    public void allParagraphs() throws XMLStreamException {
+        final StringBuilder tei = new StringBuilder("<TEI xmlns=\"http://www.tei-c.org/ns/1.0\"><text><body>");
+        for (int p = 0; p < 20; p++) {
+            tei.append("<p><w>Word").append(p).append("</w> <seg> a <expan>b</expan> </seg> skipped</p>");
+        }
+        tei.append("<p><w>Ex<expan>pan</expan>ded</w><w>&amp;c.</w></p></body></text></TEI>");
+
+        final SimpleWitness witness = new SimpleWitnessTeiBuilder().read(new ByteArrayInputStream(tei.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(42, witness.getTokenIds().length);
+        assertEquals(42, witness.size());
+        assertEquals("Word19", content(witness, 38));
+        assertEquals("ab", content(witness, 39));
+        assertEquals("Expanded", content(witness, 40));
+        assertEquals("&c.", content(witness, 41));
+        assertEquals("c", ((SimpleToken) witness.tokens().get(41)).getNormalized());
+    }
+
+    private static String content(SimpleWitness witness, int index) {
+        return ((SimpleToken) witness.tokens().get(index)).getContent();
+    }
 }
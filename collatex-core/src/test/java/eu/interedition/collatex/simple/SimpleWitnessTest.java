@@ -20,9 +20,15 @@
 package eu.interedition.collatex.simple;
 
 import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.Token;
 import org.junit.Test;
 
+import java.util.Iterator;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class SimpleWitnessTest extends AbstractTest {
 
@@ -35,6 +41,48 @@ public class SimpleWitnessTest extends AbstractTest {
         assertNormalized("&", "&");
     }
 
+    @Test
+    public void sharedVocabulary() {
+        final TokenVocabulary vocabulary = new TokenVocabulary();
+        final SimpleWitness a = new SimpleWitness("A", "The cat and the dog", SimplePatternTokenizer.BY_WS_OR_PUNCT, SimpleTokenNormalizers.LC_TRIM_WS, vocabulary);
+        final SimpleWitness b = new SimpleWitness("B", "the dog", SimplePatternTokenizer.BY_WS_OR_PUNCT, SimpleTokenNormalizers.LC_TRIM_WS, vocabulary);
+
+        assertSame(normalized(a, 0), normalized(a, 3));
+        assertSame(normalized(a, 4), normalized(b, 1));
+        assertArrayEquals(vocabulary.encode(a.getTokens().subList(3, 5)), vocabulary.encode(b.getTokens()));
+    }
+
+    @Test
+    public void compactForm() {
+        final TokenVocabulary vocabulary = new TokenVocabulary();
+        final SimpleWitness a = new SimpleWitness("A", "The cat and the cat", SimplePatternTokenizer.BY_WS_OR_PUNCT, SimpleTokenNormalizers.LC_TRIM_WS, vocabulary);
+
+        final int[] ids = a.getTokenIds();
+        assertEquals(5, ids.length);
+        assertEquals(ids[0], ids[3]);
+        assertEquals(ids[1], ids[4]);
+        assertEquals("cat", vocabulary.form(ids[1]));
+        assertArrayEquals(new int[] { 0, 4, 8, 12, 16 }, a.getOffsets());
+        assertEquals(5, a.size());
+
+        final Iterator<Token> tokens = a.iterator();
+        tokens.next();
+        assertEquals("cat ", ((SimpleToken) tokens.next()).getContent());
+        assertSame(ids, a.getTokenIds());
+
+        assertEquals("cat", ((SimpleToken) a.tokens().get(4)).getNormalized());
+        assertSame(ids, a.getTokenIds());
+        assertArrayEquals(new int[] { 0, 4, 8, 12, 16 }, a.getOffsets());
+
+        assertEquals(5, a.getTokens().size());
+        assertNull(a.getTokenIds());
+        assertNull(a.getOffsets());
+    }
+
+    private static String normalized(SimpleWitness witness, int index) {
+        return ((SimpleToken) witness.getTokens().get(index)).getNormalized();
+    }
+
     private static void assertNormalized(String content, String expected) {
         assertEquals(expected, SimpleWitness.TOKEN_NORMALIZER.apply(content));
     }
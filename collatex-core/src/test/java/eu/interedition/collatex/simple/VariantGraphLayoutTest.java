@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.simple;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.util.VariantGraphRanking;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariantGraphLayoutTest extends AbstractTest {
+
+    private static final int WORDS = 300;
+
+    @Test
+    public void layers() {
+        final VariantGraph graph = collate("a b c d", "a d", "a x d");
+        final VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+        final VariantGraphLayout layout = layout(graph, ranking);
+
+        for (VariantGraphLayout.Node node : layout.nodes) {
+            if (node.vertex != null) {
+                assertEquals(ranking.apply(node.vertex).intValue(), node.layer);
+            }
+            for (VariantGraphLayout.Node successor : node.successors) {
+                assertTrue(node.x + node.width / 2 < successor.x - successor.width / 2);
+            }
+            for (VariantGraphLayout.Node other : layout.nodes) {
+                if (other != node && other.layer == node.layer) {
+                    assertTrue(Math.abs(node.y - other.y) >= (node.height + other.height) / 2);
+                }
+            }
+            assertTrue(node.y - node.height / 2 >= 0 && node.y + node.height / 2 <= layout.height);
+            assertTrue(node.x - node.width / 2 >= 0 && node.x + node.width / 2 <= layout.width);
+        }
+
+        final VariantGraph.Vertex a = vertexWith(graph, "a", graph.witnesses().iterator().next());
+        final VariantGraphLayout.Edge skipping = layout.edges.stream()
+            .filter(e -> e.from.vertex == a && e.to.layer - e.from.layer == 3)
+            .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(2, skipping.route.size());
+        assertEquals("B", skipping.label);
+    }
+
+    @Test
+    public void svg() throws Exception {
+        assertRendered(collate("the black cat", "the cat black", "the white cat"));
+    }
+
+    @Test
+    public void largeGraph() throws Exception {
+        final Random random = new Random(1);
+        final List<String> vocabulary = IntStream.range(0, 200).mapToObj(i -> "w" + i).collect(Collectors.toList());
+        final String[] witnesses = new String[3];
+        for (int wc = 0; wc < witnesses.length; wc++) {
+            witnesses[wc] = random.ints(WORDS, 0, vocabulary.size()).mapToObj(vocabulary::get).collect(Collectors.joining(" "));
+        }
+        final VariantGraph graph = collate(witnesses);
+        final VariantGraphRanking ranking = VariantGraphRanking.of(graph);
+
+        for (VariantGraphLayout.Node node : layout(graph, ranking).nodes) {
+            if (node.vertex != null) {
+                assertEquals(ranking.apply(node.vertex).intValue(), node.layer);
+            }
+            for (VariantGraphLayout.Node successor : node.successors) {
+                assertTrue(node.layer < successor.layer);
+            }
+        }
+        assertRendered(graph);
+    }
+
+    private static void assertRendered(VariantGraph graph) throws Exception {
+        final Document svg = svg(graph);
+
+        assertEquals(SimpleVariantGraphSerializer.SVG_NS, svg.getDocumentElement().getNamespaceURI());
+        assertEquals("svg", svg.getDocumentElement().getLocalName());
+
+        int vertices = 0;
+        int edges = 0;
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            vertices++;
+            edges += vertex.outgoing().size();
+        }
+        assertEquals(vertices, svg.getElementsByTagNameNS(SimpleVariantGraphSerializer.SVG_NS, "ellipse").getLength());
+        assertEquals(edges, svg.getElementsByTagNameNS(SimpleVariantGraphSerializer.SVG_NS, "polygon").getLength());
+        assertEquals(edges + vertices, svg.getElementsByTagNameNS(SimpleVariantGraphSerializer.SVG_NS, "title").getLength());
+    }
+
+    private static VariantGraphLayout layout(VariantGraph graph, VariantGraphRanking ranking) {
+        return new VariantGraphLayout(graph, ranking,
+            v -> v.tokens().stream().map(t -> ((SimpleToken) t).getContent()).findFirst().orElse(""),
+            SimpleVariantGraphSerializer::toLabel
+        );
+    }
+
+    private static Document svg(VariantGraph graph) throws Exception {
+        final StringWriter svg = new StringWriter();
+        final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(svg);
+        xml.writeStartDocument();
+        new SimpleVariantGraphSerializer(graph).toSVG(xml);
+        xml.writeEndDocument();
+        xml.close();
+
+        final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        return documentBuilderFactory.newDocumentBuilder().parse(new InputSource(new StringReader(svg.toString())));
+    }
+}
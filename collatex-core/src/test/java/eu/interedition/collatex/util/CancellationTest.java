@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CancellationTest extends AbstractTest {
+
+    @Test
+    public void deadline() {
+        assertFalse(Cancellation.withTimeout(1, TimeUnit.MINUTES).isCancelled());
+        assertTrue(Cancellation.withDeadline(System.nanoTime() - 1).isCancelled());
+    }
+
+    @Test
+    public void reasons() {
+        assertEquals("Collation deadline exceeded", reason(Cancellation.withDeadline(System.nanoTime() - 1)));
+        final Cancellation cancelled = Cancellation.withDeadline(System.nanoTime() - 1);
+        cancelled.cancel();
+        assertEquals("Collation cancelled", reason(cancelled));
+
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals("Collating thread interrupted", reason(Cancellation.withTimeout(1, TimeUnit.MINUTES)));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static String reason(Cancellation cancellation) {
+        try {
+            cancellation.check();
+            return null;
+        } catch (CancellationException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test
+    public void binding() {
+        final Cancellation cancellation = Cancellation.create();
+        assertSame(Cancellation.NONE, Cancellation.current());
+        cancellation.run(() -> assertSame(cancellation, Cancellation.current()));
+        assertSame(Cancellation.NONE, Cancellation.current());
+    }
+
+    @Test
+    public void dekker() {
+        assertCancelled(comparator -> CollationAlgorithmFactory.dekker(comparator));
+    }
+
+    @Test
+    public void needlemanWunsch() {
+        assertCancelled(CollationAlgorithmFactory::needlemanWunsch);
+    }
+
+    @Test
+    public void greedyStringTiling() {
+        assertCancelled(comparator -> CollationAlgorithmFactory.greedyStringTiling(comparator, 2));
+    }
+
+    /**
+     * Cancels the default algorithm after its token index has been built, while it aligns the second witness.
+     */
+    @Test
+    public void defaultAlgorithmAligning() {
+        final SimpleWitness[] w = randomWitnesses();
+        final VariantGraph graph = new VariantGraph();
+        final Cancellation cancellation = Cancellation.create();
+        final Iterable<Token> cancelling = () -> {
+            if (!graph.witnesses().isEmpty()) {
+                cancellation.cancel();
+            }
+            return w[1].iterator();
+        };
+
+        try {
+            CollationAlgorithmFactory.dekker(new EqualityTokenComparator()).collate(graph, Arrays.asList(w[0], cancelling, w[2]), cancellation);
+            fail();
+        } catch (CancellationException e) {
+            assertEquals("Collation cancelled", e.getMessage());
+        }
+        assertTrue(graph.witnesses().contains(w[0]));
+        assertFalse(graph.witnesses().contains(w[1]));
+    }
+
+    /**
+     * Cancels collations from within their token comparisons, which have to stop before all witnesses are merged.
+     */
+    private void assertCancelled(Function<Comparator<Token>, CollationAlgorithm> algorithm) {
+        final SimpleWitness[] w = randomWitnesses();
+
+        final Cancellation cancellation = Cancellation.create();
+        final AtomicInteger comparisons = new AtomicInteger();
+        final Comparator<Token> comparator = new EqualityTokenComparator();
+        final CollationAlgorithm cancelling = algorithm.apply((a, b) -> {
+            if (comparisons.incrementAndGet() == 100) {
+                cancellation.cancel();
+            }
+            return comparator.compare(a, b);
+        });
+
+        final VariantGraph graph = new VariantGraph();
+        try {
+            cancelling.collate(graph, Arrays.asList(w), cancellation);
+            fail();
+        } catch (CancellationException e) {
+            assertEquals("Collation cancelled", e.getMessage());
+        }
+        assertFalse(graph.witnesses().contains(w[2]));
+        assertSame(Cancellation.NONE, Cancellation.current());
+
+        algorithm.apply(comparator).collate(new VariantGraph(), Arrays.asList(w), Cancellation.create());
+    }
+
+    private SimpleWitness[] randomWitnesses() {
+        final Random random = new Random(1);
+        final String[] texts = new String[3];
+        for (int wc = 0; wc < texts.length; wc++) {
+            final StringBuilder text = new StringBuilder();
+            for (int tc = 0; tc < 300; tc++) {
+                text.append("w").append(random.nextInt(50)).append(" ");
+            }
+            texts[wc] = text.toString();
+        }
+        return createWitnesses(texts);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.util;
+
+import eu.interedition.collatex.AbstractTest;
+import eu.interedition.collatex.CollationAlgorithmFactory;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.matching.EditDistanceTokenComparator;
+import eu.interedition.collatex.matching.EqualityTokenComparator;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import java.util.SortedSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class GreedyStringTilingTest extends AbstractTest {
+
+    @Test
+    public void tiles() {
+        final int[][] left = { { 0 }, { 1 }, { 2 }, { 3 }, { 4 }, { 1 }, { 2 }, { 5 } };
+        final int[] right = { 1, 2, 5, 9, 0, 1, 2, 3 };
+
+        final SortedSet<GreedyStringTilingAlgorithm.Match> tiles = GreedyStringTilingAlgorithm.match(left, right, 2);
+        assertEquals(2, tiles.size());
+
+        final GreedyStringTilingAlgorithm.Match first = tiles.first();
+        assertEquals(0, first.left);
+        assertEquals(4, first.right);
+        assertEquals(4, first.length);
+
+        final GreedyStringTilingAlgorithm.Match last = tiles.last();
+        assertEquals(5, last.left);
+        assertEquals(0, last.right);
+        assertEquals(3, last.length);
+    }
+
+    @Test
+    public void variantRanks() {
+        final int[][] left = { { 0 }, { 1, 2 }, { 3 } };
+        final int[] right = { 0, 2, 3 };
+
+        final SortedSet<GreedyStringTilingAlgorithm.Match> tiles = GreedyStringTilingAlgorithm.match(left, right, 2);
+        assertEquals(1, tiles.size());
+        assertEquals(3, tiles.first().length);
+    }
+
+    @Test
+    public void equality() {
+        final String[] left = "a b c d e b c f".split(" ");
+        final String[] right = "B C F X A B C D".split(" ");
+
+        final SortedSet<GreedyStringTilingAlgorithm.Match> tiles = GreedyStringTilingAlgorithm.match(left, right, String::equalsIgnoreCase, 2);
+        assertEquals(2, tiles.size());
+
+        final GreedyStringTilingAlgorithm.Match first = tiles.first();
+        assertEquals(0, first.left);
+        assertEquals(4, first.right);
+        assertEquals(4, first.length);
+
+        final GreedyStringTilingAlgorithm.Match last = tiles.last();
+        assertEquals(5, last.left);
+        assertEquals(0, last.right);
+        assertEquals(3, last.length);
+    }
+
+    @Test
+    public void collate() {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EqualityTokenComparator(), 2));
+        final SimpleWitness[] w = createWitnesses("the black cat sat on the mat", "the cat sat on the black mat", "on the mat the black cat sat");
+        final VariantGraph graph = collate(w);
+        LOG.fine(toString(table(graph)));
+
+        for (String content : new String[] { "cat", "sat" }) {
+            assertSame(vertexWith(graph, content, w[0]), vertexWith(graph, content, w[1]));
+            assertSame(vertexWith(graph, content, w[0]), vertexWith(graph, content, w[2]));
+        }
+        assertSame(vertexWith(graph, "on", w[0]), vertexWith(graph, "on", w[1]));
+        assertSame(vertexWith(graph, "black", w[0]), vertexWith(graph, "black", w[2]));
+        assertNotSame(vertexWith(graph, "black", w[0]), vertexWith(graph, "black", w[1]));
+    }
+
+    @Test
+    public void collateNearMatches() {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EditDistanceTokenComparator(1), 2));
+        final SimpleWitness[] w = createWitnesses("the black cat sat on the mat", "a blak cot sat in tha mat");
+        final VariantGraph graph = collate(w);
+        LOG.fine(toString(table(graph)));
+
+        assertSame(vertexWith(graph, "black", w[0]), vertexWith(graph, "blak", w[1]));
+        assertSame(vertexWith(graph, "cat", w[0]), vertexWith(graph, "cot", w[1]));
+        assertSame(vertexWith(graph, "sat", w[0]), vertexWith(graph, "sat", w[1]));
+        assertSame(vertexWith(graph, "mat", w[0]), vertexWith(graph, "mat", w[1]));
+        assertNotSame(vertexWith(graph, "the", w[0]), vertexWith(graph, "a", w[1]));
+    }
+
+    @Test
+    public void collateIntransitiveNearMatches() {
+        setCollationAlgorithm(CollationAlgorithmFactory.greedyStringTiling(new EditDistanceTokenComparator(1), 2));
+        final SimpleWitness[] w = createWitnesses("on the dot sat he", "a cat cot sat he");
+        final VariantGraph graph = collate(w);
+        LOG.fine(toString(table(graph)));
+
+        assertSame(vertexWith(graph, "dot", w[0]), vertexWith(graph, "cot", w[1]));
+        assertSame(vertexWith(graph, "sat", w[0]), vertexWith(graph, "sat", w[1]));
+    }
+}
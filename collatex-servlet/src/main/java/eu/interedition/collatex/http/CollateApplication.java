@@ -1,6 +1,7 @@
 package eu.interedition.collatex.http;
 
 import eu.interedition.collatex.io.*;
+import eu.interedition.collatex.simple.CollationJobs;
 
 import javax.ws.rs.core.Application;
 import java.io.BufferedReader;
@@ -10,6 +11,7 @@ import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,6 +42,15 @@ public class CollateApplication extends Application {
         return null;
     }
 
+    /**
+     * Graphviz renders SVG only if configured via the system property <code>collatex.dotPath</code>, either with a
+     * path or with <code>auto</code> to detect it; otherwise SVG is rendered in-process.
+     */
+    private static String dotPath() {
+        final String dotPath = System.getProperty("collatex.dotPath");
+        return ("auto".equals(dotPath) ? detectDotPath() : dotPath);
+    }
+
     @Override
     public Set<Class<?>> getClasses() {
         Set<Class<?>> s = new HashSet<>();
@@ -52,11 +63,16 @@ public class CollateApplication extends Application {
         return s;
     }
 
+    /**
+     * The maximum number of tokens in collation jobs is configured via the system property
+     * <code>collatex.maxJobSize</code>; unlimited by default.
+     */
     @Override
     public Set<Object> getSingletons() {
         Set<Object> singletons = new HashSet<>();
-        singletons.add(new CollateResource("", 10, 0));
-        singletons.add(new VariantGraphSVGMessageBodyWriter(detectDotPath()));
+        singletons.add(new CollateResource("", 10, 0, Boolean.getBoolean("collatex.virtualThreads"),
+            new CollationJobs(1, 100, Long.getLong("collatex.maxJobSize", 0), 1, TimeUnit.HOURS)));
+        singletons.add(new VariantGraphSVGMessageBodyWriter(dotPath()));
         return singletons;
     }
 }
@@ -25,27 +25,46 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Date;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.simple.CollationJobs;
 import eu.interedition.collatex.simple.SimpleCollation;
 import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.Cancellation;
 
 /**
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
@@ -53,21 +72,86 @@ import eu.interedition.collatex.simple.SimpleWitness;
 
 @Path("/")
 public class CollateResource {
+    private static final Logger LOG = Logger.getLogger(CollateResource.class.getName());
+
+    private static final long COLLATION_TIMEOUT = 60;
 
     private final File staticPath;
     private final Date initial = new Date();
 
     private final int maxCollationSize;
-    private final ExecutorService executor;
+    private final long collationTimeout;
+    private final TimeUnit collationTimeoutUnit;
+    private final Executor executor;
+    private final CollationJobs jobs;
 
     public CollateResource(String staticPath, int maxParallelCollations, int maxCollationSize) {
+        this(staticPath, maxParallelCollations, maxCollationSize, false);
+    }
+
+    /**
+     * @param virtualThreads whether to run collations on virtual threads, if the JDK supports them; at most
+     *                       <code>maxParallelCollations</code> of them collate at any time
+     */
+    public CollateResource(String staticPath, int maxParallelCollations, int maxCollationSize, boolean virtualThreads) {
+        this(staticPath, maxParallelCollations, maxCollationSize, virtualThreads, new CollationJobs(1, 100, 1, TimeUnit.HOURS));
+    }
+
+    /**
+     * @param jobs the scheduler of collations run in the background
+     */
+    public CollateResource(String staticPath, int maxParallelCollations, int maxCollationSize, boolean virtualThreads, CollationJobs jobs) {
+        this(staticPath, maxParallelCollations, maxCollationSize, virtualThreads, jobs, COLLATION_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param collationTimeout the positive time after which collations requested via <code>POST /collate</code> are
+     *                         cancelled and answered with status 503
+     */
+    public CollateResource(String staticPath, int maxParallelCollations, int maxCollationSize, boolean virtualThreads, CollationJobs jobs,
+                           long collationTimeout, TimeUnit collationTimeoutUnit) {
+        this.jobs = jobs;
+        this.collationTimeout = collationTimeout;
+        this.collationTimeoutUnit = collationTimeoutUnit;
         this.staticPath = staticPath == null || "".equals(staticPath) ? null : new File(staticPath);
         this.maxCollationSize = maxCollationSize;
-        this.executor = Executors.newFixedThreadPool(maxParallelCollations, r -> {
-            final Thread t = new Thread(r, CollateResource.class.getName());
-            t.setDaemon(true);
-            t.setPriority(Thread.MIN_PRIORITY);
-            return t;
+        this.executor = Optional.ofNullable(virtualThreads ? virtualThreadExecutor(maxParallelCollations) : null)
+            .orElseGet(() -> Executors.newFixedThreadPool(maxParallelCollations, r -> {
+                final Thread t = new Thread(r, CollateResource.class.getName());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }));
+    }
+
+    /**
+     * Looks up <code>Executors.newVirtualThreadPerTaskExecutor()</code> reflectively, as it is not available on all
+     * supported JDKs.
+     *
+     * @return an executor limiting the number of concurrently running tasks, or <code>null</code> if virtual
+     * threads are not supported
+     */
+    private static Executor virtualThreadExecutor(int maxParallelTasks) {
+        final ExecutorService virtualThreads;
+        try {
+            virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            LOG.log(Level.INFO, "Virtual threads are not supported; using platform threads", e);
+            return null;
+        }
+        final Semaphore permits = new Semaphore(maxParallelTasks);
+        return task -> virtualThreads.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
         });
     }
 
@@ -97,13 +181,13 @@ public class CollateResource {
 
     @Path("collate")
     @POST
-    public Response collate(final SimpleCollation collation, @Context HttpHeaders hh) throws ExecutionException, InterruptedException {
+    public void collate(final SimpleCollation collation, @Context HttpHeaders hh, @Suspended final AsyncResponse response) {
         if (maxCollationSize > 0) {
             for (SimpleWitness witness : collation.getWitnesses()) {
-                final int witnessLength = witness.getTokens().stream()
+                final int witnessLength = witness.tokens().stream()
                         .filter(t -> t instanceof SimpleToken).map(t -> (SimpleToken) t).mapToInt(t -> t.getContent().length()).sum();
                 if (witnessLength > maxCollationSize) {
-                    return Response.status(new Response.StatusType() {
+                    response.resume(Response.status(new Response.StatusType() {
                         @Override
                         public int getStatusCode() {
                             return 413;
@@ -118,15 +202,99 @@ public class CollateResource {
                         public String getReasonPhrase() {
                             return "Request Entity Too Large";
                         }
-                    }).build();
+                    }).build());
+                    return;
                 }
             }
         }
 
-        return corsSupport(hh, Response.ok(executor.submit(() -> {
+        // request headers are only accessible on the container thread
+        final Response.ResponseBuilder ok = corsSupport(hh, Response.ok());
+
+        final Cancellation cancellation = Cancellation.withTimeout(collationTimeout, collationTimeoutUnit);
+        response.setTimeout(collationTimeout, collationTimeoutUnit);
+        response.setTimeoutHandler(r -> {
+            cancellation.cancel();
+            r.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+        });
+        response.register((CompletionCallback) t -> cancellation.cancel());
+
+        CompletableFuture.supplyAsync(() -> {
             final VariantGraph graph = new VariantGraph();
-            return (collation == null ? graph : collation.collate(graph));
-        }).get())).build();
+            return (collation == null ? graph : collation.collate(graph, cancellation));
+        }, executor).whenComplete((graph, error) -> {
+            if (error == null) {
+                response.resume(ok.entity(graph).build());
+            } else if (error.getCause() instanceof CancellationException) {
+                response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+            } else {
+                response.resume(error.getCause() == null ? error : error.getCause());
+            }
+        });
+    }
+
+    @Path("jobs")
+    @POST
+    public Response submitJob(final SimpleCollation collation, @QueryParam("priority") @DefaultValue("0") int priority,
+                              @Context UriInfo uriInfo, @Context HttpHeaders hh) {
+        final CollationJobs.Job job;
+        try {
+            job = jobs.submit(collation, priority);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).build();
+        } catch (RejectedExecutionException e) {
+            return Response.status(429).header("Retry-After", "60").build();
+        }
+        return corsSupport(hh, Response.accepted(jobStatus(job)))
+            .location(uriInfo.getAbsolutePathBuilder().path(job.getId()).build())
+            .build();
+    }
+
+    @Path("jobs/{id}")
+    @GET
+    public Response jobStatus(@PathParam("id") String id, @Context HttpHeaders hh) {
+        return corsSupport(hh, Response.ok(jobStatus(job(id)))).build();
+    }
+
+    @Path("jobs/{id}/result")
+    @GET
+    public Response jobResult(@PathParam("id") String id, @Context HttpHeaders hh) {
+        final CollationJobs.Job job = job(id);
+        if (job.getStatus() != CollationJobs.Status.DONE) {
+            return corsSupport(hh, Response.status(Response.Status.CONFLICT).entity(jobStatus(job))).build();
+        }
+        return corsSupport(hh, Response.ok(job.getResult())).build();
+    }
+
+    @Path("jobs/{id}")
+    @DELETE
+    public Response deleteJob(@PathParam("id") String id, @Context HttpHeaders hh) {
+        if (!jobs.remove(id)) {
+            throw new NotFoundException();
+        }
+        return corsSupport(hh, Response.noContent()).build();
+    }
+
+    private CollationJobs.Job job(String id) {
+        return jobs.get(id).orElseThrow(NotFoundException::new);
+    }
+
+    private JsonObject jobStatus(CollationJobs.Job job) {
+        final JsonObjectBuilder status = Json.createObjectBuilder()
+            .add("id", job.getId())
+            .add("status", job.getStatus().name().toLowerCase())
+            .add("priority", job.getPriority())
+            .add("submitted", job.getSubmitted());
+        if (job.getStarted() > 0) {
+            status.add("started", job.getStarted());
+        }
+        if (job.getStatus() == CollationJobs.Status.QUEUED) {
+            status.add("queuePosition", jobs.queuePosition(job));
+        }
+        if (job.getError() != null) {
+            status.add("error", String.valueOf(job.getError().getMessage()));
+        }
+        return status.build();
     }
 
     Response.ResponseBuilder corsSupport(@Context HttpHeaders hh, Response.ResponseBuilder response) {
@@ -8,9 +8,11 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
-import javax.ws.rs.core.Response;
 import javax.ws.rs.ext.MessageBodyWriter;
 import javax.ws.rs.ext.Provider;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
@@ -27,6 +29,9 @@ public class VariantGraphSVGMessageBodyWriter implements MessageBodyWriter<Varia
     private String dotPath;
     private final ExecutorService processThreads = Executors.newCachedThreadPool();
 
+    /**
+     * @param dotPath the path to Graphviz' <code>dot</code> for rendering SVG; <code>null</code> to render it in-process
+     */
     public VariantGraphSVGMessageBodyWriter(String dotPath) {
         this.dotPath = dotPath;
     }
@@ -44,7 +49,19 @@ public class VariantGraphSVGMessageBodyWriter implements MessageBodyWriter<Varia
     @Override
     public void writeTo(VariantGraph graph, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException, WebApplicationException {
         if (dotPath == null) {
-            throw new WebApplicationException(Response.Status.NO_CONTENT);
+            httpHeaders.add(HttpHeaders.CONTENT_TYPE, "image/svg+xml");
+            try {
+                final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(entityStream, "UTF-8");
+                try {
+                    xml.writeStartDocument();
+                    new SimpleVariantGraphSerializer(graph).toSVG(xml);
+                    xml.writeEndDocument();
+                } finally {
+                    xml.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new WebApplicationException(e);
+            }
         } else {
             final StringWriter dot = new StringWriter();
             new SimpleVariantGraphSerializer(graph).toDot(dot);
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.http;
+
+import eu.interedition.collatex.CollationAlgorithm;
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.io.SimpleCollationJSONMessageBodyReader;
+import eu.interedition.collatex.io.VariantGraphJSONMessageBodyWriter;
+import eu.interedition.collatex.simple.CollationJobs;
+import eu.interedition.collatex.simple.SimpleCollation;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.json.JsonObject;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CollateResourceTest {
+
+    private static final URI BASE = URI.create("http://localhost/");
+    private static final long TIMEOUT = 10;
+
+    private CollationJobs jobs;
+    private ApplicationHandler application;
+
+    @Before
+    public void startApplication() {
+        jobs = new CollationJobs(1, 10, 6, 1, TimeUnit.HOURS);
+        application = new ApplicationHandler(new ResourceConfig()
+            .register(new CollateResource("", 1, 0, false, jobs))
+            .register(SimpleCollationJSONMessageBodyReader.class)
+            .register(VariantGraphJSONMessageBodyWriter.class));
+    }
+
+    @After
+    public void stopJobs() {
+        jobs.shutdown();
+    }
+
+    @Test
+    public void jobLifecycle() throws Exception {
+        final ContainerResponse submitted = request("POST", "jobs?priority=2", collation("the black cat", "the white cat"));
+        assertEquals(202, submitted.getStatus());
+        final JsonObject status = (JsonObject) submitted.getEntity();
+        final String id = status.getString("id");
+        assertEquals(2, status.getInt("priority"));
+        assertEquals(URI.create("http://localhost/jobs/" + id), submitted.getLocation());
+
+        assertEquals("done", awaitFinished(id));
+        final ContainerResponse result = request("GET", "jobs/" + id + "/result", null);
+        assertEquals(200, result.getStatus());
+        assertEquals(2, ((VariantGraph) result.getEntity()).witnesses().size());
+
+        assertEquals(204, request("DELETE", "jobs/" + id, null).getStatus());
+        assertEquals(404, request("GET", "jobs/" + id, null).getStatus());
+        assertEquals(404, request("DELETE", "jobs/" + id, null).getStatus());
+    }
+
+    @Test
+    public void oversizedJobs() throws Exception {
+        assertEquals(413, request("POST", "jobs", collation("the black cat", "the white cat", "a cat")).getStatus());
+        assertEquals(202, request("POST", "jobs", collation("the black cat", "the white cat")).getStatus());
+    }
+
+    @Test
+    public void unfinishedJobResult() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        jobs.submit(new SimpleCollation(Collections.singletonList(new SimpleWitness("A", "a")), new CollationAlgorithm.Base() {
+            @Override
+            public void collate(VariantGraph against, Iterable<Token> witness) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, false), 0);
+        try {
+            final String id = ((JsonObject) request("POST", "jobs", collation("the black cat", "the white cat")).getEntity()).getString("id");
+            final ContainerResponse result = request("GET", "jobs/" + id + "/result", null);
+            assertEquals(409, result.getStatus());
+            assertEquals("queued", ((JsonObject) result.getEntity()).getString("status"));
+            assertEquals(0, ((JsonObject) result.getEntity()).getInt("queuePosition"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void collate() throws Exception {
+        final ContainerResponse response = request("POST", "collate", collation("the black cat", "the white cat"));
+        assertEquals(200, response.getStatus());
+
+        final VariantGraph graph = (VariantGraph) response.getEntity();
+        assertEquals(2, graph.witnesses().size());
+        int vertices = 0;
+        for (VariantGraph.Vertex vertex : graph.vertices()) {
+            vertices++;
+        }
+        assertEquals(6, vertices);
+    }
+
+    @Test
+    public void cancelledCollation() throws Exception {
+        final ApplicationHandler application = new ApplicationHandler(new ResourceConfig()
+            .register(new CollateResource("", 1, 0, false, jobs, 1, TimeUnit.NANOSECONDS))
+            .register(SimpleCollationJSONMessageBodyReader.class)
+            .register(VariantGraphJSONMessageBodyWriter.class));
+        assertEquals(503, request(application, "POST", "collate", collation("the black cat", "the white cat")).getStatus());
+    }
+
+    /**
+     * Polls the status of the given job until it has finished, successfully or not, for at most {@link #TIMEOUT} seconds.
+     *
+     * @return the final status
+     */
+    private String awaitFinished(String id) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT);
+        while (true) {
+            final String status = ((JsonObject) request("GET", "jobs/" + id, null).getEntity()).getString("status");
+            if (!"queued".equals(status) && !"running".equals(status)) {
+                return status;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                fail("Job " + id + " still " + status + " after " + TIMEOUT + " seconds");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private ContainerResponse request(String method, String path, String entity) throws Exception {
+        return request(application, method, path, entity);
+    }
+
+    private static ContainerResponse request(ApplicationHandler application, String method, String path, String entity) throws Exception {
+        final ContainerRequest request = new ContainerRequest(BASE, BASE.resolve(path), method, null, new MapPropertiesDelegate());
+        if (entity != null) {
+            request.header("Content-Type", MediaType.APPLICATION_JSON);
+            request.setEntityStream(new ByteArrayInputStream(entity.getBytes(StandardCharsets.UTF_8)));
+        }
+        return application.apply(request).get(10, TimeUnit.SECONDS);
+    }
+
+    private static String collation(String... witnesses) {
+        final StringBuilder collation = new StringBuilder("{\"witnesses\":[");
+        for (int i = 0; i < witnesses.length; i++) {
+            collation.append(i == 0 ? "" : ",").append("{\"id\":\"W").append(i).append("\",\"content\":\"").append(witnesses[i]).append("\"}");
+        }
+        return collation.append("]}").toString();
+    }
+}
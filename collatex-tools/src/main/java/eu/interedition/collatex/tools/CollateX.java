@@ -65,7 +65,7 @@ public class CollateX {
     }
 
     private static void help() {
-        new HelpFormatter().printHelp(ERROR_LOG, 78, "collatex [<options>]\n (<json_input> | <witness_1> <witness_2> [[<witness_3>] ...])", "", OPTIONS, 2, 4, "");
+        new HelpFormatter().printHelp(ERROR_LOG, 78, "collatex [<options>]\n (<json_input> | <witness_1> <witness_2> [[<witness_3>] ...] | -b [<json_input> ...])", "", OPTIONS, 2, 4, "");
     }
 
     public static void error(String str, Throwable t) {
@@ -87,13 +87,24 @@ public class CollateX {
         OPTIONS.addOption("t", "tokenized", false, "consecutive matches of tokens will *not* be joined to segments");
         OPTIONS.addOption("f", "format", true, "result/output format: 'json', 'csv', 'dot', 'graphml', 'tei'");
         OPTIONS.addOption("s", "script", true, "ECMA/JavaScript resource with functions to be plugged into the alignment algorithm");
+        OPTIONS.addOption("b", "batch", false, "collate a batch of JSON inputs, given as files and directories of them or on standard input as newline-delimited JSON or a JSON array; results are written as newline-delimited JSON");
 
         OPTIONS.addOption("S", "http", false, "start RESTful HTTP server");
         OPTIONS.addOption("cp", "context-path", true, "URL base/context path of the service, default: '/'");
-        OPTIONS.addOption("dot", "dot-path", true, "path to Graphviz 'dot', auto-detected by default");
+        OPTIONS.addOption("dot", "dot-path", true, "path to Graphviz 'dot' for rendering SVG, or 'auto' to detect it; rendered in-process by default");
         OPTIONS.addOption("p", "port", true, "HTTP port to bind server to, default: 7369");
         OPTIONS.addOption("mpc", "max-parallel-collations", true, "maximum number of collations to perform in parallel, default: 2");
-        OPTIONS.addOption("mcs", "max-collation-size", true, "maximum number of characters (counted over all witnesses) to perform collations on, default: unlimited");
+        OPTIONS.addOption("mcs", "max-collation-size", true, "maximum number of tokens (counted over all witnesses) to perform collations on, default: unlimited");
+        OPTIONS.addOption("mrs", "max-request-size", true, "maximum size of collation requests in kilobytes, default: unlimited");
+        OPTIONS.addOption("mqc", "max-queued-collations", true, "maximum number of collations waiting to be performed, default: 64");
+        OPTIONS.addOption("mqt", "max-queued-tokens", true, "maximum number of tokens in waiting and running collations, default: unlimited");
+        OPTIONS.addOption("mcj", "max-concurrent-jobs", true, "maximum number of collation jobs to run in parallel, default: 1");
+        OPTIONS.addOption("mj", "max-jobs", true, "maximum number of collation jobs to keep, default: 100");
+        OPTIONS.addOption("mjs", "max-job-size", true, "maximum number of tokens (counted over all witnesses) to perform collation jobs on, default: ten times the maximum collation size");
+        OPTIONS.addOption("jt", "job-ttl", true, "minutes for which the results of collation jobs are kept, default: 60");
+        OPTIONS.addOption("rcs", "result-cache-size", true, "megabytes of collation results to cache in memory, default: 64");
+        OPTIONS.addOption("rcd", "result-cache-dir", true, "directory in which to additionally cache collation results, default: none");
+        OPTIONS.addOption("rcds", "result-cache-dir-size", true, "megabytes of collation results to keep in the cache directory, default: 1024");
 
     }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import javax.json.Json;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Collates a batch of collations in parallel and writes their results as newline-delimited JSON.
+ * <p>
+ * Each line of the output is an object with the <code>id</code> of a collation – the one given in the collation or,
+ * lacking one, its index in the batch – and either its alignment table as <code>result</code> or an
+ * <code>error</code> message. At most a given number of collations are read ahead and pending at any time, so
+ * batches of arbitrary length are processed in constant memory.
+ */
+public class CollationBatch {
+
+    private static final long REJECTION_BACKOFF_MILLIS = 100;
+
+    private static final byte[] RESULT = ",\"result\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESULT_END = "}\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Supplies the collations of a batch.
+     */
+    @FunctionalInterface
+    public interface Reader {
+
+        /**
+         * @return the next collation of the batch or <code>null</code> once the batch has been read completely
+         * @throws IOException if the next collation cannot be read, which is reported as its result
+         */
+        JsonProcessor.Collation read() throws IOException;
+
+        /**
+         * @return the id of the collation at the given index of the batch, unless the collation has been given one
+         */
+        default String id(int index) {
+            return Integer.toString(index);
+        }
+    }
+
+    private final int maxPending;
+    private final boolean ordered;
+    private final Function<? super JsonProcessor.Collation, CompletableFuture<byte[]>> collate;
+
+    private final Deque<Entry> pending = new ArrayDeque<>();
+    private final BlockingQueue<Entry> completed = new LinkedBlockingQueue<>();
+    private final Set<CompletableFuture<byte[]>> submitted = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled = false;
+
+    /**
+     * @param executor   the executor to perform collations with; collations rejected by it are resubmitted once
+     *                   pending ones have been written
+     * @param maxPending the maximum number of collations submitted but not yet written
+     * @param ordered    whether results are written in the order of the batch or as soon as they are available
+     * @param render     renders a collation to its alignment table, encoded as JSON
+     */
+    public CollationBatch(Executor executor, int maxPending, boolean ordered, Function<? super JsonProcessor.Collation, byte[]> render) {
+        this(maxPending, ordered, collation -> {
+            final CompletableFuture<byte[]> result = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    result.complete(render.apply(collation));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+            return result;
+        });
+    }
+
+    /**
+     * @param maxPending the maximum number of collations submitted but not yet written
+     * @param ordered    whether results are written in the order of the batch or as soon as they are available
+     * @param collate    submits a collation and returns the future of its alignment table, encoded as JSON; collations
+     *                   rejected with a {@link RejectedExecutionException}, thrown or completing the future, are
+     *                   resubmitted once pending ones have been written
+     */
+    public CollationBatch(int maxPending, boolean ordered, Function<? super JsonProcessor.Collation, CompletableFuture<byte[]>> collate) {
+        this.maxPending = Math.max(1, maxPending);
+        this.ordered = ordered;
+        this.collate = collate;
+    }
+
+    /**
+     * Stops reading the batch and cancels the collations submitted but not completed yet, which are reported as
+     * errors. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        submitted.forEach(result -> result.cancel(false));
+    }
+
+    /**
+     * @return the number of collations in the batch
+     */
+    public int process(Reader reader, OutputStream out) throws IOException, InterruptedException {
+        int index = 0;
+        while (!cancelled) {
+            try {
+                final JsonProcessor.Collation collation = reader.read();
+                if (collation == null) {
+                    break;
+                }
+                submit(collation.getId() == null ? reader.id(index) : collation.getId(), collation, out);
+            } catch (IOException e) {
+                final CompletableFuture<byte[]> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                enqueue(new Entry(reader.id(index), failed));
+            }
+            index++;
+
+            for (Entry next = next(false, out); next != null; next = next(false, out)) {
+                write(next, out);
+            }
+            while (pending.size() >= maxPending) {
+                write(next(true, out), out);
+            }
+        }
+        while (!pending.isEmpty()) {
+            write(next(true, out), out);
+        }
+        out.flush();
+        return index;
+    }
+
+    private void submit(String id, JsonProcessor.Collation collation, OutputStream out) throws IOException, InterruptedException {
+        while (true) {
+            CompletableFuture<byte[]> result;
+            try {
+                result = collate.apply(collation);
+            } catch (RejectedExecutionException e) {
+                result = null;
+            }
+            if (result != null && !rejected(result)) {
+                final CompletableFuture<byte[]> submission = result;
+                submitted.add(submission);
+                submission.whenComplete((r, error) -> submitted.remove(submission));
+                if (cancelled) {
+                    submission.cancel(false);
+                }
+                enqueue(new Entry(id, submission));
+                return;
+            }
+            // the executor is saturated by other requests; wait for our own collations to make room
+            if (pending.isEmpty()) {
+                Thread.sleep(REJECTION_BACKOFF_MILLIS);
+            } else {
+                write(next(true, out), out);
+            }
+        }
+    }
+
+    private static boolean rejected(CompletableFuture<byte[]> result) {
+        if (!result.isCompletedExceptionally()) {
+            return false;
+        }
+        try {
+            result.join();
+            return false;
+        } catch (CompletionException e) {
+            return (e.getCause() instanceof RejectedExecutionException);
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    private void enqueue(Entry entry) {
+        pending.add(entry);
+        if (!ordered) {
+            entry.result.whenComplete((result, error) -> completed.add(entry));
+        }
+    }
+
+    /**
+     * @param block whether to wait for the next result, flushing the results written so far before doing so
+     */
+    private Entry next(boolean block, OutputStream out) throws IOException, InterruptedException {
+        if (ordered) {
+            final Entry head = pending.peekFirst();
+            if (head == null || !head.result.isDone() && !block) {
+                return null;
+            }
+            if (!head.result.isDone()) {
+                out.flush();
+            }
+            return pending.removeFirst();
+        }
+        Entry next = completed.poll();
+        if (next == null && block) {
+            out.flush();
+            next = completed.take();
+        }
+        if (next != null) {
+            pending.remove(next);
+        }
+        return next;
+    }
+
+    private static void write(Entry entry, OutputStream out) throws IOException {
+        try {
+            final byte[] result = entry.result.join();
+            final String id = Json.createObjectBuilder().add("id", entry.id).build().toString();
+            out.write(id.substring(0, id.length() - 1).getBytes(StandardCharsets.UTF_8));
+            out.write(RESULT);
+            out.write(result);
+            out.write(RESULT_END);
+        } catch (CompletionException | CancellationException e) {
+            final Throwable error = (e.getCause() == null ? e : e.getCause());
+            out.write(Json.createObjectBuilder()
+                .add("id", entry.id)
+                .add("error", String.valueOf(error.getMessage()))
+                .build().toString().getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+
+    private static class Entry {
+
+        private final String id;
+        private final CompletableFuture<byte[]> result;
+
+        private Entry(String id, CompletableFuture<byte[]> result) {
+            this.id = id;
+            this.result = result;
+        }
+    }
+}
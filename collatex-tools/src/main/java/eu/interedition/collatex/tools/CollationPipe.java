@@ -44,11 +44,19 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -57,6 +65,11 @@ import java.util.stream.Stream;
 public class CollationPipe {
 
     public static void start(CommandLine commandLine) throws Exception {
+        if (commandLine.hasOption("b")) {
+            batch(commandLine);
+            return;
+        }
+
         List<SimpleWitness> witnesses = null;
         Function<String, Stream<String>> tokenizer = SimplePatternTokenizer.BY_WS_OR_PUNCT;
         Function<String, String> normalizer = SimpleTokenNormalizers.LC_TRIM_WS;
@@ -86,16 +99,17 @@ public class CollationPipe {
         }
 
         final String script = commandLine.getOptionValue("s");
-        try {
-            final PluginScript pluginScript = (script == null
-                ? PluginScript.read("<internal>", new StringReader(""))
-                : PluginScript.read(argumentToInput(script)));
+        PluginScript pluginScript = null;
+        if (script != null) {
+            try {
+                pluginScript = PluginScript.read(argumentToInput(script));
 
-            tokenizer = Optional.ofNullable(pluginScript.tokenizer()).orElse(tokenizer);
-            normalizer = Optional.ofNullable(pluginScript.normalizer()).orElse(normalizer);
-            comparator = Optional.ofNullable(pluginScript.comparator()).orElse(comparator);
-        } catch (IOException e) {
-            throw new ParseException("Failed to read script '" + script + "' - " + e.getMessage());
+                tokenizer = Optional.ofNullable(pluginScript.tokenizer()).orElse(tokenizer);
+                normalizer = Optional.ofNullable(pluginScript.normalizer()).orElse(normalizer);
+                comparator = Optional.ofNullable(pluginScript.comparator()).orElse(comparator);
+            } catch (IOException e) {
+                throw new ParseException("Failed to read script '" + script + "' - " + e.getMessage());
+            }
         }
 
         switch (commandLine.getOptionValue("a", "").toLowerCase()) {
@@ -118,34 +132,51 @@ public class CollationPipe {
             final boolean xmlMode = commandLine.hasOption("xml");
             final XPathExpression tokenXPath = XPathFactory.newInstance().newXPath().compile(commandLine.getOptionValue("xp", "//text()"));
 
+            // plugin scripts tokenize plain text only, as XML inputs are tokenized via XPath
+            final boolean scriptTokenizer = (pluginScript != null && pluginScript.hasTokenizer() && !xmlMode);
+            final boolean scriptNormalizer = (pluginScript != null && pluginScript.hasNormalizer());
+
             witnesses = new ArrayList<>(inputStreams.length);
-            for (int wc = 0, wl = inputStreams.length; wc < wl; wc++) {
-                try (InputStream stream = inputStreams[wc]) {
-                    final String sigil = "w" + (wc + 1);
-                    if (!xmlMode) {
-                        final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, inputCharset));
-                        final StringWriter writer = new StringWriter();
-                        final char[] buf = new char[1024];
-                        while (reader.read(buf) != -1) {
-                            writer.write(buf);
-                        }
-                        witnesses.add(new SimpleWitness(sigil, writer.toString(), tokenizer, normalizer));
-                    } else {
-                        final DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-                        final Document document = documentBuilder.parse(stream);
-                        document.normalizeDocument();
-
-                        final SimpleWitness witness = new SimpleWitness(sigil);
-                        final NodeList tokenNodes = (NodeList) tokenXPath.evaluate(document, XPathConstants.NODESET);
-                        final List<Token> tokens = new ArrayList<>(tokenNodes.getLength());
-                        for (int nc = 0; nc < tokenNodes.getLength(); nc++) {
-                            final String tokenText = tokenNodes.item(nc).getTextContent();
-                            tokens.add(new SimpleToken(witness, tokenText, normalizer.apply(tokenText)));
-                        }
-                        witness.setTokens(tokens);
+            final TokenVocabulary vocabulary = new TokenVocabulary();
+            if (!scriptTokenizer && !scriptNormalizer) {
+                for (int wc = 0, wl = inputStreams.length; wc < wl; wc++) {
+                    try (InputStream stream = inputStreams[wc]) {
+                        final SimpleWitness witness = new SimpleWitness("w" + (wc + 1));
+                        witness.setTokenContents(tokenContents(stream, inputCharset, xmlMode, tokenXPath, tokenizer), normalizer, vocabulary);
                         witnesses.add(witness);
                     }
                 }
+            } else {
+                // token contents are collected first, so plugin scripts can tokenize and normalize them in batches
+                List<List<String>> tokenContents = new ArrayList<>(inputStreams.length);
+                final List<String> texts = new ArrayList<>(inputStreams.length);
+                for (InputStream inputStream : inputStreams) {
+                    try (InputStream stream = inputStream) {
+                        if (scriptTokenizer) {
+                            texts.add(text(stream, inputCharset));
+                        } else {
+                            tokenContents.add(tokenContents(stream, inputCharset, xmlMode, tokenXPath, tokenizer).collect(Collectors.toList()));
+                        }
+                    }
+                }
+                if (scriptTokenizer) {
+                    tokenContents = pluginScript.tokenize(texts);
+                }
+                if (scriptNormalizer) {
+                    final List<String> distinctContents = tokenContents.stream().flatMap(List::stream).distinct().collect(Collectors.toList());
+                    final List<String> normalizedContents = pluginScript.normalize(distinctContents);
+                    final Map<String, String> normalized = new HashMap<>();
+                    for (int cc = 0, cl = distinctContents.size(); cc < cl; cc++) {
+                        normalized.put(distinctContents.get(cc), normalizedContents.get(cc));
+                    }
+                    normalizer = normalized::get;
+                }
+
+                for (int wc = 0, wl = tokenContents.size(); wc < wl; wc++) {
+                    final SimpleWitness witness = new SimpleWitness("w" + (wc + 1));
+                    witness.setTokenContents(tokenContents.get(wc).stream(), normalizer, vocabulary);
+                    witnesses.add(witness);
+                }
             }
         }
 
@@ -194,6 +225,118 @@ public class CollationPipe {
         }
     }
 
+    /**
+     * Reads the token contents of a witness, either from the nodes of an XML document selected by the given XPath
+     * expression, or by tokenizing plain text. The built-in tokenizer scans the text, without buffering the whole
+     * witness; the returned stream has to be consumed before the input is closed.
+     */
+    private static Stream<String> tokenContents(InputStream stream, Charset charset, boolean xmlMode, XPathExpression tokenXPath,
+                                                Function<String, Stream<String>> tokenizer) throws Exception {
+        if (xmlMode) {
+            final DocumentBuilder documentBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            final Document document = documentBuilder.parse(stream);
+            document.normalizeDocument();
+
+            final NodeList tokenNodes = (NodeList) tokenXPath.evaluate(document, XPathConstants.NODESET);
+            final List<String> contents = new ArrayList<>(tokenNodes.getLength());
+            for (int nc = 0; nc < tokenNodes.getLength(); nc++) {
+                contents.add(tokenNodes.item(nc).getTextContent());
+            }
+            return contents.stream();
+        }
+        if (tokenizer == SimplePatternTokenizer.BY_WS_OR_PUNCT) {
+            return SimpleTokenScanner.of(new InputStreamReader(stream, charset), SimpleTokenScanner.Rule.BY_WS_OR_PUNCT).contents();
+        }
+        return tokenizer.apply(text(stream, charset));
+    }
+
+    private static String text(InputStream stream, Charset charset) throws IOException {
+        final Reader reader = new InputStreamReader(stream, charset);
+        final StringBuilder content = new StringBuilder();
+        final char[] buf = new char[8192];
+        for (int read = reader.read(buf); read != -1; read = reader.read(buf)) {
+            content.append(buf, 0, read);
+        }
+        return content.toString();
+    }
+
+    /**
+     * Performs a batch of collations, read from JSON files and directories thereof or from standard input, and writes
+     * their alignment tables as newline-delimited JSON in the order of the batch.
+     */
+    private static void batch(CommandLine commandLine) throws Exception {
+        final String[] args = commandLine.getArgs();
+        final CollationBatch.Reader reader;
+        if (args.length == 0 || (args.length == 1 && "-".equals(args[0]))) {
+            reader = JsonProcessor.readBatch(System.in, 0, 0);
+        } else {
+            final List<Path> files = new ArrayList<>();
+            for (String arg : args) {
+                final Path path = Paths.get(arg);
+                if (Files.isDirectory(path)) {
+                    try (Stream<Path> directory = Files.list(path)) {
+                        directory.filter(file -> file.getFileName().toString().endsWith(".json") && Files.isRegularFile(file))
+                            .sorted()
+                            .forEach(files::add);
+                    }
+                } else if (Files.isRegularFile(path)) {
+                    files.add(path);
+                } else {
+                    throw new ParseException("Invalid batch resource: " + arg);
+                }
+            }
+            reader = new CollationBatch.Reader() {
+                private int next = 0;
+
+                @Override
+                public JsonProcessor.Collation read() throws IOException {
+                    if (next >= files.size()) {
+                        return null;
+                    }
+                    try (InputStream inputStream = Files.newInputStream(files.get(next++))) {
+                        return JsonProcessor.read(inputStream);
+                    }
+                }
+
+                @Override
+                public String id(int index) {
+                    return files.get(index).toString();
+                }
+            };
+        }
+
+        final int parallelCollations = Integer.parseInt(commandLine.getOptionValue("mpc", "2"));
+        final ExecutorService collationThreads = Executors.newFixedThreadPool(parallelCollations, r -> {
+            final Thread t = new Thread(r, "collator");
+            t.setDaemon(true);
+            return t;
+        });
+        final String output = commandLine.getOptionValue("o", "-");
+        final OutputStream out = new BufferedOutputStream("-".equals(output) ? System.out : Files.newOutputStream(Paths.get(output)));
+        try {
+            new CollationBatch(collationThreads, 2 * parallelCollations, true, collation -> {
+                final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                try {
+                    JsonProcessor.write(collation.collate(new VariantGraph()), result);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                return result.toByteArray();
+            }).process(reader, out);
+        } finally {
+            // standard output stays open for whatever is written after the batch
+            if ("-".equals(output)) {
+                out.flush();
+            } else {
+                out.close();
+            }
+            collationThreads.shutdownNow();
+            if (reader instanceof Closeable) {
+                ((Closeable) reader).close();
+            }
+        }
+    }
+
     private static URL argumentToInput(String arg) throws MalformedURLException {
         final File witnessFile = new File(arg);
         if (witnessFile.exists()) {
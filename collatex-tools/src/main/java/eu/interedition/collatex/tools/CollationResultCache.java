@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.simple.SimpleCollation;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.Cancellation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.nio.file.attribute.FileTime;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rendered collation results, addressed by a digest of the collation's input and the requested output format.
+ * <p>
+ * Results are kept in memory up to a configurable number of bytes, evicting the least recently used ones, and
+ * optionally in a directory, which outlives restarts and is limited in size as well, evicting the oldest results.
+ * Concurrent requests for a result that is being computed wait for the same computation, which is cancelled once all
+ * of them have given up waiting.
+ */
+public class CollationResultCache {
+    private static final Logger LOG = Logger.getLogger(CollationResultCache.class.getName());
+
+    private final long maxSize;
+    private final Path directory;
+
+    private final LinkedHashMap<String, byte[]> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+
+    private final long maxDirectorySize;
+    private final LinkedHashMap<String, Long> stored = new LinkedHashMap<>();
+    private long storedSize = 0;
+
+    private final ConcurrentMap<String, Computation> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize          the number of bytes to keep in memory; <code>0</code> disables the memory tier
+     * @param directory        the directory of the disk tier, or <code>null</code> if results should not be stored on
+     *                         disk
+     * @param maxDirectorySize the number of bytes to keep in the directory
+     */
+    public CollationResultCache(long maxSize, Path directory, long maxDirectorySize) throws IOException {
+        this.maxSize = maxSize;
+        this.directory = directory;
+        this.maxDirectorySize = maxDirectorySize;
+        if (directory != null) {
+            Files.createDirectories(directory);
+
+            final List<Path> files = new ArrayList<>();
+            try (Stream<Path> contents = Files.list(directory)) {
+                contents.filter(Files::isRegularFile).forEach(files::add);
+            }
+            final Map<Path, FileTime> modified = new LinkedHashMap<>();
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                } else {
+                    modified.put(file, Files.getLastModifiedTime(file));
+                }
+            }
+            files.retainAll(modified.keySet());
+            files.sort(Comparator.comparing(modified::get));
+            for (Path file : files) {
+                stored(file.getFileName().toString(), Files.size(file));
+            }
+        }
+    }
+
+    /**
+     * @return the canonical key of rendering the given collation in the given format, covering the witnesses' tokens
+     * and the collation's settings; <code>null</code> if the collation has not been read from JSON, as the settings of
+     * such collations, e.g. their token comparators, cannot be described canonically
+     */
+    public static String key(SimpleCollation collation, String format) {
+        if (!(collation instanceof JsonProcessor.Collation)) {
+            return null;
+        }
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, format);
+        update(digest, ((JsonProcessor.Collation) collation).getSettings());
+        for (SimpleWitness witness : collation.getWitnesses()) {
+            update(digest, witness.getSigil());
+            for (Token token : witness.tokens()) {
+                if (token instanceof JsonProcessor.Token) {
+                    update(digest, ((JsonProcessor.Token) token).getJsonNode().toString());
+                }
+                if (token instanceof SimpleToken) {
+                    update(digest, ((SimpleToken) token).getContent());
+                    update(digest, ((SimpleToken) token).getNormalized());
+                } else {
+                    update(digest, token.toString());
+                }
+            }
+            digest.update((byte) 1);
+        }
+
+        final StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return key.toString();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * @return the cached result for the given key, or <code>null</code> if it has not been cached
+     */
+    public byte[] getIfPresent(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (results) {
+            final byte[] result = results.get(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        if (directory != null) {
+            final Path file = directory.resolve(key);
+            if (Files.isRegularFile(file)) {
+                try {
+                    final byte[] result = Files.readAllBytes(file);
+                    put(key, result, false);
+                    return result;
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, e, () -> "Failed to read cached result " + file);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a result, computing it with the given executor if it has neither been cached nor is being computed.
+     * <p>
+     * Each call returns a future of its own, which a caller cancels when it no longer waits for the result. The
+     * computation is cancelled via the token passed to it, once all callers waiting for it have done so.
+     *
+     * @param key the key of the result; <code>null</code> if it must not be cached or shared
+     */
+    public CompletableFuture<byte[]> get(String key, Function<Cancellation, byte[]> computation, Executor executor) {
+        final byte[] cached = getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final Computation result = new Computation(key);
+        result.join();
+        if (key != null) {
+            final Computation pending = inFlight.putIfAbsent(key, result);
+            if (pending != null && pending.join()) {
+                return pending.waiter();
+            }
+            inFlight.put(key, result);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    byte[] computed = getIfPresent(key);
+                    if (computed == null) {
+                        computed = result.cancellation.call(() -> computation.apply(result.cancellation));
+                        if (key != null) {
+                            put(key, computed, true);
+                        }
+                    }
+                    result.result.complete(computed);
+                } catch (Throwable t) {
+                    result.result.completeExceptionally(t);
+                } finally {
+                    result.done();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.result.completeExceptionally(e);
+            result.done();
+        }
+        return result.waiter();
+    }
+
+    /**
+     * A computation of a result, shared by the callers waiting for it.
+     */
+    private class Computation {
+
+        private final String key;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        private final Cancellation cancellation = Cancellation.create();
+        private int waiters = 0;
+        private boolean abandoned = false;
+
+        private Computation(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return <code>false</code> if the computation has been abandoned by all waiters before
+         */
+        private synchronized boolean join() {
+            if (abandoned) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        private CompletableFuture<byte[]> waiter() {
+            final CompletableFuture<byte[]> waiter = new CompletableFuture<>();
+            result.whenComplete((computed, error) -> {
+                if (error == null) {
+                    waiter.complete(computed);
+                } else {
+                    waiter.completeExceptionally(error);
+                }
+            });
+            waiter.whenComplete((computed, error) -> {
+                if (error instanceof CancellationException && !result.isDone()) {
+                    leave();
+                }
+            });
+            return waiter;
+        }
+
+        private synchronized void leave() {
+            if (--waiters == 0 && !result.isDone()) {
+                abandoned = true;
+                cancellation.cancel();
+                if (key != null) {
+                    inFlight.remove(key, this);
+                }
+            }
+        }
+
+        private void done() {
+            if (key != null) {
+                inFlight.remove(key, this);
+            }
+        }
+    }
+
+    private void put(String key, byte[] result, boolean store) {
+        if (result.length <= maxSize) {
+            synchronized (results) {
+                final byte[] replaced = results.put(key, result);
+                size += result.length - (replaced == null ? 0 : replaced.length);
+                for (Iterator<Map.Entry<String, byte[]>> it = results.entrySet().iterator(); size > maxSize && it.hasNext(); ) {
+                    size -= it.next().getValue().length;
+                    it.remove();
+                }
+            }
+        }
+        if (store && directory != null && result.length <= maxDirectorySize) {
+            try {
+                final Path temp = Files.createTempFile(directory, key, ".tmp");
+                Files.write(temp, result);
+                Files.move(temp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                stored(key, result.length);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, e, () -> "Failed to store cached result " + key);
+            }
+        }
+    }
+
+    /**
+     * Records a result stored in the directory, deleting the oldest ones beyond the directory's size limit.
+     */
+    private void stored(String key, long length) {
+        final List<String> evicted = new ArrayList<>();
+        synchronized (stored) {
+            final Long replaced = stored.remove(key);
+            stored.put(key, length);
+            storedSize += length - (replaced == null ? 0 : replaced);
+            for (Iterator<Map.Entry<String, Long>> it = stored.entrySet().iterator(); storedSize > maxDirectorySize && it.hasNext(); ) {
+                final Map.Entry<String, Long> oldest = it.next();
+                storedSize -= oldest.getValue();
+                evicted.add(oldest.getKey());
+                it.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(evictedKey));
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, e, () -> "Failed to evict cached result " + evictedKey);
+            }
+        }
+    }
+}
@@ -20,24 +20,36 @@
 package eu.interedition.collatex.tools;
 
 import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.simple.CollationJobs;
 import eu.interedition.collatex.simple.SimpleCollation;
+import eu.interedition.collatex.simple.SimpleJsonCollationReader;
 import eu.interedition.collatex.simple.SimpleToken;
 import eu.interedition.collatex.simple.SimpleVariantGraphSerializer;
 import eu.interedition.collatex.simple.SimpleWitness;
+import eu.interedition.collatex.util.Cancellation;
 import org.apache.commons.cli.CommandLine;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.EmptyCompletionHandler;
 import org.glassfish.grizzly.http.CompressionConfig;
 import org.glassfish.grizzly.http.server.*;
 import org.glassfish.grizzly.http.server.accesslog.AccessLogAppender;
 import org.glassfish.grizzly.http.server.accesslog.AccessLogProbe;
 import org.glassfish.grizzly.http.server.accesslog.ApacheLogFormat;
+import org.glassfish.grizzly.http.Method;
 import org.glassfish.grizzly.http.util.Header;
 
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Optional;
@@ -45,6 +57,7 @@ import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -54,13 +67,44 @@ import java.util.stream.Collectors;
 public class CollationServer {
     private static final Logger LOG = Logger.getLogger(CollationServer.class.getName());
 
+    private static final long SUSPENSION_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private static final Pattern ORDER_BY_COMPLETION = Pattern.compile("(^|&)order=completion(&|$)");
+
     private final int maxCollationSize;
+    private final long maxRequestSize;
+    private final long maxQueuedTokens;
     private final String dotPath;
-    private final ExecutorService collationThreads;
+    private final ThreadPoolExecutor collationThreads;
     private final ExecutorService processThreads = Executors.newCachedThreadPool();
+    private final CollationResultCache resultCache;
+    private final CollationJobs jobs;
 
-    public CollationServer(int maxParallelCollations, int maxCollationSize, String dotPath) {
-        this.collationThreads = Executors.newFixedThreadPool(maxParallelCollations, new ThreadFactory() {
+    private final AtomicLong queuedTokens = new AtomicLong();
+    private volatile double tokensPerSecond = 0;
+
+    public CollationServer(int maxParallelCollations, int maxCollationSize, String dotPath) throws IOException {
+        this(maxParallelCollations, 64, 0, maxCollationSize, 0, dotPath, new CollationResultCache(0, null, 0),
+            new CollationJobs(1, 100, 1, TimeUnit.HOURS));
+    }
+
+    /**
+     * @param maxQueuedCollations the number of collations waiting for a thread beyond which requests are rejected
+     * @param maxQueuedTokens     the number of tokens in waiting and running collations beyond which requests are
+     *                            rejected; <code>0</code> for no limit
+     * @param maxCollationSize    the maximum number of tokens in a synchronously performed collation, counted over all
+     *                            witnesses; <code>0</code> for no limit
+     * @param maxRequestSize      the maximum number of bytes in a collation request; <code>0</code> for no limit
+     * @param dotPath             the path to Graphviz' <code>dot</code> for rendering SVG; <code>null</code> to render it
+     *                            in-process
+     * @param jobs                the scheduler of collations run in the background
+     */
+    public CollationServer(int maxParallelCollations, int maxQueuedCollations, long maxQueuedTokens, int maxCollationSize,
+                           long maxRequestSize, String dotPath, CollationResultCache resultCache, CollationJobs jobs) {
+        this.collationThreads = new ThreadPoolExecutor(maxParallelCollations, maxParallelCollations, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Math.max(1, maxQueuedCollations)), new ThreadFactory() {
             private final AtomicLong counter = new AtomicLong();
 
             @Override
@@ -72,15 +116,34 @@ public class CollationServer {
             }
         });
 
+        this.maxQueuedTokens = maxQueuedTokens;
         this.maxCollationSize = maxCollationSize;
+        this.maxRequestSize = maxRequestSize;
         this.dotPath = dotPath;
+        this.resultCache = resultCache;
+        this.jobs = jobs;
     }
 
-    public static void start(CommandLine commandLine) {
+    public static void start(CommandLine commandLine) throws IOException {
+        final int maxCollationSize = Integer.parseInt(commandLine.getOptionValue("mcs", "0"));
         final CollationServer collator = new CollationServer(
             Integer.parseInt(commandLine.getOptionValue("mpc", "2")),
-            Integer.parseInt(commandLine.getOptionValue("mcs", "0")),
-            Optional.ofNullable(commandLine.getOptionValue("dot")).orElse(detectDotPath())
+            Integer.parseInt(commandLine.getOptionValue("mqc", "64")),
+            Long.parseLong(commandLine.getOptionValue("mqt", "0")),
+            maxCollationSize,
+            Long.parseLong(commandLine.getOptionValue("mrs", "0")) * 1024,
+            Optional.ofNullable(commandLine.getOptionValue("dot")).map(dot -> "auto".equals(dot) ? detectDotPath() : dot).orElse(null),
+            new CollationResultCache(
+                Long.parseLong(commandLine.getOptionValue("rcs", "64")) * 1024 * 1024,
+                Optional.ofNullable(commandLine.getOptionValue("rcd")).map(Paths::get).orElse(null),
+                Long.parseLong(commandLine.getOptionValue("rcds", "1024")) * 1024 * 1024
+            ),
+            new CollationJobs(
+                Integer.parseInt(commandLine.getOptionValue("mcj", "1")),
+                Integer.parseInt(commandLine.getOptionValue("mj", "100")),
+                Optional.ofNullable(commandLine.getOptionValue("mjs")).map(Long::parseLong).orElse(10L * maxCollationSize),
+                Long.parseLong(commandLine.getOptionValue("jt", "60")), TimeUnit.MINUTES
+            )
         );
         final String staticPath = System.getProperty("collatex.static.path", "");
         final HttpHandler httpHandler = staticPath.isEmpty() ? new CLStaticHttpHandler(CollationPipe.class.getClassLoader(), "/static/") {
@@ -100,7 +163,7 @@ public class CollationServer {
         final CompressionConfig compressionConfig = httpListener.getCompressionConfig();
         compressionConfig.setCompressionMode(CompressionConfig.CompressionMode.ON);
         compressionConfig.setCompressionMinSize(860); // http://webmasters.stackexchange.com/questions/31750/what-is-recommended-minimum-object-size-for-gzip-performance-benefits
-        compressionConfig.setCompressableMimeTypes("application/javascript", "application/json", "application/xml", "text/css", "text/html", "text/javascript", "text/plain", "text/xml");
+        compressionConfig.setCompressableMimeTypes("application/javascript", "application/json", NDJSON_CONTENT_TYPE, "application/xml", "text/css", "text/html", "text/javascript", "text/plain", "text/xml");
 
         final HttpServer httpServer = new HttpServer();
         final ServerConfiguration httpServerConfig = httpServer.getServerConfiguration();
@@ -124,148 +187,441 @@ public class CollationServer {
 
     public void service(Request request, Response response) throws Exception {
         final Deque<String> path = path(request);
-        if (path.isEmpty() || !"collate".equals(path.pop())) {
+        final String resource = (path.isEmpty() ? "" : path.pop());
+        if ("jobs".equals(resource)) {
+            serviceJobs(request, response, path);
+            return;
+        }
+        if ("batch".equals(resource)) {
+            serviceBatch(request, response, path);
+            return;
+        }
+        if (!"collate".equals(resource) || !path.isEmpty()) {
             response.sendError(404);
             return;
         }
 
-        final SimpleCollation collation = JsonProcessor.read(request.getInputStream());
-        if (maxCollationSize > 0) {
-            for (SimpleWitness witness : collation.getWitnesses()) {
-                final int witnessLength = witness.getTokens().stream()
-                        .filter(t -> t instanceof SimpleToken).map(t -> (SimpleToken) t).mapToInt(t -> t.getContent().length()).sum();
-                if (witnessLength > maxCollationSize) {
-                    response.sendError(413, "Request Entity Too Large");
-                    return;
+        final SimpleCollation collation = read(request, response, maxCollationSize);
+        if (collation == null) {
+            return;
+        }
+        final long collationSize = collation.getWitnesses().stream().mapToLong(SimpleWitness::size).sum();
+
+        final Format format = Format.accepted(Optional.ofNullable(request.getHeader(Header.Accept)).orElse(""));
+
+        final String key = CollationResultCache.key(collation, format.contentType);
+        final byte[] cached = resultCache.getIfPresent(key);
+        if (cached != null) {
+            respond(request, response, format, cached);
+            return;
+        }
+
+        final CompletableFuture<byte[]> collated = resultCache.get(key, cancellation -> {
+            final long start = System.nanoTime();
+            final byte[] result = render(collation, format, cancellation);
+            final double throughput = collationSize / Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+            tokensPerSecond = (tokensPerSecond == 0 ? throughput : 0.8 * tokensPerSecond + 0.2 * throughput);
+            return result;
+        }, collationExecutor(collationSize));
+
+        // stop waiting once the client has gone away or the response has expired; the collation is abandoned
+        // when no other request waits for it
+        final Connection<?> connection = request.getContext().getConnection();
+        final CloseListener<Closeable, CloseType> disconnected = (closeable, type) -> collated.cancel(false);
+        connection.addCloseListener(disconnected);
+        response.suspend(SUSPENSION_TIMEOUT, TimeUnit.NANOSECONDS, new EmptyCompletionHandler<Response>() {
+            @Override
+            public void cancelled() {
+                collated.cancel(false);
+            }
+        });
+        collated.whenComplete((result, error) -> {
+            connection.removeCloseListener(disconnected);
+            try {
+                if (error == null) {
+                    respond(request, response, format, result);
+                } else if (error instanceof RejectedExecutionException || error.getCause() instanceof RejectedExecutionException) {
+                    tooManyRequests(response);
+                } else if (error instanceof CancellationException || error.getCause() instanceof CancellationException) {
+                    LOG.fine(error::getMessage);
+                    response.setHeader("Retry-After", "1");
+                    response.sendError(503);
+                } else {
+                    LOG.log(Level.WARNING, error, error::getMessage);
+                    response.sendError(500);
+                }
+            } catch (IOException e) {
+                // FIXME: ignored
+            } finally {
+                if (response.isSuspended()) {
+                    response.resume();
                 }
             }
-        }
+        });
+    }
 
-        response.suspend(60, TimeUnit.SECONDS, new EmptyCompletionHandler<>());
-        collationThreads.submit(() -> {
+    /**
+     * @return an executor of collations of the given size, which counts their tokens as queued while they wait for or
+     *         run on the collation threads, and rejects them if that exceeds the limit of queued tokens; collations
+     *         shared via the result cache are only submitted, and counted, once
+     */
+    private Executor collationExecutor(long collationSize) {
+        return command -> {
+            final long queued = queuedTokens.addAndGet(collationSize);
+            if (maxQueuedTokens > 0 && queued > maxQueuedTokens && queued > collationSize) {
+                queuedTokens.addAndGet(-collationSize);
+                throw new RejectedExecutionException("Too many queued tokens");
+            }
             try {
-                final VariantGraph graph = new VariantGraph();
-                collation.collate(graph);
-
-                // CORS support
-                response.setHeader("Access-Control-Allow-Origin", Optional.ofNullable(request.getHeader("Origin")).orElse("*"));
-                response.setHeader("Access-Control-Allow-Methods", Optional.ofNullable(request.getHeader("Access-Control-Request-Method")).orElse("GET, POST, HEAD, OPTIONS"));
-                response.setHeader("Access-Control-Allow-Headers", Optional.ofNullable(request.getHeader("Access-Control-Request-Headers")).orElse("Content-Type, Accept, X-Requested-With"));
-                response.setHeader("Access-Control-Max-Age", "86400");
-                response.setHeader("Access-Control-Allow-Credentials", "true");
-
-                final String clientAccepts = Optional.ofNullable(request.getHeader(Header.Accept)).orElse("");
-
-                if (clientAccepts.contains("text/plain")) {
-                    response.setContentType("text/plain");
-                    response.setCharacterEncoding("utf-8");
-                    try (final Writer out = response.getWriter()) {
-                        new SimpleVariantGraphSerializer(graph).toDot(out);
+                collationThreads.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        queuedTokens.addAndGet(-collationSize);
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                queuedTokens.addAndGet(-collationSize);
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Collation jobs: <code>POST /jobs</code> submits a collation, optionally with a <code>priority</code> parameter,
+     * <code>GET /jobs/{id}</code> reports its status, <code>GET /jobs/{id}/result</code> renders its result in the
+     * format accepted by the client, and <code>DELETE /jobs/{id}</code> cancels and discards it.
+     */
+    private void serviceJobs(Request request, Response response, Deque<String> path) throws Exception {
+        final Method method = request.getMethod();
+        if (path.isEmpty()) {
+            if (!Method.POST.equals(method)) {
+                response.sendError(405);
+                return;
+            }
+            final SimpleCollation collation = read(request, response, jobs.getMaxJobSize());
+            if (collation == null) {
+                return;
+            }
+            final int priority;
+            try {
+                priority = Integer.parseInt(Optional.ofNullable(request.getParameter("priority")).orElse("0"));
+            } catch (NumberFormatException e) {
+                response.sendError(400, "Invalid priority");
+                return;
+            }
+            final CollationJobs.Job job;
+            try {
+                job = jobs.submit(collation, priority);
+            } catch (RejectedExecutionException e) {
+                response.setHeader("Retry-After", "60");
+                response.sendError(429, "Too Many Requests");
+                return;
+            }
+            response.setStatus(202);
+            response.setHeader(Header.Location, request.getRequestURI().replaceAll("/+$", "") + "/" + job.getId());
+            respond(request, response, Format.JSON, jobStatus(job));
+            return;
+        }
+
+        final CollationJobs.Job job = jobs.get(path.pop()).orElse(null);
+        if (job == null) {
+            response.sendError(404);
+            return;
+        }
+        if (path.isEmpty()) {
+            if (Method.DELETE.equals(method)) {
+                jobs.remove(job.getId());
+                response.setStatus(204);
+            } else {
+                respond(request, response, Format.JSON, jobStatus(job));
+            }
+            return;
+        }
+        if (!"result".equals(path.pop()) || !path.isEmpty()) {
+            response.sendError(404);
+            return;
+        }
+        if (job.getStatus() != CollationJobs.Status.DONE) {
+            response.setStatus(409);
+            respond(request, response, Format.JSON, jobStatus(job));
+            return;
+        }
+
+        final Format format = Format.accepted(Optional.ofNullable(request.getHeader(Header.Accept)).orElse(""));
+        response.suspend(SUSPENSION_TIMEOUT, TimeUnit.NANOSECONDS, new EmptyCompletionHandler<>());
+        processThreads.execute(() -> {
+            try {
+                respond(request, response, format, serialize(job.getResult(), format));
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, t, t::getMessage);
+            } finally {
+                if (response.isSuspended()) {
                     response.resume();
+                }
+            }
+        });
+    }
 
-                } else if (clientAccepts.contains("application/tei+xml")) {
-                    XMLStreamWriter xml = null;
-                    try {
-                        response.setContentType("application/tei+xml");
-                        try (OutputStream responseStream = response.getOutputStream()) {
-                            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(responseStream);
-                            xml.writeStartDocument();
-                            new SimpleVariantGraphSerializer(graph).toTEI(xml);
-                            xml.writeEndDocument();
+    /**
+     * Batches of collations: <code>POST /batch</code> reads collations given as a JSON array or as newline-delimited
+     * JSON, performs them in parallel and streams their alignment tables back as newline-delimited JSON, tagged with
+     * the <code>id</code> of each collation or its index in the batch. Results are written in the order of the batch,
+     * unless the parameter <code>order=completion</code> asks for them as soon as they are available.
+     */
+    private void serviceBatch(Request request, Response response, Deque<String> path) throws Exception {
+        if (!path.isEmpty()) {
+            response.sendError(404);
+            return;
+        }
+        if (!Method.POST.equals(request.getMethod())) {
+            response.sendError(405);
+            return;
+        }
+        // the body is not to be parsed as form parameters, whatever its declared content type
+        final boolean ordered = !Optional.ofNullable(request.getQueryString()).map(ORDER_BY_COMPLETION::matcher).map(Matcher::find).orElse(false);
+
+        // collations are shared via the result cache and count as queued tokens; once the client has gone away, or no
+        // collation has completed within the suspension timeout, the batch is abandoned
+        final CollationBatch batch = new CollationBatch(2 * collationThreads.getMaximumPoolSize(), ordered, collation -> {
+            final long collationSize = collation.getWitnesses().stream().mapToLong(SimpleWitness::size).sum();
+            final CompletableFuture<byte[]> collated = resultCache.get(
+                CollationResultCache.key(collation, Format.JSON.contentType),
+                cancellation -> render(collation, Format.JSON, cancellation),
+                collationExecutor(collationSize)
+            );
+            collated.whenComplete((result, error) -> {
+                final SuspendContext suspended = response.getSuspendContext();
+                if (suspended.isSuspended()) {
+                    suspended.setTimeout(SUSPENSION_TIMEOUT, TimeUnit.NANOSECONDS);
+                }
+            });
+            return collated;
+        });
+        final Connection<?> connection = request.getContext().getConnection();
+        final CloseListener<Closeable, CloseType> disconnected = (closeable, type) -> batch.cancel();
+        connection.addCloseListener(disconnected);
+
+        allowOrigin(request, response);
+        response.setContentType(NDJSON_CONTENT_TYPE);
+        response.suspend(SUSPENSION_TIMEOUT, TimeUnit.NANOSECONDS, new EmptyCompletionHandler<Response>() {
+            @Override
+            public void cancelled() {
+                batch.cancel();
+            }
+        });
+        processThreads.execute(() -> {
+            try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(request.getInputStream(), maxCollationSize, maxRequestSize);
+                 OutputStream out = response.getOutputStream()) {
+                final int collations = batch.process(reader, out);
+                if (LOG.isLoggable(Level.FINE)) {
+                    LOG.log(Level.FINE, "Collated batch of {0} collation(s)", collations);
+                }
+            } catch (IOException e) {
+                LOG.log(Level.FINE, e, e::getMessage);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.cancel();
+                connection.removeCloseListener(disconnected);
+                if (response.isSuspended()) {
+                    response.resume();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a collation from the request body, rejecting it as soon as it exceeds the configured limits.
+     *
+     * @param maxTokens the maximum number of tokens in the collation; <code>0</code> for no limit
+     * @return the collation or <code>null</code> if the request has been rejected
+     */
+    private SimpleCollation read(Request request, Response response, long maxTokens) throws IOException {
+        try {
+            return JsonProcessor.read(request.getInputStream(), maxTokens, maxRequestSize);
+        } catch (SimpleJsonCollationReader.LimitExceededException e) {
+            response.sendError(413, "Request Entity Too Large");
+        } catch (IOException e) {
+            response.sendError(400, e.getMessage());
+        }
+        return null;
+    }
+
+    private byte[] jobStatus(CollationJobs.Job job) {
+        final ByteArrayOutputStream status = new ByteArrayOutputStream();
+        try (JsonGenerator jgen = Json.createGenerator(status)) {
+            jgen.writeStartObject();
+            jgen.write("id", job.getId());
+            jgen.write("status", job.getStatus().name().toLowerCase());
+            jgen.write("priority", job.getPriority());
+            jgen.write("submitted", job.getSubmitted());
+            if (job.getStarted() > 0) {
+                jgen.write("started", job.getStarted());
+            }
+            if (job.getStatus() == CollationJobs.Status.QUEUED) {
+                jgen.write("queuePosition", jobs.queuePosition(job));
+            }
+            if (job.getError() != null) {
+                jgen.write("error", String.valueOf(job.getError().getMessage()));
+            }
+            jgen.writeEnd();
+        }
+        return status.toByteArray();
+    }
+
+    /**
+     * Rejects a request for lack of capacity, suggesting to retry once the tokens currently queued are likely to
+     * have been collated.
+     */
+    private void tooManyRequests(Response response) throws IOException {
+        final double throughput = tokensPerSecond * collationThreads.getMaximumPoolSize();
+        final long retryAfter = (throughput == 0 ? 5 : (long) Math.ceil(queuedTokens.get() / throughput));
+        response.setHeader("Retry-After", Long.toString(Math.min(60, Math.max(1, retryAfter))));
+        response.sendError(429, "Too Many Requests");
+    }
+
+    private static void respond(Request request, Response response, Format format, byte[] result) throws IOException {
+        allowOrigin(request, response);
+
+        response.setContentType(format.contentType);
+        if (format == Format.DOT) {
+            response.setCharacterEncoding("utf-8");
+        }
+        response.setContentLength(result.length);
+        try (OutputStream responseStream = response.getOutputStream()) {
+            responseStream.write(result);
+        }
+    }
+
+    private static void allowOrigin(Request request, Response response) {
+        // CORS support
+        response.setHeader("Access-Control-Allow-Origin", Optional.ofNullable(request.getHeader("Origin")).orElse("*"));
+        response.setHeader("Access-Control-Allow-Methods", Optional.ofNullable(request.getHeader("Access-Control-Request-Method")).orElse("GET, POST, HEAD, OPTIONS"));
+        response.setHeader("Access-Control-Allow-Headers", Optional.ofNullable(request.getHeader("Access-Control-Request-Headers")).orElse("Content-Type, Accept, X-Requested-With"));
+        response.setHeader("Access-Control-Max-Age", "86400");
+        response.setHeader("Access-Control-Allow-Credentials", "true");
+    }
+
+    private byte[] render(SimpleCollation collation, Format format, Cancellation cancellation) {
+        return serialize(collation.collate(new VariantGraph(), cancellation), format);
+    }
+
+    private byte[] serialize(VariantGraph graph, Format format) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try {
+            switch (format) {
+                case DOT:
+                    try (Writer out = new OutputStreamWriter(result, StandardCharsets.UTF_8)) {
+                        new SimpleVariantGraphSerializer(graph).toDot(out);
+                    }
+                    break;
+                case SVG:
+                    if (dotPath != null) {
+                        dot(graph, result);
+                    } else {
+                        // rendered in-process unless Graphviz has been configured
+                        final XMLStreamWriter svg = XMLOutputFactory.newInstance().createXMLStreamWriter(result, "UTF-8");
+                        try {
+                            svg.writeStartDocument();
+                            new SimpleVariantGraphSerializer(graph).toSVG(svg);
+                            svg.writeEndDocument();
                         } finally {
-                            if (xml != null) {
-                                xml.close();
-                            }
+                            svg.close();
                         }
-                        response.resume();
-                    } catch (XMLStreamException e) {
-                        e.printStackTrace();
                     }
-                } else if (clientAccepts.contains("application/graphml+xml")) {
-                    XMLStreamWriter xml = null;
+                    break;
+                case TEI:
+                case GRAPHML:
+                    final XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(result, "UTF-8");
                     try {
-                        response.setContentType("application/graphml+xml");
-                        try (OutputStream responseStream = response.getOutputStream()) {
-                            xml = XMLOutputFactory.newInstance().createXMLStreamWriter(responseStream);
-                            xml.writeStartDocument();
+                        xml.writeStartDocument();
+                        if (format == Format.TEI) {
+                            new SimpleVariantGraphSerializer(graph).toTEI(xml);
+                        } else {
                             new SimpleVariantGraphSerializer(graph).toGraphML(xml);
-                            xml.writeEndDocument();
-                        } finally {
-                            if (xml != null) {
-                                xml.close();
-                            }
                         }
-                        response.resume();
-                    } catch (XMLStreamException e) {
-                        e.printStackTrace();
-                    }
-                } else if (clientAccepts.contains("image/svg+xml")) {
-                    if (dotPath == null) {
-                        response.sendError(204);
-                        response.resume();
-                    } else {
-                        final StringWriter dot = new StringWriter();
-                        new SimpleVariantGraphSerializer(graph).toDot(dot);
-
-                        final Process dotProc = new ProcessBuilder(dotPath, "-Grankdir=LR", "-Gid=VariantGraph", "-Tsvg").start();
-                        final StringWriter errors = new StringWriter();
-                        CompletableFuture.allOf(
-                            CompletableFuture.runAsync(() -> {
-                                final char[] buf = new char[8192];
-                                try (final Reader errorStream = new InputStreamReader(dotProc.getErrorStream())) {
-                                    int len;
-                                    while ((len = errorStream.read(buf)) >= 0) {
-                                        errors.write(buf, 0, len);
-                                    }
-                                } catch (IOException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads),
-                            CompletableFuture.runAsync(() -> {
-                                try (final Writer dotProcStream = new OutputStreamWriter(dotProc.getOutputStream(), "UTF-8")) {
-                                    dotProcStream.write(dot.toString());
-                                } catch (IOException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads),
-                            CompletableFuture.runAsync(() -> {
-                                response.setContentType("image/svg+xml");
-                                final byte[] buf = new byte[8192];
-                                try (final InputStream in = dotProc.getInputStream(); final OutputStream out = response.getOutputStream()) {
-                                    int len;
-                                    while ((len = in.read(buf)) >= 0) {
-                                        out.write(buf, 0, len);
-                                    }
-                                } catch (IOException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads),
-                            CompletableFuture.runAsync(() -> {
-                                try {
-                                    if (dotProc.waitFor() != 0) {
-                                        throw new CompletionException(new IllegalStateException(errors.toString()));
-                                    }
-                                } catch (InterruptedException e) {
-                                    throw new CompletionException(e);
-                                }
-                            }, processThreads)
-                        ).exceptionally(t -> {
-                            t.printStackTrace();
-                            return null;
-                        }).thenRunAsync(response::resume, processThreads);
+                        xml.writeEndDocument();
+                    } finally {
+                        xml.close();
                     }
-                } else {
-                    response.setContentType("application/json");
-                    try (final OutputStream responseStream = response.getOutputStream()) {
-                        JsonProcessor.write(graph, responseStream);
+                    break;
+                default:
+                    JsonProcessor.write(graph, result);
+                    break;
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new CompletionException(e);
+        }
+        return result.toByteArray();
+    }
+
+    private void dot(VariantGraph graph, OutputStream out) throws IOException {
+        final Process dotProc = new ProcessBuilder(dotPath, "-Grankdir=LR", "-Gid=VariantGraph", "-Tsvg").start();
+        final StringWriter errors = new StringWriter();
+        final CompletableFuture<Void> processIO = CompletableFuture.allOf(
+            CompletableFuture.runAsync(() -> {
+                final char[] buf = new char[8192];
+                try (final Reader errorStream = new InputStreamReader(dotProc.getErrorStream())) {
+                    int len;
+                    while ((len = errorStream.read(buf)) >= 0) {
+                        errors.write(buf, 0, len);
                     }
-                    response.resume();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
                 }
-            } catch (IOException e) {
-                // FIXME: ignored
+            }, processThreads),
+            CompletableFuture.runAsync(() -> {
+                try (final Writer dotProcStream = new OutputStreamWriter(dotProc.getOutputStream(), "UTF-8")) {
+                    new SimpleVariantGraphSerializer(graph).toDot(dotProcStream);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, processThreads)
+        );
+
+        final byte[] buf = new byte[8192];
+        try (final InputStream in = dotProc.getInputStream()) {
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                out.write(buf, 0, len);
             }
-        });
+        }
+        try {
+            processIO.join();
+            if (dotProc.waitFor() != 0) {
+                throw new IOException(errors.toString());
+            }
+        } catch (InterruptedException e) {
+            dotProc.destroy();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * The output formats, in the order in which they are matched against a client's <code>Accept</code> header.
+     */
+    private enum Format {
+        DOT("text/plain"),
+        TEI("application/tei+xml"),
+        GRAPHML("application/graphml+xml"),
+        SVG("image/svg+xml"),
+        JSON("application/json");
+
+        final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        static Format accepted(String clientAccepts) {
+            for (Format format : values()) {
+                if (clientAccepts.contains(format.contentType)) {
+                    return format;
+                }
+            }
+            return JSON;
+        }
     }
 
     private static Deque<String> path(Request request) {
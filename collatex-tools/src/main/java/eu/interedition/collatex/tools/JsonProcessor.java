@@ -20,38 +20,41 @@
 package eu.interedition.collatex.tools;
 
 import eu.interedition.collatex.CollationAlgorithm;
-import eu.interedition.collatex.CollationAlgorithmFactory;
 import eu.interedition.collatex.VariantGraph;
 import eu.interedition.collatex.Witness;
-import eu.interedition.collatex.dekker.InspectableCollationAlgorithm;
-import eu.interedition.collatex.matching.EditDistanceTokenComparator;
-import eu.interedition.collatex.matching.EqualityTokenComparator;
 import eu.interedition.collatex.simple.SimpleCollation;
-import eu.interedition.collatex.simple.SimplePatternTokenizer;
+import eu.interedition.collatex.simple.SimpleJsonCollationReader;
+import eu.interedition.collatex.simple.SimpleJsonCollationReader.LimitExceededException;
+import eu.interedition.collatex.simple.SimpleJsonTableWriter;
 import eu.interedition.collatex.simple.SimpleToken;
-import eu.interedition.collatex.simple.SimpleTokenNormalizers;
 import eu.interedition.collatex.simple.SimpleWitness;
 import eu.interedition.collatex.util.ParallelSegmentationApparatus;
 import eu.interedition.collatex.util.VariantGraphRanking;
 
 import javax.json.Json;
-import javax.json.JsonArray;
+import javax.json.JsonException;
 import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonString;
-import javax.json.JsonStructure;
-import javax.json.JsonValue;
 import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Comparator;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.SortedMap;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.function.Function;
 import java.util.stream.StreamSupport;
 
 /**
@@ -59,161 +62,253 @@ import java.util.stream.StreamSupport;
  */
 public class JsonProcessor {
 
-    public static SimpleCollation read(InputStream inputStream) throws IOException {
-        try (JsonReader reader = Json.createReader(inputStream)) {
-            final JsonStructure collationNode = reader.read();
-            if (collationNode.getValueType() != JsonValue.ValueType.OBJECT) {
-                throw new IOException("Expecting JSON object");
-            }
-            final JsonObject collationObject = (JsonObject) collationNode;
+    private static final int BUFFER_SIZE = 16384;
 
-            JsonArray witnessesNode;
-            try {
-                witnessesNode = collationObject.getJsonArray("witnesses");
-            } catch (ClassCastException e) {
-                throw new IOException("Expecting 'witnesses' array");
-            }
+    private static final Function<SimpleToken, String> TOKEN_TO_JSON = token -> (token instanceof Token ? ((Token) token).getJsonNode().toString() : null);
 
-            final List<SimpleWitness> witnesses = new ArrayList<>(witnessesNode.size());
-
-            for (JsonValue witnessNode : witnessesNode) {
-                if (witnessNode.getValueType() != JsonValue.ValueType.OBJECT) {
-                    throw new IOException("Expecting witness object");
-                }
-                final JsonObject witnessObject = (JsonObject) witnessNode;
+    public static Collation read(InputStream inputStream) throws IOException {
+        return read(inputStream, 0, 0);
+    }
 
-                final String witnessId;
-                try {
-                    witnessId = witnessObject.getString("id").trim();
-                } catch (ClassCastException e) {
-                    throw new IOException("Expected textual witness 'id'");
-                }
-                if (witnessId.length() == 0) {
-                    throw new IOException("Empty witness 'id' encountered");
-                }
+    /**
+     * Reads a collation from a stream of JSON parser events, without building an object tree of the whole request.
+     * <p>
+     * Witness contents are tokenized and token arrays collected as they are read, so limits on the size of a collation
+     * are enforced before the request has been read completely.
+     *
+     * @param maxTokens the maximum number of tokens, counted over all witnesses; <code>0</code> for no limit
+     * @param maxBytes  the maximum number of bytes read from the given stream; <code>0</code> for no limit
+     * @throws LimitExceededException if the collation exceeds one of the given limits
+     */
+    public static Collation read(InputStream inputStream, long maxTokens, long maxBytes) throws IOException {
+        return reader(maxTokens).read(inputStream, maxBytes);
+    }
 
-                final SimpleWitness witness = new SimpleWitness(witnessId);
-                if (witnesses.contains(witness)) {
-                    throw new IOException(String.format("Duplicate sigil for witness '%s", witness));
-                }
+    /**
+     * Reads a batch of collations, given either as a JSON array of collation objects or as newline-delimited JSON
+     * with one collation object per line.
+     * <p>
+     * Collations are read one at a time, as they are requested from the returned reader.
+     *
+     * @param maxTokens the maximum number of tokens per collation, counted over all witnesses; <code>0</code> for no
+     *                  limit
+     * @param maxBytes  the maximum number of bytes per line of newline-delimited JSON or per element of a JSON array;
+     *                  <code>0</code> for no limit
+     */
+    public static BatchReader readBatch(InputStream inputStream, long maxTokens, long maxBytes) {
+        return new BatchReader(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), maxTokens, maxBytes);
+    }
 
-                final JsonValue contentNode = witnessObject.get("content");
-                final JsonValue tokensNode = witnessObject.get("tokens");
-                if (contentNode == null && tokensNode == null) {
-                    throw new IOException(String.format("Expected either 'tokens' or 'content' field in witness \"%s\"", witness));
-                }
+    private static SimpleJsonCollationReader<Collation> reader(long maxTokens) {
+        return new SimpleJsonCollationReader<>(Token::new, Collation::new, maxTokens);
+    }
 
-                if (tokensNode != null) {
-                    if (tokensNode.getValueType() != JsonValue.ValueType.ARRAY) {
-                        throw new IOException(String.format("Expected 'tokens' array in witness \"%s\"", witness));
-                    }
-                    final JsonArray tokensArray = (JsonArray) tokensNode;
-                    final List<eu.interedition.collatex.Token> tokens = new ArrayList<>(tokensArray.size());
-                    for (JsonValue tokenNode : tokensArray) {
-                        if (tokenNode.getValueType() != JsonValue.ValueType.OBJECT) {
-                            throw new IOException(String.format("Expected token object in 'tokens' field in witness \"%s\"", witness));
-                        }
-                        final JsonObject tokenObject = (JsonObject) tokenNode;
-                        String tokenContent;
-                        try {
-                            tokenContent = tokenObject.getString("t");
-                        } catch (ClassCastException | NullPointerException e) {
-                            throw new IOException(String.format("Expected textual token content field 't' in witness \"%s\"", witness));
-                        }
+    /**
+     * Reads the collations of a batch.
+     * <p>
+     * A malformed or oversized collation in newline-delimited JSON only fails reading its line, whereas a malformed
+     * or oversized element of a JSON array ends the batch.
+     */
+    public static class BatchReader implements CollationBatch.Reader, Closeable {
+
+        private final BufferedReader reader;
+        private final SimpleJsonCollationReader<Collation> collationReader;
+        private final long maxBytes;
+        private JsonParser arrayParser;
+        private ElementLimitingReader elementLimit;
+        private boolean started = false;
+        private boolean ended = false;
+
+        private BatchReader(BufferedReader reader, long maxTokens, long maxBytes) {
+            this.reader = reader;
+            this.collationReader = reader(maxTokens);
+            this.maxBytes = maxBytes;
+        }
 
-                        String normalizedTokenContent;
-                        if (tokenObject.containsKey("n")) {
-                            try {
-                                normalizedTokenContent = tokenObject.getString("n");
-                            } catch (ClassCastException e) {
-                                throw new IOException(String.format("Expected textual normalized token content in witness \"%s\"", witness));
-                            }
-                        } else {
-                            normalizedTokenContent = SimpleWitness.TOKEN_NORMALIZER.apply(tokenContent);
-                        }
+        @Override
+        public Collation read() throws IOException {
+            if (ended) {
+                return null;
+            }
+            try {
+                if (!started) {
+                    started = true;
+                    start();
+                }
+                return (arrayParser == null ? readLine() : readElement());
+            } catch (JsonException | NoSuchElementException e) {
+                ended |= (arrayParser != null);
+                throw SimpleJsonCollationReader.ioException(e);
+            } catch (IOException e) {
+                ended |= (arrayParser != null);
+                throw e;
+            }
+        }
 
-                        if (normalizedTokenContent == null || normalizedTokenContent.length() == 0) {
-                            throw new IOException(String.format("Empty token encountered in witness \"%s\"", witness));
+        private void start() throws IOException {
+            try {
+                reader.mark(1);
+                for (int c = reader.read(); c != -1; c = reader.read()) {
+                    if (!Character.isWhitespace(c)) {
+                        reader.reset();
+                        if (c == '[') {
+                            arrayParser = Json.createParser(maxBytes > 0 ? (elementLimit = new ElementLimitingReader(reader, maxBytes)) : reader);
+                            arrayParser.next();
                         }
-
-                        tokens.add(new Token(witness, tokenContent, normalizedTokenContent, tokenObject));
+                        return;
                     }
-                    witness.setTokens(tokens);
-                } else {
-                    if (contentNode.getValueType() != JsonValue.ValueType.STRING) {
-                        throw new IOException(String.format("Expected 'content' text field in witness \"%s\"", witness));
-                    }
-                    witness.setTokenContents(
-                        SimplePatternTokenizer.BY_WS_OR_PUNCT.apply(((JsonString) contentNode).getString()),
-                        SimpleTokenNormalizers.LC_TRIM_WS
-                    );
+                    reader.mark(1);
                 }
-                witnesses.add(witness);
+            } catch (IOException e) {
+                ended = true;
+                throw e;
             }
+        }
 
-            if (witnesses.isEmpty()) {
-                throw new IOException("No witnesses in collation");
+        private Collation readLine() throws IOException {
+            while (true) {
+                final String line;
+                try {
+                    line = line();
+                } catch (LimitExceededException e) {
+                    throw e;
+                } catch (IOException e) {
+                    ended = true;
+                    throw e;
+                }
+                if (line == null) {
+                    ended = true;
+                    return null;
+                }
+                if (!line.trim().isEmpty()) {
+                    try (JsonParser parser = Json.createParser(new StringReader(line))) {
+                        return collationReader.read(parser);
+                    }
+                }
             }
+        }
 
-            Comparator<eu.interedition.collatex.Token> tokenComparator = null;
-            final JsonValue tokenComparatorNode = collationObject.get("tokenComparator");
-            if (tokenComparatorNode != null && tokenComparatorNode.getValueType() == JsonValue.ValueType.OBJECT) {
-                final JsonObject tokenComparatorObject = (JsonObject) tokenComparatorNode;
-                try {
-                    if ("levenshtein".equals(tokenComparatorObject.getString("type"))) {
-                        final int configuredDistance = tokenComparatorObject.getInt("distance", 0);
-                        tokenComparator = new EditDistanceTokenComparator(configuredDistance == 0 ? 1 : configuredDistance);
+        /**
+         * @return the next line or <code>null</code> at the end of the batch
+         * @throws LimitExceededException if the line exceeds the limit of bytes, after having skipped it
+         */
+        private String line() throws IOException {
+            if (maxBytes <= 0) {
+                return reader.readLine();
+            }
+            final StringBuilder line = new StringBuilder();
+            long bytes = 0;
+            int c;
+            while ((c = reader.read()) != -1 && c != '\n') {
+                bytes += (c < 0x80 ? 1 : (c < 0x800 || Character.isSurrogate((char) c)) ? 2 : 3);
+                if (bytes > maxBytes) {
+                    while (c != -1 && c != '\n') {
+                        c = reader.read();
                     }
-                } catch (ClassCastException e) {
-                    // ignored
+                    throw new LimitExceededException(String.format("Collation request exceeds %d bytes", maxBytes));
                 }
+                line.append((char) c);
             }
-            if (tokenComparator == null) {
-                tokenComparator = new EqualityTokenComparator();
+            return (c == -1 && line.length() == 0 ? null : line.toString());
+        }
+
+        private Collation readElement() throws IOException {
+            switch (arrayParser.next()) {
+                case START_OBJECT:
+                    if (elementLimit != null) {
+                        elementLimit.startElement();
+                    }
+                    return collationReader.readObject(arrayParser);
+                case END_ARRAY:
+                    ended = true;
+                    return null;
+                default:
+                    throw new IOException("Expecting collation object");
             }
+        }
 
-            CollationAlgorithm collationAlgorithm = null;
-            final JsonValue collationAlgorithmNode = collationObject.get("algorithm");
-            if (collationAlgorithmNode != null && collationAlgorithmNode.getValueType() == JsonValue.ValueType.STRING) {
-                final String collationAlgorithmValue = ((JsonString) collationAlgorithmNode).getString();
-                if ("needleman-wunsch".equalsIgnoreCase(collationAlgorithmValue)) {
-                    collationAlgorithm = CollationAlgorithmFactory.needlemanWunsch(tokenComparator);
-                } else if ("gst".equalsIgnoreCase(collationAlgorithmValue)) {
-                    collationAlgorithm = CollationAlgorithmFactory.greedyStringTiling(tokenComparator, 2);
-                } else if ("medite".equalsIgnoreCase(collationAlgorithmValue)) {
-                    collationAlgorithm = CollationAlgorithmFactory.medite(tokenComparator, SimpleToken.TOKEN_MATCH_EVALUATOR);
-                }
+        @Override
+        public void close() throws IOException {
+            if (arrayParser != null) {
+                arrayParser.close();
             }
-            if (collationAlgorithm == null) {
-                collationAlgorithm = CollationAlgorithmFactory.dekker(tokenComparator);
+            reader.close();
+        }
+    }
+
+    /**
+     * Limits the number of bytes read per element of a JSON array, counting the UTF-8 encoded length of the characters
+     * passed to the parser since the start of the current element.
+     * <p>
+     * Reads are served in small chunks, so that the parser's read-ahead, which is attributed to the element being
+     * read, distorts the count by at most one chunk.
+     */
+    private static class ElementLimitingReader extends FilterReader {
+
+        private static final int CHUNK_SIZE = 256;
+
+        private final long maxBytes;
+        private long bytes = 0;
+
+        private ElementLimitingReader(Reader in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        void startElement() {
+            bytes = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int c = super.read();
+            if (c >= 0) {
+                count((char) c);
             }
+            return c;
+        }
 
-            boolean joined = true;
-            try {
-                joined = collationObject.getBoolean("joined", true);
-            } catch (ClassCastException e) {
-                // ignored
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            final int read = super.read(cbuf, off, Math.min(len, CHUNK_SIZE));
+            for (int cc = 0; cc < read; cc++) {
+                count(cbuf[off + cc]);
             }
+            return read;
+        }
 
-            if (collationAlgorithm instanceof InspectableCollationAlgorithm) {
-                boolean mergeTranspositions = true;
-                try {
-                    mergeTranspositions = collationObject.getBoolean("transpositions", true);
-                } catch (ClassCastException e) {
-                    // ignored
-                }
-                ((InspectableCollationAlgorithm) collationAlgorithm).setMergeTranspositions(mergeTranspositions);
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Skipping is not supported");
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(char c) throws LimitExceededException {
+            bytes += (c < 0x80 ? 1 : (c < 0x800 || Character.isSurrogate(c)) ? 2 : 3);
+            if (bytes > maxBytes) {
+                throw new LimitExceededException(String.format("Collation request exceeds %d bytes", maxBytes));
             }
-            return new SimpleCollation(witnesses, collationAlgorithm, joined);
         }
     }
 
     public static void write(VariantGraph graph, OutputStream outputStream) throws IOException {
-        try (final JsonGenerator jgen = Json.createGenerator(outputStream)) {
-            write(jgen, graph);
+        try (final WritableByteChannel channel = Channels.newChannel(outputStream)) {
+            write(graph, channel);
         }
     }
 
+    /**
+     * Writes the alignment table of the given graph as UTF-8 encoded JSON, with tokens read from JSON written as they
+     * were given.
+     */
+    public static void write(VariantGraph graph, WritableByteChannel channel) throws IOException {
+        new SimpleJsonTableWriter(BUFFER_SIZE, TOKEN_TO_JSON).write(graph, channel);
+    }
+
     public static void write(VariantGraph graph, PrintWriter writer) throws IOException {
         try (final JsonGenerator jgen = Json.createGenerator(writer)) {
             write(jgen, graph);
@@ -263,6 +358,40 @@ public class JsonProcessor {
         });
     }
 
+    /**
+     * A collation read from JSON, which retains the settings it has been configured with.
+     */
+    public static class Collation extends SimpleCollation {
+
+        private final String settings;
+        private final String id;
+
+        public Collation(List<SimpleWitness> witnesses, CollationAlgorithm algorithm, boolean joined, String settings) {
+            this(witnesses, algorithm, joined, settings, null);
+        }
+
+        public Collation(List<SimpleWitness> witnesses, CollationAlgorithm algorithm, boolean joined, String settings, String id) {
+            super(witnesses, algorithm, joined);
+            this.settings = settings;
+            this.id = id;
+        }
+
+        /**
+         * @return the value of the collation's <code>id</code> field, by which it is identified in a batch;
+         *         <code>null</code> if none has been given
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return a canonical description of the algorithm, token comparator and flags of this collation
+         */
+        public String getSettings() {
+            return settings;
+        }
+    }
+
     public static class Token extends SimpleToken {
 
         private final JsonObject jsonNode;
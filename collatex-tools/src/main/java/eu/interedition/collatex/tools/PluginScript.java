@@ -34,14 +34,26 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
+ * Functions for tokenizing, normalizing and comparing tokens, defined in a script.
+ * <p>
+ * The script's functions are bound once to Java interfaces, so calling them does not involve looking them up by name.
+ * Tokenizers and normalizers can be applied to whole batches of input with a single call into the script, and the
+ * results of comparisons are memoized per pair of normalized token contents.
+ *
  * @author <a href="http://gregor.middell.net/">Gregor Middell</a>
  */
 public class PluginScript {
@@ -52,10 +64,48 @@ public class PluginScript {
     static final String NORMALIZER_FUNCTION = "normalize";
     static final String COMPARATOR_FUNCTION = "compare";
 
-    final Invocable script;
-    final boolean tokenizer;
-    final boolean normalizer;
-    final boolean comparator;
+    /**
+     * Applies the script's functions to arrays of input within the script.
+     */
+    static final String BATCH_FUNCTIONS = "" +
+        "function collatexTokenizeAll(texts) {\n" +
+        "    var tokens = [];\n" +
+        "    for (var i = 0; i < texts.length; i++) { tokens.push(tokenize(texts[i])); }\n" +
+        "    return tokens;\n" +
+        "}\n" +
+        "function collatexNormalizeAll(contents) {\n" +
+        "    var normalized = [];\n" +
+        "    for (var i = 0; i < contents.length; i++) { normalized.push(normalize(contents[i])); }\n" +
+        "    return normalized;\n" +
+        "}\n";
+
+    /**
+     * The number of comparison results memoized by a comparator, beyond which its memo is cleared.
+     */
+    static final int MAX_MEMOIZED_COMPARISONS = 1 << 16;
+
+    public interface Tokenizer {
+        Object tokenize(String text);
+    }
+
+    public interface Normalizer {
+        Object normalize(String content);
+    }
+
+    public interface TokenComparator {
+        Object compare(String a, String b);
+    }
+
+    public interface Batch {
+        Object collatexTokenizeAll(Object[] texts);
+
+        Object collatexNormalizeAll(Object[] contents);
+    }
+
+    final Tokenizer tokenizer;
+    final Normalizer normalizer;
+    final TokenComparator comparator;
+    final Batch batch;
 
     public static PluginScript read(URL source) throws ScriptException, IOException {
         try (Reader sourceReader = new BufferedReader(new InputStreamReader(source.openStream(), SCRIPT_CHARSET))) {
@@ -69,78 +119,99 @@ public class PluginScript {
 
         final CompiledScript script = ((Compilable) scriptEngine).compile(source);
         script.eval();
+        scriptEngine.eval(BATCH_FUNCTIONS);
 
         return new PluginScript((Invocable) script.getEngine());
     }
 
     PluginScript(Invocable script) throws ScriptException {
-        this.script = script;
-        tokenizer = hasFunction(TOKENIZER_FUNCTION, "");
-        normalizer = hasFunction(NORMALIZER_FUNCTION, "");
-        comparator = hasFunction(COMPARATOR_FUNCTION, "", "");
+        tokenizer = (hasFunction(script, TOKENIZER_FUNCTION, "") ? script.getInterface(Tokenizer.class) : null);
+        normalizer = (hasFunction(script, NORMALIZER_FUNCTION, "") ? script.getInterface(Normalizer.class) : null);
+        comparator = (hasFunction(script, COMPARATOR_FUNCTION, "", "") ? script.getInterface(TokenComparator.class) : null);
+        batch = script.getInterface(Batch.class);
+    }
+
+    boolean hasTokenizer() {
+        return (tokenizer != null);
+    }
+
+    boolean hasNormalizer() {
+        return (normalizer != null);
     }
 
     Function<String, Stream<String>> tokenizer() {
-        return (tokenizer ? input -> {
-            final Object result = invoke(TOKENIZER_FUNCTION, input);
-            if (!(result instanceof Iterable)) {
-                throw new PluginScriptExecutionException("Wrong result type of " +
-                    TOKENIZER_FUNCTION + "(); expected an iterable type, found " +
-                    result.getClass());
-            }
-            final List<String> tokens = new LinkedList<>();
-            for (Object token : (Iterable<?>) result) {
-                if (token == null) {
-                    throw new PluginScriptExecutionException(TOKENIZER_FUNCTION + "() returned null token");
-                }
-                if (!(token instanceof String)) {
-                    throw new PluginScriptExecutionException("Wrong result type of " +
-                        TOKENIZER_FUNCTION + "(); expected tokens of type string, found " +
-                        token.getClass());
-                }
-                tokens.add((String) token);
-            }
+        return (tokenizer == null ? null : text -> tokens(call(TOKENIZER_FUNCTION, () -> tokenizer.tokenize(text))).stream());
+    }
 
-            return tokens.stream();
-        } : null);
+    /**
+     * Tokenizes the given texts with a single call into the script.
+     */
+    List<List<String>> tokenize(List<String> texts) {
+        Objects.requireNonNull(tokenizer);
+        if (batch == null) {
+            return texts.stream().map(text -> tokens(call(TOKENIZER_FUNCTION, () -> tokenizer.tokenize(text)))).collect(Collectors.toList());
+        }
+        final List<?> results = elements(TOKENIZER_FUNCTION, call(TOKENIZER_FUNCTION, () -> batch.collatexTokenizeAll(texts.toArray())), texts.size());
+        final List<List<String>> tokens = new ArrayList<>(results.size());
+        for (Object result : results) {
+            tokens.add(tokens(result));
+        }
+        return tokens;
     }
 
     Function<String, String> normalizer() {
-        return (normalizer ? input -> {
-            final Object result = invoke(NORMALIZER_FUNCTION, input);
-            if (!(result instanceof String)) {
-                throw new PluginScriptExecutionException("Wrong result type of " +
-                    NORMALIZER_FUNCTION + "(); expected a string, found " +
-                    result.getClass());
-            }
-            return (String) result;
-        } : null);
+        return (normalizer == null ? null : content -> normalized(call(NORMALIZER_FUNCTION, () -> normalizer.normalize(content))));
+    }
+
+    /**
+     * Normalizes the given token contents with a single call into the script.
+     */
+    List<String> normalize(List<String> contents) {
+        Objects.requireNonNull(normalizer);
+        if (batch == null) {
+            return contents.stream().map(normalizer()).collect(Collectors.toList());
+        }
+        final List<?> results = elements(NORMALIZER_FUNCTION, call(NORMALIZER_FUNCTION, () -> batch.collatexNormalizeAll(contents.toArray())), contents.size());
+        final List<String> normalized = new ArrayList<>(results.size());
+        for (Object result : results) {
+            normalized.add(normalized(result));
+        }
+        return normalized;
     }
 
+    /**
+     * @return a comparator calling the script once per distinct pair of normalized token contents; it may be shared
+     *         by concurrent collations as long as the script's comparison does not depend on state
+     */
     Comparator<Token> comparator() {
-        return (comparator ? (o1, o2) -> {
+        if (comparator == null) {
+            return null;
+        }
+        final ConcurrentMap<ContentPair, Integer> memo = new ConcurrentHashMap<>();
+        return (o1, o2) -> {
             if (!(o1 instanceof SimpleToken)) {
                 throw new PluginScriptExecutionException(COMPARATOR_FUNCTION + "() called with wrong token type '" + o1.getClass());
             }
             if (!(o2 instanceof SimpleToken)) {
                 throw new PluginScriptExecutionException(COMPARATOR_FUNCTION + "() called with wrong token type '" + o2.getClass());
             }
+            final String a = ((SimpleToken) o1).getNormalized();
+            final String b = ((SimpleToken) o2).getNormalized();
 
-            final Object result = invoke(COMPARATOR_FUNCTION, ((SimpleToken) o1).getNormalized(), ((SimpleToken) o2).getNormalized());
-            if (result instanceof Number) {
-                return ((Number) result).intValue();
-            }
-            if (result instanceof Boolean) {
-                return (((Boolean) result) ? 0 : 1);
+            final ContentPair pair = new ContentPair(a, b);
+            Integer result = memo.get(pair);
+            if (result == null) {
+                result = comparison(call(COMPARATOR_FUNCTION, () -> comparator.compare(a, b)));
+                if (memo.size() >= MAX_MEMOIZED_COMPARISONS) {
+                    memo.clear();
+                }
+                memo.put(pair, result);
             }
-
-            throw new PluginScriptExecutionException("Wrong result type of " +
-                COMPARATOR_FUNCTION + "(); expected a number or boolean type, found " +
-                result.getClass());
-        } : null);
+            return result;
+        };
     }
 
-    boolean hasFunction(String name, Object... testArgs) throws ScriptException {
+    static boolean hasFunction(Invocable script, String name, Object... testArgs) throws ScriptException {
         try {
             script.invokeFunction(name, testArgs);
             return true;
@@ -149,17 +220,107 @@ public class PluginScript {
         }
     }
 
-    Object invoke(String function, Object... args) throws PluginScriptExecutionException {
+    static Object call(String function, Supplier<Object> call) throws PluginScriptExecutionException {
+        final Object result;
         try {
-            Object result = script.invokeFunction(function, args);
-            if (result == null) {
-                throw new PluginScriptExecutionException(function + "() returned null");
+            result = call.get();
+        } catch (PluginScriptExecutionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw new PluginScriptExecutionException(function + "() failed: " + e.getMessage(), e);
+        }
+        if (result == null) {
+            throw new PluginScriptExecutionException(function + "() returned null");
+        }
+        return result;
+    }
+
+    static List<String> tokens(Object result) {
+        final List<?> elements = elements(TOKENIZER_FUNCTION, result, -1);
+        final List<String> tokens = new ArrayList<>(elements.size());
+        for (Object token : elements) {
+            if (token == null) {
+                throw new PluginScriptExecutionException(TOKENIZER_FUNCTION + "() returned null token");
             }
-            return result;
-        } catch (ScriptException e) {
-            throw new PluginScriptExecutionException(e);
-        } catch (NoSuchMethodException e) {
-            throw new IllegalStateException(e);
+            if (!(token instanceof String)) {
+                throw new PluginScriptExecutionException("Wrong result type of " +
+                    TOKENIZER_FUNCTION + "(); expected tokens of type string, found " +
+                    token.getClass());
+            }
+            tokens.add((String) token);
+        }
+        return tokens;
+    }
+
+    static String normalized(Object result) {
+        if (!(result instanceof String)) {
+            throw new PluginScriptExecutionException("Wrong result type of " +
+                NORMALIZER_FUNCTION + "(); expected a string, found " +
+                (result == null ? null : result.getClass()));
+        }
+        return (String) result;
+    }
+
+    static int comparison(Object result) {
+        if (result instanceof Number) {
+            return ((Number) result).intValue();
+        }
+        if (result instanceof Boolean) {
+            return (((Boolean) result) ? 0 : 1);
+        }
+        throw new PluginScriptExecutionException("Wrong result type of " +
+            COMPARATOR_FUNCTION + "(); expected a number or boolean type, found " +
+            result.getClass());
+    }
+
+    /**
+     * @param expected the expected number of elements; <code>-1</code> if not known in advance
+     * @return the elements of an array returned by the script, which the script engine exposes either as a list, as a
+     *         Java array or as a map from indices to elements
+     */
+    static List<?> elements(String function, Object result, int expected) {
+        final List<?> elements;
+        if (result instanceof Iterable) {
+            final List<Object> list = new ArrayList<>();
+            ((Iterable<?>) result).forEach(list::add);
+            elements = list;
+        } else if (result instanceof Object[]) {
+            elements = Arrays.asList((Object[]) result);
+        } else if (result instanceof Map) {
+            elements = new ArrayList<>(((Map<?, ?>) result).values());
+        } else {
+            throw new PluginScriptExecutionException("Wrong result type of " +
+                function + "(); expected an iterable type, found " +
+                result.getClass());
+        }
+        if (expected >= 0 && elements.size() != expected) {
+            throw new PluginScriptExecutionException(function + "() returned " + elements.size() + " results for " + expected + " inputs");
+        }
+        return elements;
+    }
+
+    private static final class ContentPair {
+
+        private final String a;
+        private final String b;
+
+        private ContentPair(String a, String b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof ContentPair) {
+                final ContentPair other = (ContentPair) obj;
+                return a.equals(other.a) && b.equals(other.b);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * a.hashCode() + b.hashCode();
         }
     }
 
@@ -169,6 +330,10 @@ public class PluginScript {
             super(message);
         }
 
+        PluginScriptExecutionException(String message, Throwable cause) {
+            super(message, cause);
+        }
+
         PluginScriptExecutionException(ScriptException scriptException) {
             super(scriptException);
         }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.VariantGraph;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CollationBatchTest {
+
+    private static final String A = "{\"id\":\"a\",\"witnesses\":[{\"id\":\"A\",\"content\":\"the cat\"},{\"id\":\"B\",\"content\":\"the dog\"}]}";
+    private static final String B = "{\"witnesses\":[{\"id\":\"A\",\"content\":\"a b\"},{\"id\":\"B\",\"content\":\"a c\"}]}";
+    private static final String C = "{\"id\":3,\"witnesses\":[{\"id\":\"A\",\"content\":\"x\"}]}";
+
+    @Test
+    public void newlineDelimited() throws Exception {
+        final List<JsonObject> results = process(A + "\n\n{\"witnesses\":[]}\n" + B + "\n" + C + "\n", true, Runnable::run);
+
+        assertEquals(4, results.size());
+        assertEquals("a", results.get(0).getString("id"));
+        assertEquals("the ", results.get(0).getJsonObject("result").getJsonArray("table").getJsonArray(0).getJsonArray(0).getString(0));
+        assertEquals("1", results.get(1).getString("id"));
+        assertEquals("No witnesses in collation", results.get(1).getString("error"));
+        assertEquals("2", results.get(2).getString("id"));
+        assertEquals("3", results.get(3).getString("id"));
+        assertEquals(1, results.get(3).getJsonObject("result").getJsonArray("witnesses").size());
+    }
+
+    @Test
+    public void array() throws Exception {
+        List<JsonObject> results = process(" [" + A + ", " + B + "]", true, Runnable::run);
+        assertEquals(2, results.size());
+        assertEquals("a", results.get(0).getString("id"));
+        assertEquals("1", results.get(1).getString("id"));
+
+        // a malformed element ends the batch
+        results = process("[" + A + ", {\"witnesses\":{}}, " + B + "]", true, Runnable::run);
+        assertEquals(2, results.size());
+        assertEquals("1", results.get(1).getString("id"));
+        assertTrue(results.get(1).containsKey("error"));
+    }
+
+    @Test
+    public void completionOrder() throws Exception {
+        final byte[] empty = "{}".getBytes(StandardCharsets.UTF_8);
+        final CompletableFuture<byte[]> first = new CompletableFuture<>();
+        final JsonProcessor.Collation[] collations = {
+            JsonProcessor.read(new ByteArrayInputStream(A.getBytes(StandardCharsets.UTF_8))),
+            JsonProcessor.read(new ByteArrayInputStream(B.getBytes(StandardCharsets.UTF_8)))
+        };
+        final AtomicInteger read = new AtomicInteger();
+        final CollationBatch.Reader reader = () -> {
+            final int next = read.getAndIncrement();
+            if (next < collations.length) {
+                return collations[next];
+            }
+            // the first collation only completes once the second one has been written
+            first.complete(empty);
+            return null;
+        };
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CollationBatch(2, false, collation -> "a".equals(collation.getId()) ? first : CompletableFuture.completedFuture(empty))
+            .process(reader, out);
+
+        final List<JsonObject> results = results(out);
+        assertEquals("1", results.get(0).getString("id"));
+        assertEquals("a", results.get(1).getString("id"));
+    }
+
+    @Test
+    public void rejectedCollationsAreResubmitted() throws Exception {
+        final AtomicInteger rejections = new AtomicInteger(3);
+        final List<JsonObject> results = process(A + "\n" + B + "\n" + C + "\n", true, command -> {
+            if (rejections.getAndDecrement() > 0) {
+                throw new RejectedExecutionException();
+            }
+            command.run();
+        });
+        assertEquals(3, results.size());
+        assertTrue(rejections.get() < 0);
+        for (JsonObject result : results) {
+            assertTrue(result.containsKey("result"));
+        }
+    }
+
+    @Test
+    public void oversizedLinesFail() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final String batch = A + "\n" + B.replace("a c", "a c d e f g h i j k l m n o p q r s t u v w x y z") + "\n" + C + "\n";
+        try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), 0, A.length())) {
+            new CollationBatch(Runnable::run, 2, true, collation -> "{}".getBytes(StandardCharsets.UTF_8)).process(reader, out);
+        }
+        final List<JsonObject> results = results(out);
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).containsKey("result"));
+        assertEquals("1", results.get(1).getString("id"));
+        assertTrue(results.get(1).getString("error").contains("exceeds"));
+        assertEquals("3", results.get(2).getString("id"));
+        assertTrue(results.get(2).containsKey("result"));
+    }
+
+    @Test
+    public void oversizedArrayElementsFail() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        while (content.length() < 10000) {
+            content.append("word ");
+        }
+        final String batch = "[" + A + ", " + B.replace("a c", content) + ", " + C + "]";
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), 0, 1000)) {
+            new CollationBatch(Runnable::run, 2, true, collation -> "{}".getBytes(StandardCharsets.UTF_8)).process(reader, out);
+        }
+        final List<JsonObject> results = results(out);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).containsKey("result"));
+        assertEquals("1", results.get(1).getString("id"));
+        assertTrue(results.get(1).getString("error").contains("exceeds 1000 bytes"));
+
+        out.reset();
+        try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(new ByteArrayInputStream(("[" + A + ", " + B + ", " + C + "]").getBytes(StandardCharsets.UTF_8)), 0, 1000)) {
+            new CollationBatch(Runnable::run, 2, true, collation -> "{}".getBytes(StandardCharsets.UTF_8)).process(reader, out);
+        }
+        assertEquals(3, results(out).size());
+    }
+
+    @Test
+    public void rejectedFuturesAreResubmitted() throws Exception {
+        final AtomicInteger rejections = new AtomicInteger(2);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(new ByteArrayInputStream((A + "\n" + B + "\n").getBytes(StandardCharsets.UTF_8)), 0, 0)) {
+            new CollationBatch(2, true, collation -> {
+                final CompletableFuture<byte[]> result = new CompletableFuture<>();
+                if (rejections.getAndDecrement() > 0) {
+                    result.completeExceptionally(new RejectedExecutionException());
+                } else {
+                    result.complete("{}".getBytes(StandardCharsets.UTF_8));
+                }
+                return result;
+            }).process(reader, out);
+        }
+        final List<JsonObject> results = results(out);
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).containsKey("result"));
+        assertTrue(results.get(1).containsKey("result"));
+    }
+
+    @Test
+    public void cancellation() throws Exception {
+        final List<CompletableFuture<byte[]>> submitted = new CopyOnWriteArrayList<>();
+        final CountDownLatch pending = new CountDownLatch(1);
+        final CollationBatch batch = new CollationBatch(1, true, collation -> {
+            final CompletableFuture<byte[]> result = new CompletableFuture<>();
+            submitted.add(result);
+            pending.countDown();
+            return result;
+        });
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final Future<Integer> processed = executor.submit(() -> {
+                try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(new ByteArrayInputStream((A + "\n" + B + "\n" + C + "\n").getBytes(StandardCharsets.UTF_8)), 0, 0)) {
+                    return batch.process(reader, out);
+                }
+            });
+            assertTrue(pending.await(10, TimeUnit.SECONDS));
+            batch.cancel();
+            assertEquals(1, (int) processed.get(10, TimeUnit.SECONDS));
+            assertEquals(1, submitted.size());
+            assertTrue(submitted.get(0).isCancelled());
+            assertTrue(results(out).get(0).containsKey("error"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<JsonObject> process(String batch, boolean ordered, Executor executor) throws IOException, InterruptedException {
+        return process(batch, ordered, executor, collation -> {
+            final ByteArrayOutputStream result = new ByteArrayOutputStream();
+            try {
+                JsonProcessor.write(collation.collate(new VariantGraph()), result);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return result.toByteArray();
+        });
+    }
+
+    private static List<JsonObject> process(String batch, boolean ordered, Executor executor,
+                                            Function<JsonProcessor.Collation, byte[]> render) throws IOException, InterruptedException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonProcessor.BatchReader reader = JsonProcessor.readBatch(new ByteArrayInputStream(batch.getBytes(StandardCharsets.UTF_8)), 0, 0)) {
+            new CollationBatch(executor, 2, ordered, render).process(reader, out);
+        }
+        return results(out);
+    }
+
+    private static List<JsonObject> results(ByteArrayOutputStream out) {
+        final List<JsonObject> results = new ArrayList<>();
+        for (String line : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            try (JsonReader reader = Json.createReader(new StringReader(line))) {
+                results.add(reader.readObject());
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.simple.SimpleCollation;
+import eu.interedition.collatex.util.Cancellation;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CollationResultCacheTest {
+
+    private static final String COLLATION = "{\"witnesses\":[{\"id\":\"A\",\"content\":\"The black cat\"},{\"id\":\"B\",\"content\":\"The white cat\"}]%s}";
+
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void keys() throws IOException {
+        final String key = key("", "application/json");
+        assertEquals(key, key("", "application/json"));
+        assertEquals(key, key(",\"joined\":true", "application/json"));
+        assertNotEquals(key, key("", "application/tei+xml"));
+        assertNotEquals(key, key(",\"joined\":false", "application/json"));
+        assertNotEquals(key, key(",\"algorithm\":\"needleman-wunsch\"", "application/json"));
+        assertNotEquals(key, key(",\"tokenComparator\":{\"type\":\"levenshtein\"}", "application/json"));
+
+        // the settings of other collations cannot be told apart
+        final SimpleCollation collation = JsonProcessor.read(new ByteArrayInputStream(String.format(COLLATION, "").getBytes(StandardCharsets.UTF_8)));
+        assertNull(CollationResultCache.key(new SimpleCollation(collation.getWitnesses(), collation.getAlgorithm(), true), "application/json"));
+    }
+
+    @Test
+    public void sharedComputationCancellation() throws Exception {
+        final CollationResultCache cache = new CollationResultCache(1024, null, 0);
+        final ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch cancelled = new CountDownLatch(1);
+            final Function<Cancellation, byte[]> computation = cancellation -> {
+                started.countDown();
+                while (!cancellation.isCancelled()) {
+                    Thread.yield();
+                }
+                cancelled.countDown();
+                throw new CancellationException();
+            };
+            final CompletableFuture<byte[]> first = cache.get("key", computation, executor);
+            final CompletableFuture<byte[]> second = cache.get("key", computation, executor);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // the computation goes on as long as one request waits for it
+            first.cancel(false);
+            assertFalse(cancelled.await(100, TimeUnit.MILLISECONDS));
+            assertFalse(second.isDone());
+
+            second.cancel(false);
+            assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+
+            // an abandoned computation is not joined by later requests
+            assertArrayEquals(new byte[] { 1 }, cache.get("key", cancellation -> new byte[] { 1 }, executor).get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void concurrentRequests() throws Exception {
+        final CollationResultCache cache = new CollationResultCache(1024, null, 0);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final AtomicInteger computations = new AtomicInteger();
+            final CountDownLatch computing = new CountDownLatch(1);
+            final CompletableFuture<byte[]> first = cache.get("key", cancellation -> {
+                computations.incrementAndGet();
+                try {
+                    computing.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return new byte[] { 1 };
+            }, executor);
+            final CompletableFuture<byte[]> second = cache.get("key", cancellation -> {
+                computations.incrementAndGet();
+                return new byte[] { 2 };
+            }, executor);
+            computing.countDown();
+
+            assertSame(first.get(), second.get());
+            assertSame(first.get(), cache.getIfPresent("key"));
+            assertEquals(1, computations.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void eviction() throws Exception {
+        final CollationResultCache cache = new CollationResultCache(2, null, 0);
+        cache.get("a", cancellation -> new byte[1], Runnable::run).get();
+        cache.get("b", cancellation -> new byte[1], Runnable::run).get();
+        cache.getIfPresent("a");
+        cache.get("c", cancellation -> new byte[1], Runnable::run).get();
+
+        assertNull(cache.getIfPresent("b"));
+        assertEquals(1, cache.getIfPresent("a").length);
+        assertEquals(1, cache.getIfPresent("c").length);
+    }
+
+    @Test
+    public void diskTier() throws Exception {
+        final byte[] result = "result".getBytes(StandardCharsets.UTF_8);
+        new CollationResultCache(0, folder.getRoot().toPath(), 1024).get("key", cancellation -> result, Runnable::run).get();
+        assertArrayEquals(result, new CollationResultCache(0, folder.getRoot().toPath(), 1024).getIfPresent("key"));
+    }
+
+    @Test
+    public void diskTierLimit() throws Exception {
+        final CollationResultCache cache = new CollationResultCache(0, folder.getRoot().toPath(), 2);
+        cache.get("a", cancellation -> new byte[1], Runnable::run).get();
+        cache.get("b", cancellation -> new byte[1], Runnable::run).get();
+        cache.get("c", cancellation -> new byte[1], Runnable::run).get();
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(1, cache.getIfPresent("b").length);
+        assertEquals(1, cache.getIfPresent("c").length);
+
+        // the limit also applies to results stored before a restart
+        final CollationResultCache restarted = new CollationResultCache(0, folder.getRoot().toPath(), 1);
+        restarted.get("d", cancellation -> new byte[1], Runnable::run).get();
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    private static String key(String settings, String format) throws IOException {
+        final SimpleCollation collation = JsonProcessor.read(new ByteArrayInputStream(String.format(COLLATION, settings).getBytes(StandardCharsets.UTF_8)));
+        return CollationResultCache.key(collation, format);
+    }
+}
@@ -1,15 +1,24 @@
 package eu.interedition.collatex.tools;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+
+import javax.script.ScriptEngineManager;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.SystemOutRule;
+import org.junit.rules.TemporaryFolder;
 
 public class CollectionPipeTest {
     final static Path fixturesBaseDir = fixturesBasePath();
@@ -57,6 +66,39 @@ public class CollectionPipeTest {
         assertEquals(lines[lines.length - 1], "Z,Z,Z,Z");
     }
 
+    @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void collatesXmlWitnesses() throws Exception {
+        String[] args = { "--format", "csv", "-xml", xmlWitness("a b c").toString(), xmlWitness("a c").toString() };
+        CollationPipe.start(new GnuParser().parse(CollateX.OPTIONS, args));
+
+        assertEquals(Arrays.asList("w1,w2", "a,a", "b,", "c,c"), Arrays.asList(systemOut.getLog().split("\\r?\\n")));
+    }
+
+    @Test
+    public void ignoresScriptTokenizerForXmlWitnesses() throws Exception {
+        assumeNotNull(new ScriptEngineManager().getEngineByExtension("js"));
+
+        final File script = folder.newFile("tokenizer.js");
+        Files.write(script.toPath(), "function tokenize(text) { return text.split(''); }".getBytes(StandardCharsets.UTF_8));
+
+        String[] args = { "--format", "csv", "-xml", "-s", script.toString(), xmlWitness("a b c").toString(), xmlWitness("a c").toString() };
+        CollationPipe.start(new GnuParser().parse(CollateX.OPTIONS, args));
+
+        assertEquals(Arrays.asList("w1,w2", "a,a", "b,", "c,c"), Arrays.asList(systemOut.getLog().split("\\r?\\n")));
+    }
+
+    private File xmlWitness(String words) throws IOException {
+        final StringBuilder xml = new StringBuilder("<text>");
+        for (String word : words.split(" ")) {
+            xml.append("<w>").append(word).append("</w>");
+        }
+        final File file = folder.newFile();
+        Files.write(file.toPath(), xml.append("</text>").toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
     @Test(expected = Exception.class)
     public void complainsIfNoWitnessesAreProvided() throws Exception {
         String[] args = { "--format", "csv" };
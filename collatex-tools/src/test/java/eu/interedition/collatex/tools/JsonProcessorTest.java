@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.VariantGraph;
+import eu.interedition.collatex.needlemanwunsch.NeedlemanWunschAlgorithm;
+import eu.interedition.collatex.simple.SimpleJsonCollationReader;
+import eu.interedition.collatex.simple.SimpleToken;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonProcessorTest {
+
+    @Test
+    public void contentsAndTokens() throws IOException {
+        final JsonProcessor.Collation collation = JsonProcessor.read(json("{\"joined\":false,\"witnesses\":[" +
+            "{\"content\":\"The black, cat\",\"id\":\"A\"}," +
+            "{\"id\":\"B\",\"extra\":{\"ignored\":[1,{}]},\"tokens\":[{\"t\":\"The \",\"n\":\"the\",\"page\":1},{\"t\":\"white\"}]}" +
+            "],\"algorithm\":\"needleman-wunsch\"}"));
+
+        assertEquals(2, collation.getWitnesses().size());
+        assertTrue(collation.getAlgorithm() instanceof NeedlemanWunschAlgorithm);
+        assertFalse(collation.isJoined());
+        assertTrue(collation.getSettings().contains("joined=false"));
+
+        final SimpleWitness a = collation.getWitnesses().get(0);
+        assertEquals("A", a.getSigil());
+        assertEquals("The |black|, |cat", contents(a));
+        assertEquals("the|black|,|cat", normalized(a));
+
+        final SimpleWitness b = collation.getWitnesses().get(1);
+        assertEquals("B", b.getSigil());
+        assertEquals("The |white", contents(b));
+        assertEquals("the|white", normalized(b));
+        assertEquals(1, ((JsonProcessor.Token) b.getTokens().get(0)).getJsonNode().getInt("page"));
+        assertEquals(1, ((SimpleToken) b.getTokens().get(1)).getIndex());
+    }
+
+    @Test
+    public void tokenLimit() throws IOException {
+        final String collation = "{\"witnesses\":[{\"id\":\"A\",\"content\":\"a b c\"},{\"id\":\"B\",\"tokens\":[{\"t\":\"a\"},{\"t\":\"b\"}]}]}";
+        assertEquals(2, JsonProcessor.read(json(collation), 5, 0).getWitnesses().size());
+        assertLimitExceeded(collation, 4, 0);
+        assertLimitExceeded("{\"witnesses\":[{\"id\":\"A\",\"content\":\"a b c d e\"}]}", 4, 0);
+    }
+
+    @Test
+    public void byteLimit() throws IOException {
+        final String collation = "{\"witnesses\":[{\"id\":\"A\",\"content\":\"a b c\"}]}";
+        final int length = collation.getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(1, JsonProcessor.read(json(collation), 0, length).getWitnesses().size());
+        assertLimitExceeded(collation, 0, length - 1);
+    }
+
+    @Test
+    public void malformedRequests() {
+        for (String collation : new String[] {
+            "", "[]", "{\"witnesses\":[{\"id\":\"A\",\"content\":\"a\"}", "{\"witnesses\":{}}", "{\"witnesses\":[]}",
+            "{\"witnesses\":[{\"content\":\"a\"}]}", "{\"witnesses\":[{\"id\":\"A\"}]}",
+            "{\"witnesses\":[{\"id\":\"A\",\"tokens\":[{\"n\":\"a\"}]}]}"
+        }) {
+            try {
+                JsonProcessor.read(json(collation));
+                fail(collation);
+            } catch (IOException e) {
+                assertFalse(collation, e instanceof SimpleJsonCollationReader.LimitExceededException);
+            }
+        }
+    }
+
+    @Test
+    public void escaping() throws IOException {
+        final JsonProcessor.Collation collation = JsonProcessor.read(json("{\"witnesses\":[" +
+            "{\"id\":\"\\\"A\\\"\",\"content\":\"a\\\\b \\u0001\\t \u00e4\u20ac\\ud83d\\ude00\"}," +
+            "{\"id\":\"B\",\"tokens\":[{\"t\":\"a\\\\b\",\"x\":[1.50,true,null,\"\\n\"]}]}" +
+            "]}"));
+        final VariantGraph graph = collation.collate(new VariantGraph());
+        assertEquals(tableOfGenerator(graph), table(graph));
+    }
+
+    /**
+     * Compares the alignment tables of the Darwin corpus written to a channel with those written by a JSON generator.
+     */
+    @Test
+    public void darwinTables() throws IOException {
+        for (JsonValue chapter : darwin()) {
+            final VariantGraph graph = JsonProcessor.read(json(chapter.toString())).collate(new VariantGraph());
+            assertEquals(tableOfGenerator(graph), table(graph));
+        }
+    }
+
+    private static String table(VariantGraph graph) throws IOException {
+        final ByteArrayOutputStream table = new ByteArrayOutputStream();
+        JsonProcessor.write(graph, table);
+        return new String(table.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String tableOfGenerator(VariantGraph graph) throws IOException {
+        final StringWriter table = new StringWriter();
+        JsonProcessor.write(graph, new PrintWriter(table));
+        return table.toString();
+    }
+
+    private static JsonArray darwin() throws IOException {
+        final String page;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(JsonProcessorTest.class.getResourceAsStream("/static/darwin.html"), StandardCharsets.UTF_8))) {
+            page = reader.lines().collect(Collectors.joining("\n"));
+        }
+        final int start = page.indexOf('[', page.indexOf("var darwinChapters"));
+        try (JsonReader reader = Json.createReader(new StringReader(page.substring(start, page.indexOf("];", start) + 1)))) {
+            return reader.readArray();
+        }
+    }
+
+    private static void assertLimitExceeded(String collation, long maxTokens, long maxBytes) throws IOException {
+        try {
+            JsonProcessor.read(json(collation), maxTokens, maxBytes);
+            fail(collation);
+        } catch (SimpleJsonCollationReader.LimitExceededException e) {
+            // expected
+        }
+    }
+
+    private static String contents(SimpleWitness witness) {
+        return tokens(witness).stream().map(SimpleToken::getContent).collect(Collectors.joining("|"));
+    }
+
+    private static String normalized(SimpleWitness witness) {
+        return tokens(witness).stream().map(SimpleToken::getNormalized).collect(Collectors.joining("|"));
+    }
+
+    private static List<SimpleToken> tokens(SimpleWitness witness) {
+        return witness.getTokens().stream().map(t -> (SimpleToken) t).collect(Collectors.toList());
+    }
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
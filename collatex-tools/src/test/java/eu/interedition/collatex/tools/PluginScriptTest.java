@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015 The Interedition Development Group.
+ *
+ * This file is part of CollateX.
+ *
+ * CollateX is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * CollateX is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with CollateX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eu.interedition.collatex.tools;
+
+import eu.interedition.collatex.Token;
+import eu.interedition.collatex.simple.SimplePatternTokenizer;
+import eu.interedition.collatex.simple.SimpleWitness;
+import org.junit.Test;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNotNull;
+
+public class PluginScriptTest {
+
+    @Test
+    public void batches() throws ScriptException {
+        final Map<String, AtomicInteger> calls = new HashMap<>();
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        functions.put("tokenize", args -> Arrays.asList(((String) args[0]).split(" ")));
+        functions.put("normalize", args -> ((String) args[0]).toLowerCase());
+        functions.put("collatexTokenizeAll", args -> Arrays.stream((Object[]) args[0])
+            .map(text -> Arrays.asList(((String) text).split(" ")))
+            .toArray());
+        functions.put("collatexNormalizeAll", args -> Arrays.stream((Object[]) args[0])
+            .map(content -> ((String) content).toLowerCase())
+            .collect(Collectors.toList()));
+        final PluginScript script = new PluginScript(script(functions, calls));
+
+        assertNull(script.comparator());
+        assertEquals(Arrays.asList(Arrays.asList("The", "Cat"), Arrays.asList("A", "Dog")), script.tokenize(Arrays.asList("The Cat", "A Dog")));
+        assertEquals(Arrays.asList("the", "cat"), script.normalize(Arrays.asList("The", "Cat")));
+        assertEquals(1, calls.get("collatexTokenizeAll").get());
+        assertEquals(1, calls.get("collatexNormalizeAll").get());
+    }
+
+    @Test
+    public void malformedBatches() throws ScriptException {
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        functions.put("normalize", args -> args[0]);
+        functions.put("collatexTokenizeAll", args -> Collections.emptyList());
+        functions.put("collatexNormalizeAll", args -> Collections.singletonList("a"));
+        final PluginScript script = new PluginScript(script(functions, new HashMap<>()));
+        try {
+            script.normalize(Arrays.asList("a", "b"));
+            fail();
+        } catch (PluginScript.PluginScriptExecutionException e) {
+            assertEquals("normalize() returned 1 results for 2 inputs", e.getMessage());
+        }
+    }
+
+    @Test
+    public void memoizedComparisons() throws ScriptException {
+        final Map<String, AtomicInteger> calls = new HashMap<>();
+        final Map<String, Function<Object[], Object>> functions = new HashMap<>();
+        functions.put("compare", args -> args[0].equals(args[1]));
+        final PluginScript script = new PluginScript(script(functions, calls));
+        assertNull(script.tokenizer());
+        assertNull(script.normalizer());
+
+        final Comparator<Token> comparator = script.comparator();
+        assertNotNull(comparator);
+        final SimpleWitness a = new SimpleWitness("A", "the cat the cat", SimplePatternTokenizer.BY_WS_OR_PUNCT, String::trim);
+        final SimpleWitness b = new SimpleWitness("B", "the dog the dog", SimplePatternTokenizer.BY_WS_OR_PUNCT, String::trim);
+        int matches = 0;
+        for (Token ta : a.getTokens()) {
+            for (Token tb : b.getTokens()) {
+                matches += (comparator.compare(ta, tb) == 0 ? 1 : 0);
+            }
+        }
+        assertEquals(4, matches);
+        // one call for detecting the function, one per distinct pair of normalized contents
+        assertEquals(1 + 4, calls.get("compare").get());
+    }
+
+    @Test
+    public void scriptEngine() throws Exception {
+        assumeNotNull(new ScriptEngineManager().getEngineByExtension("js"));
+
+        final PluginScript script = PluginScript.read("<test>", new StringReader("" +
+            "function tokenize(text) { return text.split(/\\s+/); }\n" +
+            "function normalize(content) { return content.toLowerCase(); }\n"));
+
+        final List<List<String>> tokens = script.tokenize(Arrays.asList("The Cat", "A Dog"));
+        assertEquals(Arrays.asList(Arrays.asList("The", "Cat"), Arrays.asList("A", "Dog")), tokens);
+        assertEquals(Arrays.asList("the", "cat"), script.normalize(tokens.get(0)));
+        assertEquals("dog", script.normalizer().apply("Dog"));
+    }
+
+    /**
+     * Stands in for a script engine, which need not be available in the runtime environment.
+     */
+    private static Invocable script(Map<String, Function<Object[], Object>> functions, Map<String, AtomicInteger> calls) {
+        return new Invocable() {
+            @Override
+            public Object invokeMethod(Object thiz, String name, Object... args) throws NoSuchMethodException {
+                throw new NoSuchMethodException(name);
+            }
+
+            @Override
+            public Object invokeFunction(String name, Object... args) throws NoSuchMethodException {
+                final Function<Object[], Object> function = functions.get(name);
+                if (function == null) {
+                    throw new NoSuchMethodException(name);
+                }
+                calls.computeIfAbsent(name, n -> new AtomicInteger()).incrementAndGet();
+                return function.apply(args);
+            }
+
+            @Override
+            public <T> T getInterface(Class<T> clasz) {
+                if (!Arrays.stream(clasz.getMethods()).allMatch(method -> functions.containsKey(method.getName()))) {
+                    return null;
+                }
+                return clasz.cast(Proxy.newProxyInstance(clasz.getClassLoader(), new Class<?>[] { clasz },
+                    (proxy, method, args) -> invokeFunction(method.getName(), args)));
+            }
+
+            @Override
+            public <T> T getInterface(Object thiz, Class<T> clasz) {
+                return null;
+            }
+        };
+    }
+}